@@ -0,0 +1,53 @@
+/**
+ *    Copyright 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.module.rdf.jena;
+
+import com.hp.hpl.jena.graph.Triple;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.system.StreamRDFBase;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loads the triples of the BSBM test dataset for the benchmarks.
+ */
+public class BenchmarkData {
+
+    public final static String DATASET = "/bsbm-generated-dataset.nt";
+
+    public static List<Triple> triples() throws IOException {
+        final List<Triple> triples = new ArrayList<Triple>();
+        InputStream in = BenchmarkData.class.getResourceAsStream(DATASET);
+        if (in == null) {
+            throw new IOException("dataset not found: " + DATASET);
+        }
+        try {
+            RDFDataMgr.parse(new StreamRDFBase() {
+                @Override
+                public void triple(Triple triple) {
+                    triples.add(triple);
+                }
+            }, in, Lang.NTRIPLES);
+        } finally {
+            in.close();
+        }
+        return triples;
+    }
+}
@@ -0,0 +1,233 @@
+/**
+ *    Copyright 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.module.rdf.jena;
+
+import com.hp.hpl.jena.graph.Triple;
+import org.elasticsearch.common.io.Streams;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
+
+/**
+ * Loads the BSBM dataset into an embedded node through the _jena endpoint, and runs the
+ * BSBM explore query mix against it.
+ *
+ * Options are given as pairs of arguments, e.g. {@code -scale 4 -runs 50 -out bsbm.json}
+ *
+ * <ul>
+ * <li>scale: number of copies of the dataset to load (1)</li>
+ * <li>warmup: number of query mixes before measuring (5)</li>
+ * <li>runs: number of measured query mixes (20)</li>
+ * <li>seed: seed for the query parameters (42)</li>
+ * <li>shards: number of shards of the index (1)</li>
+ * <li>port: HTTP port of the embedded node (9299)</li>
+ * <li>out: file for the results as JSON</li>
+ * </ul>
+ */
+public class BsbmBenchmark {
+
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+
+    private final static String PATH = "/_jena/bsbm/bsbm";
+
+    private final static String ACCEPT = "application/sparql-results+json";
+
+    private final Settings options;
+
+    private final Map<String, List<Long>> latencies = new LinkedHashMap<String, List<Long>>();
+
+    private final Map<String, Integer> errors = new LinkedHashMap<String, Integer>();
+
+    private final Map<String, String> firstErrors = new LinkedHashMap<String, String>();
+
+    private long loadNanos;
+
+    private long loadedTriples;
+
+    private long runNanos;
+
+    public BsbmBenchmark(Settings options) {
+        this.options = options;
+        for (String name : BsbmQueryMix.names()) {
+            latencies.put(name, new ArrayList<Long>());
+            errors.put(name, 0);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        ImmutableSettings.Builder options = ImmutableSettings.settingsBuilder();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            options.put(args[i].replaceFirst("^-+", ""), args[i + 1]);
+        }
+        new BsbmBenchmark(options.build()).run();
+    }
+
+    public void run() throws IOException {
+        int scale = options.getAsInt("scale", 1);
+        List<Triple> triples = BenchmarkData.triples();
+        String dataset = Streams.copyToString(new InputStreamReader(
+                BenchmarkData.class.getResourceAsStream(BenchmarkData.DATASET), UTF8));
+        EmbeddedNode node = new EmbeddedNode(ImmutableSettings.settingsBuilder()
+                .put("http.port", options.getAsInt("port", 9299))
+                .put("index.number_of_shards", options.getAsInt("shards", 1))
+                .build());
+        try {
+            long t0 = System.nanoTime();
+            for (int copy = 0; copy < scale; copy++) {
+                EmbeddedNode.Response response = node.post(PATH, "application/n-triples", null,
+                        BsbmQueryMix.copy(dataset, copy).getBytes(UTF8));
+                if (!response.ok()) {
+                    throw new IOException("load failed: " + response.body());
+                }
+                loadedTriples += triples.size();
+            }
+            loadNanos = System.nanoTime() - t0;
+            BsbmQueryMix queryMix = new BsbmQueryMix(triples, scale, options.getAsLong("seed", 42L));
+            for (int i = 0; i < options.getAsInt("warmup", 5); i++) {
+                runMix(node, queryMix, false);
+            }
+            int runs = options.getAsInt("runs", 20);
+            t0 = System.nanoTime();
+            for (int i = 0; i < runs; i++) {
+                runMix(node, queryMix, true);
+            }
+            runNanos = System.nanoTime() - t0;
+            report(runs);
+        } finally {
+            node.close();
+        }
+    }
+
+    private void runMix(EmbeddedNode node, BsbmQueryMix queryMix, boolean measure) throws IOException {
+        for (String[] query : queryMix.next()) {
+            byte[] body = ("query=" + URLEncoder.encode(query[1], "UTF-8")).getBytes(UTF8);
+            long t0 = System.nanoTime();
+            EmbeddedNode.Response response = node.post(PATH, "application/x-www-form-urlencoded", ACCEPT, body);
+            long nanos = System.nanoTime() - t0;
+            if (measure) {
+                if (response.ok()) {
+                    latencies.get(query[0]).add(nanos);
+                } else {
+                    errors.put(query[0], errors.get(query[0]) + 1);
+                    if (!firstErrors.containsKey(query[0])) {
+                        String error = response.body();
+                        firstErrors.put(query[0], error.length() > 200 ? error.substring(0, 200) + "..." : error);
+                    }
+                }
+            }
+        }
+    }
+
+    private void report(int runs) throws IOException {
+        double seconds = runNanos / 1e9;
+        System.out.println(String.format("loaded %d triples in %.1f s (%.0f triples/s)",
+                loadedTriples, loadNanos / 1e9, loadedTriples / (loadNanos / 1e9)));
+        System.out.println(String.format("%d query mixes in %.1f s, QMpH %.1f",
+                runs, seconds, runs * 3600.0 / seconds));
+        System.out.println(String.format("%-6s %8s %8s %10s %10s %10s %10s %10s %10s",
+                "query", "count", "errors", "qps", "mean_ms", "p50_ms", "p90_ms", "p99_ms", "max_ms"));
+        for (Map.Entry<String, List<Long>> entry : latencies.entrySet()) {
+            long[] sorted = sorted(entry.getValue());
+            System.out.println(String.format("%-6s %8d %8d %10.2f %10.2f %10.2f %10.2f %10.2f %10.2f",
+                    entry.getKey(), sorted.length, errors.get(entry.getKey()), qps(sorted),
+                    mean(sorted), percentile(sorted, 50), percentile(sorted, 90), percentile(sorted, 99),
+                    percentile(sorted, 100)));
+        }
+        for (Map.Entry<String, String> entry : firstErrors.entrySet()) {
+            System.out.println(entry.getKey() + ": " + entry.getValue());
+        }
+        String out = options.get("out");
+        if (out != null) {
+            XContentBuilder builder = jsonBuilder().prettyPrint();
+            builder.startObject()
+                    .field("scale", options.getAsInt("scale", 1))
+                    .field("shards", options.getAsInt("shards", 1))
+                    .field("loaded_triples", loadedTriples)
+                    .field("load_seconds", loadNanos / 1e9)
+                    .field("runs", runs)
+                    .field("run_seconds", seconds)
+                    .field("qmph", runs * 3600.0 / seconds)
+                    .startObject("queries");
+            for (Map.Entry<String, List<Long>> entry : latencies.entrySet()) {
+                long[] sorted = sorted(entry.getValue());
+                builder.startObject(entry.getKey())
+                        .field("count", sorted.length)
+                        .field("errors", errors.get(entry.getKey()))
+                        .field("qps", qps(sorted))
+                        .field("mean_ms", mean(sorted))
+                        .field("p50_ms", percentile(sorted, 50))
+                        .field("p90_ms", percentile(sorted, 90))
+                        .field("p99_ms", percentile(sorted, 99))
+                        .field("max_ms", percentile(sorted, 100))
+                        .endObject();
+            }
+            builder.endObject().endObject();
+            OutputStream stream = new FileOutputStream(out);
+            try {
+                builder.bytes().writeTo(stream);
+            } finally {
+                stream.close();
+            }
+        }
+    }
+
+    private static long[] sorted(List<Long> list) {
+        long[] a = new long[list.size()];
+        for (int i = 0; i < a.length; i++) {
+            a[i] = list.get(i);
+        }
+        Arrays.sort(a);
+        return a;
+    }
+
+    private static double qps(long[] sorted) {
+        long sum = 0L;
+        for (long l : sorted) {
+            sum += l;
+        }
+        return sum > 0L ? sorted.length / (sum / 1e9) : 0.0;
+    }
+
+    private static double mean(long[] sorted) {
+        long sum = 0L;
+        for (long l : sorted) {
+            sum += l;
+        }
+        return sorted.length > 0 ? sum / 1e6 / sorted.length : 0.0;
+    }
+
+    private static double percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0.0;
+        }
+        int rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+        return sorted[Math.max(0, rank - 1)] / 1e6;
+    }
+}
@@ -0,0 +1,306 @@
+/**
+ *    Copyright 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.module.rdf.jena;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * The queries of the BSBM explore use case, with parameters drawn from the BSBM test dataset.
+ *
+ * The mix follows BSBM 3.1, which dropped query 6 from the explore mix. Parameters are
+ * picked from the triples of a random product, so the queries do not run empty. With a
+ * scale above one, the dataset is loaded several times with renamed instances, and each
+ * mix runs against one of the copies.
+ */
+public class BsbmQueryMix {
+
+    public final static String INSTANCES = "http://www4.wiwiss.fu-berlin.de/bizer/bsbm/v01/instances/";
+
+    private final static String VOCABULARY = "http://www4.wiwiss.fu-berlin.de/bizer/bsbm/v01/vocabulary/";
+
+    private final static String PREFIXES =
+            "PREFIX bsbm: <" + VOCABULARY + ">\n" +
+            "PREFIX bsbm-inst: <" + INSTANCES + ">\n" +
+            "PREFIX rdf: <http://www.w3.org/1999/02/22-rdf-syntax-ns#>\n" +
+            "PREFIX rdfs: <http://www.w3.org/2000/01/rdf-schema#>\n" +
+            "PREFIX dc: <http://purl.org/dc/elements/1.1/>\n" +
+            "PREFIX rev: <http://purl.org/stuff/rev#>\n" +
+            "PREFIX foaf: <http://xmlns.com/foaf/0.1/>\n" +
+            "PREFIX xsd: <http://www.w3.org/2001/XMLSchema#>\n";
+
+    private final static String CURRENT_DATE = "\"2008-06-20T00:00:00\"^^xsd:dateTime";
+
+    public final static String[] MIX = {
+            "Q1", "Q2", "Q2", "Q3", "Q2", "Q2", "Q4", "Q2", "Q2", "Q5",
+            "Q7", "Q7", "Q8", "Q8", "Q9", "Q9", "Q10", "Q10", "Q11", "Q12"
+    };
+
+    private final static Map<String, String> QUERIES = new LinkedHashMap<String, String>();
+
+    static {
+        QUERIES.put("Q1", "SELECT DISTINCT ?product ?label WHERE {\n" +
+                " ?product rdfs:label ?label .\n" +
+                " ?product a %ProductType% .\n" +
+                " ?product bsbm:productFeature %ProductFeature1% .\n" +
+                " ?product bsbm:productFeature %ProductFeature2% .\n" +
+                " ?product bsbm:productPropertyNumeric1 ?value1 .\n" +
+                " FILTER (?value1 > %x%)\n" +
+                "} ORDER BY ?label LIMIT 10");
+        QUERIES.put("Q2", "SELECT ?label ?comment ?producer ?productFeature ?propertyTextual1 ?propertyTextual2" +
+                " ?propertyTextual3 ?propertyNumeric1 ?propertyNumeric2 ?propertyTextual4 ?propertyTextual5" +
+                " ?propertyNumeric4 WHERE {\n" +
+                " %ProductXYZ% rdfs:label ?label .\n" +
+                " %ProductXYZ% rdfs:comment ?comment .\n" +
+                " %ProductXYZ% bsbm:producer ?p .\n" +
+                " ?p rdfs:label ?producer .\n" +
+                " %ProductXYZ% dc:publisher ?p .\n" +
+                " %ProductXYZ% bsbm:productFeature ?f .\n" +
+                " ?f rdfs:label ?productFeature .\n" +
+                " %ProductXYZ% bsbm:productPropertyTextual1 ?propertyTextual1 .\n" +
+                " %ProductXYZ% bsbm:productPropertyTextual2 ?propertyTextual2 .\n" +
+                " %ProductXYZ% bsbm:productPropertyTextual3 ?propertyTextual3 .\n" +
+                " %ProductXYZ% bsbm:productPropertyNumeric1 ?propertyNumeric1 .\n" +
+                " %ProductXYZ% bsbm:productPropertyNumeric2 ?propertyNumeric2 .\n" +
+                " OPTIONAL { %ProductXYZ% bsbm:productPropertyTextual4 ?propertyTextual4 }\n" +
+                " OPTIONAL { %ProductXYZ% bsbm:productPropertyTextual5 ?propertyTextual5 }\n" +
+                " OPTIONAL { %ProductXYZ% bsbm:productPropertyNumeric4 ?propertyNumeric4 }\n" +
+                "}");
+        QUERIES.put("Q3", "SELECT ?product ?label WHERE {\n" +
+                " ?product rdfs:label ?label .\n" +
+                " ?product a %ProductType% .\n" +
+                " ?product bsbm:productFeature %ProductFeature1% .\n" +
+                " ?product bsbm:productPropertyNumeric1 ?p1 .\n" +
+                " FILTER (?p1 > %x%)\n" +
+                " ?product bsbm:productPropertyNumeric3 ?p3 .\n" +
+                " FILTER (?p3 < %y%)\n" +
+                " OPTIONAL {\n" +
+                "  ?product bsbm:productFeature %ProductFeature2% .\n" +
+                "  ?product rdfs:label ?testVar }\n" +
+                " FILTER (!bound(?testVar))\n" +
+                "} ORDER BY ?label LIMIT 10");
+        QUERIES.put("Q4", "SELECT DISTINCT ?product ?label ?propertyTextual WHERE {\n" +
+                " {\n" +
+                "  ?product rdfs:label ?label .\n" +
+                "  ?product rdf:type %ProductType% .\n" +
+                "  ?product bsbm:productFeature %ProductFeature1% .\n" +
+                "  ?product bsbm:productFeature %ProductFeature2% .\n" +
+                "  ?product bsbm:productPropertyTextual1 ?propertyTextual .\n" +
+                "  ?product bsbm:productPropertyNumeric1 ?p1 .\n" +
+                "  FILTER (?p1 > %x%)\n" +
+                " } UNION {\n" +
+                "  ?product rdfs:label ?label .\n" +
+                "  ?product rdf:type %ProductType% .\n" +
+                "  ?product bsbm:productFeature %ProductFeature1% .\n" +
+                "  ?product bsbm:productFeature %ProductFeature3% .\n" +
+                "  ?product bsbm:productPropertyTextual1 ?propertyTextual .\n" +
+                "  ?product bsbm:productPropertyNumeric2 ?p2 .\n" +
+                "  FILTER (?p2 > %y%)\n" +
+                " }\n" +
+                "} ORDER BY ?label OFFSET 5 LIMIT 10");
+        QUERIES.put("Q5", "SELECT DISTINCT ?product ?productLabel WHERE {\n" +
+                " ?product rdfs:label ?productLabel .\n" +
+                " FILTER (%ProductXYZ% != ?product)\n" +
+                " %ProductXYZ% bsbm:productFeature ?prodFeature .\n" +
+                " ?product bsbm:productFeature ?prodFeature .\n" +
+                " %ProductXYZ% bsbm:productPropertyNumeric1 ?origProperty1 .\n" +
+                " ?product bsbm:productPropertyNumeric1 ?simProperty1 .\n" +
+                " FILTER (?simProperty1 < (?origProperty1 + 120) && ?simProperty1 > (?origProperty1 - 120))\n" +
+                " %ProductXYZ% bsbm:productPropertyNumeric2 ?origProperty2 .\n" +
+                " ?product bsbm:productPropertyNumeric2 ?simProperty2 .\n" +
+                " FILTER (?simProperty2 < (?origProperty2 + 170) && ?simProperty2 > (?origProperty2 - 170))\n" +
+                "} ORDER BY ?productLabel LIMIT 5");
+        QUERIES.put("Q7", "SELECT ?productLabel ?offer ?price ?vendor ?vendorTitle ?review ?revTitle" +
+                " ?reviewer ?revName ?rating1 ?rating2 WHERE {\n" +
+                " %ProductXYZ% rdfs:label ?productLabel .\n" +
+                " OPTIONAL {\n" +
+                "  ?offer bsbm:product %ProductXYZ% .\n" +
+                "  ?offer bsbm:price ?price .\n" +
+                "  ?offer bsbm:vendor ?vendor .\n" +
+                "  ?vendor rdfs:label ?vendorTitle .\n" +
+                "  ?vendor bsbm:country <http://downlode.org/rdf/iso-3166/countries#DE> .\n" +
+                "  ?offer dc:publisher ?vendor .\n" +
+                "  ?offer bsbm:validTo ?date .\n" +
+                "  FILTER (?date > " + CURRENT_DATE + ")\n" +
+                " }\n" +
+                " OPTIONAL {\n" +
+                "  ?review bsbm:reviewFor %ProductXYZ% .\n" +
+                "  ?review rev:reviewer ?reviewer .\n" +
+                "  ?reviewer foaf:name ?revName .\n" +
+                "  ?review dc:title ?revTitle .\n" +
+                "  OPTIONAL { ?review bsbm:rating1 ?rating1 . }\n" +
+                "  OPTIONAL { ?review bsbm:rating2 ?rating2 . }\n" +
+                " }\n" +
+                "}");
+        QUERIES.put("Q8", "SELECT ?title ?text ?reviewDate ?reviewer ?reviewerName ?rating1 ?rating2" +
+                " ?rating3 ?rating4 WHERE {\n" +
+                " ?review bsbm:reviewFor %ProductXYZ% .\n" +
+                " ?review dc:title ?title .\n" +
+                " ?review rev:text ?text .\n" +
+                " FILTER langMatches(lang(?text), \"EN\")\n" +
+                " ?review bsbm:reviewDate ?reviewDate .\n" +
+                " ?review rev:reviewer ?reviewer .\n" +
+                " ?reviewer foaf:name ?reviewerName .\n" +
+                " OPTIONAL { ?review bsbm:rating1 ?rating1 . }\n" +
+                " OPTIONAL { ?review bsbm:rating2 ?rating2 . }\n" +
+                " OPTIONAL { ?review bsbm:rating3 ?rating3 . }\n" +
+                " OPTIONAL { ?review bsbm:rating4 ?rating4 . }\n" +
+                "} ORDER BY DESC(?reviewDate) LIMIT 20");
+        QUERIES.put("Q9", "DESCRIBE ?x WHERE { %ReviewXYZ% rev:reviewer ?x }");
+        QUERIES.put("Q10", "SELECT DISTINCT ?offer ?price WHERE {\n" +
+                " ?offer bsbm:product %ProductXYZ% .\n" +
+                " ?offer bsbm:vendor ?vendor .\n" +
+                " ?offer dc:publisher ?vendor .\n" +
+                " ?vendor bsbm:country <http://downlode.org/rdf/iso-3166/countries#US> .\n" +
+                " ?offer bsbm:deliveryDays ?deliveryDays .\n" +
+                " FILTER (?deliveryDays <= 3)\n" +
+                " ?offer bsbm:price ?price .\n" +
+                " ?offer bsbm:validTo ?date .\n" +
+                " FILTER (?date > " + CURRENT_DATE + ")\n" +
+                "} ORDER BY xsd:double(str(?price)) LIMIT 10");
+        QUERIES.put("Q11", "SELECT ?property ?hasValue ?isValueOf WHERE {\n" +
+                " { %OfferXYZ% ?property ?hasValue }\n" +
+                " UNION\n" +
+                " { ?isValueOf ?property %OfferXYZ% }\n" +
+                "}");
+        QUERIES.put("Q12", "CONSTRUCT {\n" +
+                " %OfferXYZ% bsbm:productURI ?productURI .\n" +
+                " %OfferXYZ% bsbm:productlabel ?productlabel .\n" +
+                " %OfferXYZ% bsbm:vendorname ?vendorname .\n" +
+                " %OfferXYZ% bsbm:vendorhomepage ?vendorhomepage .\n" +
+                " %OfferXYZ% bsbm:offerURL ?offerURL .\n" +
+                " %OfferXYZ% bsbm:price ?price .\n" +
+                " %OfferXYZ% bsbm:deliveryDays ?deliveryDays .\n" +
+                " %OfferXYZ% bsbm:validuntil ?validTo\n" +
+                "} WHERE {\n" +
+                " %OfferXYZ% bsbm:product ?productURI .\n" +
+                " ?productURI rdfs:label ?productlabel .\n" +
+                " %OfferXYZ% bsbm:vendor ?vendorURI .\n" +
+                " ?vendorURI rdfs:label ?vendorname .\n" +
+                " ?vendorURI foaf:homepage ?vendorhomepage .\n" +
+                " %OfferXYZ% bsbm:offerWebpage ?offerURL .\n" +
+                " %OfferXYZ% bsbm:price ?price .\n" +
+                " %OfferXYZ% bsbm:deliveryDays ?deliveryDays .\n" +
+                " %OfferXYZ% bsbm:validTo ?validTo\n" +
+                "}");
+    }
+
+    private final Map<Node, List<Triple>> products = new HashMap<Node, List<Triple>>();
+
+    private final List<Node> productList = new ArrayList<Node>();
+
+    private final List<Node> offers = new ArrayList<Node>();
+
+    private final List<Node> reviews = new ArrayList<Node>();
+
+    private final Random random;
+
+    private final int scale;
+
+    public BsbmQueryMix(List<Triple> triples, int scale, long seed) {
+        this.scale = scale;
+        this.random = new Random(seed);
+        for (Triple triple : triples) {
+            String p = triple.getPredicate().getURI();
+            if ((VOCABULARY + "productFeature").equals(p) && !products.containsKey(triple.getSubject())) {
+                products.put(triple.getSubject(), new ArrayList<Triple>());
+                productList.add(triple.getSubject());
+            } else if ((VOCABULARY + "product").equals(p)) {
+                offers.add(triple.getSubject());
+            } else if ((VOCABULARY + "reviewFor").equals(p)) {
+                reviews.add(triple.getSubject());
+            }
+        }
+        for (Triple triple : triples) {
+            List<Triple> list = products.get(triple.getSubject());
+            if (list != null) {
+                list.add(triple);
+            }
+        }
+    }
+
+    public static String[] names() {
+        return QUERIES.keySet().toArray(new String[QUERIES.size()]);
+    }
+
+    /**
+     * Return the queries of the next mix, with fresh parameters.
+     *
+     * @return the query names and the queries, in the order of the mix
+     */
+    public List<String[]> next() {
+        Node product = productList.get(random.nextInt(productList.size()));
+        List<Node> features = new ArrayList<Node>();
+        Node productType = null;
+        long numeric1 = 0L;
+        long numeric3 = 0L;
+        for (Triple triple : products.get(product)) {
+            String p = triple.getPredicate().getURI();
+            if ((VOCABULARY + "productFeature").equals(p)) {
+                features.add(triple.getObject());
+            } else if ("http://www.w3.org/1999/02/22-rdf-syntax-ns#type".equals(p)
+                    && triple.getObject().getURI().startsWith(INSTANCES)) {
+                productType = triple.getObject();
+            } else if ((VOCABULARY + "productPropertyNumeric1").equals(p)) {
+                numeric1 = Long.parseLong(triple.getObject().getLiteralLexicalForm());
+            } else if ((VOCABULARY + "productPropertyNumeric3").equals(p)) {
+                numeric3 = Long.parseLong(triple.getObject().getLiteralLexicalForm());
+            }
+        }
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("%ProductXYZ%", uri(product));
+        params.put("%ProductType%", productType != null ? uri(productType) : "bsbm:Product");
+        params.put("%ProductFeature1%", uri(features.get(random.nextInt(features.size()))));
+        params.put("%ProductFeature2%", uri(features.get(random.nextInt(features.size()))));
+        params.put("%ProductFeature3%", uri(features.get(random.nextInt(features.size()))));
+        params.put("%x%", Long.toString(Math.max(0L, numeric1 - 1 - random.nextInt(100))));
+        params.put("%y%", Long.toString(numeric3 + 1 + random.nextInt(100)));
+        params.put("%ReviewXYZ%", uri(reviews.get(random.nextInt(reviews.size()))));
+        params.put("%OfferXYZ%", uri(offers.get(random.nextInt(offers.size()))));
+        int copy = random.nextInt(scale);
+        List<String[]> mix = new ArrayList<String[]>();
+        for (String name : MIX) {
+            String query = QUERIES.get(name);
+            for (Map.Entry<String, String> param : params.entrySet()) {
+                query = query.replace(param.getKey(), param.getValue());
+            }
+            mix.add(new String[]{name, copy(PREFIXES + query, copy)});
+        }
+        return mix;
+    }
+
+    /**
+     * Rename the instances for a copy of the dataset.
+     *
+     * @param s a query or N-Triples document
+     * @param copy the number of the copy, the first copy keeps its names
+     * @return the renamed query or document
+     */
+    public static String copy(String s, int copy) {
+        return copy == 0 ? s : s.replace(INSTANCES, INSTANCES + "copy" + copy + "/");
+    }
+
+    private static String uri(Node node) {
+        return "<" + node.getURI() + ">";
+    }
+}
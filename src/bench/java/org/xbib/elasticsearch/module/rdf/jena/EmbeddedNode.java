@@ -0,0 +1,137 @@
+/**
+ *    Copyright 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.module.rdf.jena;
+
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.io.FileSystemUtils;
+import org.elasticsearch.common.io.Streams;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.node.Node;
+import org.elasticsearch.node.NodeBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+
+/**
+ * A local Elasticsearch node with the plugin, in a temporary home directory, for the benchmarks.
+ *
+ * The plugin is found on the class path, so the node must not be given a plugin.types setting.
+ */
+public class EmbeddedNode implements Closeable {
+
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File home;
+
+    private final Node node;
+
+    private final String url;
+
+    public EmbeddedNode(Settings settings) throws IOException {
+        this.home = Files.createTempDirectory("jena-benchmark").toFile();
+        int port = settings.getAsInt("http.port", 9299);
+        this.node = NodeBuilder.nodeBuilder().local(true).settings(ImmutableSettings.settingsBuilder()
+                .put("path.home", home.getAbsolutePath())
+                .put("cluster.name", "jena-benchmark-" + port)
+                .put("http.port", port)
+                .put("index.number_of_shards", 1)
+                .put("index.number_of_replicas", 0)
+                .put(settings)
+                .build()).node();
+        this.url = "http://localhost:" + port;
+        client().admin().cluster().prepareHealth().setWaitForYellowStatus().execute().actionGet();
+    }
+
+    public Client client() {
+        return node.client();
+    }
+
+    public Response get(String path) throws IOException {
+        return request("GET", path, null, null, null);
+    }
+
+    public Response post(String path, String contentType, String accept, byte[] body) throws IOException {
+        return request("POST", path, contentType, accept, body);
+    }
+
+    private Response request(String method, String path, String contentType, String accept, byte[] body)
+            throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url + path).openConnection();
+        connection.setRequestMethod(method);
+        if (contentType != null) {
+            connection.setRequestProperty("Content-Type", contentType);
+        }
+        if (accept != null) {
+            connection.setRequestProperty("Accept", accept);
+        }
+        if (body != null) {
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(body.length);
+            OutputStream out = connection.getOutputStream();
+            try {
+                out.write(body);
+            } finally {
+                out.close();
+            }
+        }
+        int status = connection.getResponseCode();
+        InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (in != null) {
+            Streams.copy(in, out);
+        }
+        return new Response(status, new String(out.toByteArray(), UTF8));
+    }
+
+    @Override
+    public void close() {
+        node.close();
+        FileSystemUtils.deleteRecursively(home);
+    }
+
+    public static class Response {
+
+        private final int status;
+
+        private final String body;
+
+        Response(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+
+        public int status() {
+            return status;
+        }
+
+        public String body() {
+            return body;
+        }
+
+        public boolean ok() {
+            return status < 400;
+        }
+    }
+}
@@ -0,0 +1,243 @@
+/**
+ *    Copyright 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.module.rdf.jena;
+
+import org.elasticsearch.common.io.Streams;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
+
+/**
+ * Sweeps the ingest settings on an embedded node and reports triples per second, heap
+ * high-water mark and GC time of each combination.
+ *
+ * Each option takes a comma separated list of values, and every combination is run on a
+ * fresh node, e.g. {@code -shards 1,2,4 -bulk_actions 1000,10000 -concurrent_requests 1,4}
+ *
+ * <ul>
+ * <li>shards: number of shards of the index (1)</li>
+ * <li>bulk_actions: jena.ingest.bulk_actions (10000)</li>
+ * <li>bulk_size: jena.ingest.bulk_size (10m)</li>
+ * <li>concurrent_requests: jena.ingest.concurrent_requests (number of CPUs)</li>
+ * <li>parser_threads: jena.ingest.parser_threads (number of CPUs)</li>
+ * <li>uploads: number of concurrent uploads (number of CPUs)</li>
+ * <li>scale: number of copies of the dataset to load (16)</li>
+ * <li>port: HTTP port of the embedded node (9299)</li>
+ * <li>out: file for the results as JSON</li>
+ * </ul>
+ *
+ * Heap and GC figures are taken from the whole JVM, which runs the node and the uploading clients.
+ */
+public class IngestBenchmark {
+
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+
+    private final static String PATH = "/_jena/ingest/ingest";
+
+    private final Settings options;
+
+    private final List<Result> results = new ArrayList<Result>();
+
+    public IngestBenchmark(Settings options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        ImmutableSettings.Builder options = ImmutableSettings.settingsBuilder();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            options.put(args[i].replaceFirst("^-+", ""), args[i + 1]);
+        }
+        new IngestBenchmark(options.build()).run();
+    }
+
+    public void run() throws Exception {
+        String processors = Integer.toString(Runtime.getRuntime().availableProcessors());
+        String dataset = Streams.copyToString(new InputStreamReader(
+                BenchmarkData.class.getResourceAsStream(BenchmarkData.DATASET), UTF8));
+        int triples = BenchmarkData.triples().size();
+        System.out.println(String.format("%6s %12s %10s %10s %8s %8s %12s %12s %10s %8s",
+                "shards", "bulk_actions", "bulk_size", "concurrent", "parsers", "uploads",
+                "triples/s", "heap_peak_mb", "gc_ms", "failed"));
+        for (String shards : options.getAsArray("shards", new String[]{"1"})) {
+            for (String bulkActions : options.getAsArray("bulk_actions", new String[]{"10000"})) {
+                for (String bulkSize : options.getAsArray("bulk_size", new String[]{"10m"})) {
+                    for (String concurrent : options.getAsArray("concurrent_requests", new String[]{processors})) {
+                        for (String parsers : options.getAsArray("parser_threads", new String[]{processors})) {
+                            for (String uploads : options.getAsArray("uploads", new String[]{processors})) {
+                                Settings settings = ImmutableSettings.settingsBuilder()
+                                        .put("http.port", options.getAsInt("port", 9299))
+                                        .put("index.number_of_shards", shards)
+                                        .put("jena.ingest.bulk_actions", bulkActions)
+                                        .put("jena.ingest.bulk_size", bulkSize)
+                                        .put("jena.ingest.concurrent_requests", concurrent)
+                                        .put("jena.ingest.parser_threads", parsers)
+                                        .build();
+                                Result result = run(settings, dataset, triples, Integer.parseInt(uploads));
+                                results.add(result);
+                                System.out.println(String.format("%6s %12s %10s %10s %8s %8s %12.0f %12.1f %10d %8d",
+                                        shards, bulkActions, bulkSize, concurrent, parsers, uploads,
+                                        result.triplesPerSecond(), result.heapPeak / 1048576.0,
+                                        result.gcMillis, result.failed));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        String out = options.get("out");
+        if (out != null) {
+            XContentBuilder builder = jsonBuilder().prettyPrint();
+            builder.startArray();
+            for (Result result : results) {
+                builder.startObject()
+                        .field("settings", result.settings.getAsMap())
+                        .field("uploads", result.uploads)
+                        .field("triples", result.triples)
+                        .field("failed", result.failed)
+                        .field("seconds", result.nanos / 1e9)
+                        .field("triples_per_second", result.triplesPerSecond())
+                        .field("heap_peak_bytes", result.heapPeak)
+                        .field("gc_millis", result.gcMillis)
+                        .endObject();
+            }
+            builder.endArray();
+            OutputStream stream = new FileOutputStream(out);
+            try {
+                builder.bytes().writeTo(stream);
+            } finally {
+                stream.close();
+            }
+        }
+    }
+
+    private Result run(Settings settings, final String dataset, int triples, int uploads) throws Exception {
+        final int scale = options.getAsInt("scale", 16);
+        final EmbeddedNode node = new EmbeddedNode(settings);
+        try {
+            // first copy is loaded unmeasured, to create the index and warm up the node
+            node.post(PATH, "application/n-triples", null, dataset.getBytes(UTF8));
+            System.gc();
+            resetPeakUsage();
+            long gc0 = gcMillis();
+            final AtomicInteger next = new AtomicInteger(1);
+            final AtomicInteger failed = new AtomicInteger();
+            ExecutorService executor = Executors.newFixedThreadPool(uploads);
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            long t0 = System.nanoTime();
+            for (int i = 0; i < uploads; i++) {
+                futures.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        int copy;
+                        while ((copy = next.getAndIncrement()) <= scale) {
+                            try {
+                                EmbeddedNode.Response response = node.post(PATH, "application/n-triples", null,
+                                        BsbmQueryMix.copy(dataset, copy).getBytes(UTF8));
+                                if (!response.ok()) {
+                                    failed.incrementAndGet();
+                                }
+                            } catch (IOException e) {
+                                failed.incrementAndGet();
+                            }
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            long nanos = System.nanoTime() - t0;
+            executor.shutdown();
+            return new Result(settings, uploads, (long) triples * scale, failed.get(), nanos,
+                    heapPeak(), gcMillis() - gc0);
+        } finally {
+            node.close();
+        }
+    }
+
+    private static void resetPeakUsage() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage();
+        }
+    }
+
+    private static long heapPeak() {
+        long peak = 0L;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    private static long gcMillis() {
+        long millis = 0L;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0L, gc.getCollectionTime());
+        }
+        return millis;
+    }
+
+    static class Result {
+
+        final Settings settings;
+
+        final int uploads;
+
+        final long triples;
+
+        final int failed;
+
+        final long nanos;
+
+        final long heapPeak;
+
+        final long gcMillis;
+
+        Result(Settings settings, int uploads, long triples, int failed, long nanos, long heapPeak, long gcMillis) {
+            this.settings = settings;
+            this.uploads = uploads;
+            this.triples = triples;
+            this.failed = failed;
+            this.nanos = nanos;
+            this.heapPeak = heapPeak;
+            this.gcMillis = gcMillis;
+        }
+
+        double triplesPerSecond() {
+            return triples / (nanos / 1e9);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ *    Copyright 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.module.rdf.jena;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding of the N-Triples terms of the BSBM dataset, once per term of the dataset.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class NTriplesBenchmark {
+
+    private List<Node> nodes;
+
+    private List<String> terms;
+
+    private List<String> literals;
+
+    @Setup
+    public void setup() throws IOException {
+        nodes = new ArrayList<Node>();
+        for (Triple triple : BenchmarkData.triples()) {
+            nodes.add(triple.getSubject());
+            nodes.add(triple.getPredicate());
+            nodes.add(triple.getObject());
+        }
+        terms = new ArrayList<String>();
+        literals = new ArrayList<String>();
+        for (Node node : nodes) {
+            terms.add(NTriples.asNt(node));
+            if (node.isLiteral()) {
+                literals.add(NTriples.asNt(node));
+            }
+        }
+    }
+
+    @Benchmark
+    public void asNt(Blackhole blackhole) {
+        for (Node node : nodes) {
+            blackhole.consume(NTriples.asNt(node));
+        }
+    }
+
+    @Benchmark
+    public void asNode(Blackhole blackhole) {
+        for (String term : terms) {
+            blackhole.consume(NTriples.asNode(term));
+        }
+    }
+
+    @Benchmark
+    public void unescape(Blackhole blackhole) {
+        for (String literal : literals) {
+            blackhole.consume(NTriples.unescape(literal));
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/**
+ *    Copyright 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.module.rdf.jena;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.URLEncoder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding of form encoded SPARQL request bodies, with a query of the given number of triple patterns.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class QueryDecoderBenchmark {
+
+    private final static String URI = "/_jena/jena/bsbm?profile=false";
+
+    @Param({"10", "100", "1000"})
+    public int patterns;
+
+    private String body;
+
+    @Setup
+    public void setup() throws Exception {
+        StringBuilder sb = new StringBuilder("PREFIX bsbm: <http://www4.wiwiss.fu-berlin.de/bizer/bsbm/v01/vocabulary/>\n")
+                .append("PREFIX rdfs: <http://www.w3.org/2000/01/rdf-schema#>\n")
+                .append("SELECT * WHERE {\n");
+        for (int i = 0; i < patterns; i++) {
+            sb.append("  ?product").append(i).append(" bsbm:productFeature ?feature").append(i)
+                    .append(" ; rdfs:label \"Ürün ").append(i).append("\"@tr .\n");
+        }
+        sb.append("} LIMIT 10");
+        body = "query=" + URLEncoder.encode(sb.toString(), "UTF-8")
+                + "&default-graph-uri=" + URLEncoder.encode("http://example.org/graph", "UTF-8");
+    }
+
+    @Benchmark
+    public String parameters() {
+        return new QueryDecoder(URI, body).parameters().get("query", null);
+    }
+}
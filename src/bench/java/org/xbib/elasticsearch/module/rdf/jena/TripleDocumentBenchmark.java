@@ -0,0 +1,71 @@
+/**
+ *    Copyright 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.module.rdf.jena;
+
+import com.hp.hpl.jena.graph.NodeFactory;
+import com.hp.hpl.jena.graph.Triple;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the Elasticsearch documents of the upload path, once per triple of the BSBM dataset.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class TripleDocumentBenchmark {
+
+    private List<Triple> triples;
+
+    @Setup
+    public void setup() throws IOException {
+        triples = BenchmarkData.triples();
+    }
+
+    @Benchmark
+    public void of(Blackhole blackhole) throws IOException {
+        for (Triple triple : triples) {
+            TripleDocument document = TripleDocument.of(triple, null);
+            blackhole.consume(document.id());
+            blackhole.consume(document.source().bytes());
+        }
+    }
+
+    @Benchmark
+    public void ofWithContext(Blackhole blackhole) throws IOException {
+        for (Triple triple : triples) {
+            TripleDocument document = TripleDocument.of(triple, NodeFactory.createURI("http://example.org/graph"));
+            blackhole.consume(document.id());
+            blackhole.consume(document.source().bytes());
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/**
+ *    Copyright 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.action.rdf.jena;
+
+import org.elasticsearch.action.support.broadcast.BroadcastShardOperationResponse;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.index.shard.ShardId;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+class ShardStarJoinResponse extends BroadcastShardOperationResponse {
+
+    private List<String[]> rows;
+
+    private long scanned;
+
+    ShardStarJoinResponse() {
+    }
+
+    ShardStarJoinResponse(ShardId shardId, List<String[]> rows, long scanned) {
+        super(shardId);
+        this.rows = rows;
+        this.scanned = scanned;
+    }
+
+    List<String[]> getRows() {
+        return rows;
+    }
+
+    long getScanned() {
+        return scanned;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        scanned = in.readVLong();
+        int size = in.readVInt();
+        rows = new ArrayList<String[]>(size);
+        for (int i = 0; i < size; i++) {
+            rows.add(in.readStringArray());
+        }
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeVLong(scanned);
+        out.writeVInt(rows.size());
+        for (String[] row : rows) {
+            out.writeStringArray(row);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/**
+ *    Copyright 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.action.rdf.jena;
+
+import org.elasticsearch.action.ClientAction;
+import org.elasticsearch.client.Client;
+
+/**
+ * Joins triple patterns that share a subject on the shards of an index whose triples are routed by subject.
+ */
+public class StarJoinAction extends ClientAction<StarJoinRequest, StarJoinResponse, StarJoinRequestBuilder> {
+
+    public final static StarJoinAction INSTANCE = new StarJoinAction();
+
+    public final static String NAME = "indices:data/read/jena/star_join";
+
+    private StarJoinAction() {
+        super(NAME);
+    }
+
+    @Override
+    public StarJoinResponse newResponse() {
+        return new StarJoinResponse();
+    }
+
+    @Override
+    public StarJoinRequestBuilder newRequestBuilder(Client client) {
+        return new StarJoinRequestBuilder(client);
+    }
+}
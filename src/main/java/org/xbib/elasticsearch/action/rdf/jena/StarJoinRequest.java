@@ -0,0 +1,222 @@
+/**
+ *    Copyright 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.action.rdf.jena;
+
+import org.elasticsearch.action.ActionRequestValidationException;
+import org.elasticsearch.action.support.broadcast.BroadcastOperationRequest;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Streamable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.elasticsearch.action.ValidateActions.addValidationError;
+
+/**
+ * A request to join triple patterns that share a subject on the shards of an index.
+ *
+ * Each pattern is given by the filter that selects its triples, and by the names of the variables
+ * at its subject, predicate and object positions. The rows of the response hold the values of
+ * all variables, in the order of their first occurrence, in N-Triples form.
+ */
+public class StarJoinRequest extends BroadcastOperationRequest<StarJoinRequest> {
+
+    private String type;
+
+    private String mapping;
+
+    private long maxRows = Long.MAX_VALUE;
+
+    private List<Pattern> patterns = new ArrayList<Pattern>();
+
+    public StarJoinRequest() {
+    }
+
+    public StarJoinRequest(String... indices) {
+        super(indices);
+    }
+
+    public StarJoinRequest type(String type) {
+        this.type = type;
+        return this;
+    }
+
+    public String type() {
+        return type;
+    }
+
+    /**
+     * Set the mapping variant of the index, which decides how the values of a triple are read.
+     *
+     * @param mapping the name of the mapping variant
+     * @return this request
+     */
+    public StarJoinRequest mapping(String mapping) {
+        this.mapping = mapping;
+        return this;
+    }
+
+    public String mapping() {
+        return mapping;
+    }
+
+    /**
+     * Set the maximum number of rows a shard may produce, including intermediate rows.
+     *
+     * @param maxRows the maximum number of rows
+     * @return this request
+     */
+    public StarJoinRequest maxRows(long maxRows) {
+        this.maxRows = maxRows;
+        return this;
+    }
+
+    public long maxRows() {
+        return maxRows;
+    }
+
+    public StarJoinRequest add(Pattern pattern) {
+        patterns.add(pattern);
+        return this;
+    }
+
+    public List<Pattern> patterns() {
+        return patterns;
+    }
+
+    /**
+     * Return the names of the variables of all patterns, in the order of their first occurrence.
+     *
+     * @return the variable names
+     */
+    public List<String> vars() {
+        List<String> vars = new ArrayList<String>();
+        for (Pattern pattern : patterns) {
+            for (String var : new String[]{pattern.subject(), pattern.predicate(), pattern.object()}) {
+                if (var != null && !vars.contains(var)) {
+                    vars.add(var);
+                }
+            }
+        }
+        return vars;
+    }
+
+    @Override
+    public ActionRequestValidationException validate() {
+        ActionRequestValidationException validationException = super.validate();
+        if (type == null) {
+            validationException = addValidationError("type is missing", validationException);
+        }
+        if (patterns.isEmpty()) {
+            validationException = addValidationError("no patterns", validationException);
+        }
+        return validationException;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        type = in.readString();
+        mapping = in.readOptionalString();
+        maxRows = in.readVLong();
+        int size = in.readVInt();
+        patterns = new ArrayList<Pattern>(size);
+        for (int i = 0; i < size; i++) {
+            Pattern pattern = new Pattern();
+            pattern.readFrom(in);
+            patterns.add(pattern);
+        }
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeString(type);
+        out.writeOptionalString(mapping);
+        out.writeVLong(maxRows);
+        out.writeVInt(patterns.size());
+        for (Pattern pattern : patterns) {
+            pattern.writeTo(out);
+        }
+    }
+
+    /**
+     * A triple pattern, given by the query that selects its triples and the variables it binds.
+     */
+    public static class Pattern implements Streamable {
+
+        private BytesReference query;
+
+        private String subject;
+
+        private String predicate;
+
+        private String object;
+
+        Pattern() {
+        }
+
+        /**
+         * Create a pattern.
+         *
+         * @param query the query that selects the triples of the pattern
+         * @param subject the variable name at the subject position, or null
+         * @param predicate the variable name at the predicate position, or null
+         * @param object the variable name at the object position, or null
+         */
+        public Pattern(BytesReference query, String subject, String predicate, String object) {
+            this.query = query;
+            this.subject = subject;
+            this.predicate = predicate;
+            this.object = object;
+        }
+
+        public BytesReference query() {
+            return query;
+        }
+
+        public String subject() {
+            return subject;
+        }
+
+        public String predicate() {
+            return predicate;
+        }
+
+        public String object() {
+            return object;
+        }
+
+        @Override
+        public void readFrom(StreamInput in) throws IOException {
+            query = in.readBytesReference();
+            subject = in.readOptionalString();
+            predicate = in.readOptionalString();
+            object = in.readOptionalString();
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            out.writeBytesReference(query);
+            out.writeOptionalString(subject);
+            out.writeOptionalString(predicate);
+            out.writeOptionalString(object);
+        }
+    }
+}
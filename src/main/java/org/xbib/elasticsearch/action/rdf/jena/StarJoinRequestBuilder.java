@@ -0,0 +1,53 @@
+/**
+ *    Copyright 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.action.rdf.jena;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.support.broadcast.BroadcastOperationRequestBuilder;
+import org.elasticsearch.client.Client;
+
+public class StarJoinRequestBuilder
+        extends BroadcastOperationRequestBuilder<StarJoinRequest, StarJoinResponse, StarJoinRequestBuilder, Client> {
+
+    public StarJoinRequestBuilder(Client client) {
+        super(client, new StarJoinRequest());
+    }
+
+    public StarJoinRequestBuilder setType(String type) {
+        request.type(type);
+        return this;
+    }
+
+    public StarJoinRequestBuilder setMapping(String mapping) {
+        request.mapping(mapping);
+        return this;
+    }
+
+    public StarJoinRequestBuilder setMaxRows(long maxRows) {
+        request.maxRows(maxRows);
+        return this;
+    }
+
+    public StarJoinRequestBuilder addPattern(StarJoinRequest.Pattern pattern) {
+        request.add(pattern);
+        return this;
+    }
+
+    @Override
+    protected void doExecute(ActionListener<StarJoinResponse> listener) {
+        client.execute(StarJoinAction.INSTANCE, request, listener);
+    }
+}
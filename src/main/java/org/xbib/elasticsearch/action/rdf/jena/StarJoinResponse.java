@@ -0,0 +1,98 @@
+/**
+ *    Copyright 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.action.rdf.jena;
+
+import org.elasticsearch.action.ShardOperationFailedException;
+import org.elasticsearch.action.support.broadcast.BroadcastOperationResponse;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The rows of a star join, merged from all shards, with the values of the variables in N-Triples form.
+ */
+public class StarJoinResponse extends BroadcastOperationResponse {
+
+    private List<String> vars;
+
+    private List<String[]> rows;
+
+    private long scanned;
+
+    StarJoinResponse() {
+    }
+
+    StarJoinResponse(int totalShards, int successfulShards, int failedShards,
+                     List<ShardOperationFailedException> shardFailures,
+                     List<String> vars, List<String[]> rows, long scanned) {
+        super(totalShards, successfulShards, failedShards, shardFailures);
+        this.vars = vars;
+        this.rows = rows;
+        this.scanned = scanned;
+    }
+
+    /**
+     * Return the variable names, in the order of the values in a row.
+     *
+     * @return the variable names
+     */
+    public List<String> getVars() {
+        return vars;
+    }
+
+    public List<String[]> getRows() {
+        return rows;
+    }
+
+    /**
+     * Return the number of triples the shards read.
+     *
+     * @return the number of triples
+     */
+    public long getScanned() {
+        return scanned;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        String[] names = in.readStringArray();
+        vars = new ArrayList<String>(names.length);
+        for (String name : names) {
+            vars.add(name);
+        }
+        scanned = in.readVLong();
+        int size = in.readVInt();
+        rows = new ArrayList<String[]>(size);
+        for (int i = 0; i < size; i++) {
+            rows.add(in.readStringArray());
+        }
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeStringArray(vars.toArray(new String[vars.size()]));
+        out.writeVLong(scanned);
+        out.writeVInt(rows.size());
+        for (String[] row : rows) {
+            out.writeStringArray(row);
+        }
+    }
+}
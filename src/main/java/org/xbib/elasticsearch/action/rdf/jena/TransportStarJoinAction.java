@@ -0,0 +1,359 @@
+/**
+ *    Copyright 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.action.rdf.jena;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.queries.TermsFilter;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.FilteredQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.TotalHitCountCollector;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.ElasticsearchIllegalArgumentException;
+import org.elasticsearch.action.ShardOperationFailedException;
+import org.elasticsearch.action.support.ActionFilters;
+import org.elasticsearch.action.support.DefaultShardOperationFailedException;
+import org.elasticsearch.action.support.broadcast.BroadcastShardOperationFailedException;
+import org.elasticsearch.action.support.broadcast.TransportBroadcastOperationAction;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.cluster.ClusterState;
+import org.elasticsearch.cluster.block.ClusterBlockException;
+import org.elasticsearch.cluster.block.ClusterBlockLevel;
+import org.elasticsearch.cluster.routing.GroupShardsIterator;
+import org.elasticsearch.cluster.routing.ShardRouting;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.engine.Engine;
+import org.elasticsearch.index.fielddata.IndexFieldData;
+import org.elasticsearch.index.fielddata.SortedBinaryDocValues;
+import org.elasticsearch.index.service.IndexService;
+import org.elasticsearch.index.shard.service.IndexShard;
+import org.elasticsearch.indices.IndicesService;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.TransportService;
+import org.xbib.elasticsearch.module.rdf.jena.Field;
+import org.xbib.elasticsearch.module.rdf.jena.TripleMapping;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Joins triple patterns that share a subject on each shard, and merges the joined rows of the shards.
+ *
+ * This is only complete if all triples of a subject are on the same shard, which holds for indices
+ * that are routed by subject. Each shard runs the patterns against its searcher, from the pattern with
+ * the fewest matches on. After the first pattern, a pattern is restricted to the subjects that are
+ * still joined, as long as they are not more than {@link #SUBJECT_CHUNK}. Only the joined rows
+ * are sent back, the triples never leave the shard.
+ */
+public class TransportStarJoinAction extends TransportBroadcastOperationAction<StarJoinRequest, StarJoinResponse,
+        ShardStarJoinRequest, ShardStarJoinResponse> {
+
+    private final static int SUBJECT_CHUNK = 1024;
+
+    private final IndicesService indicesService;
+
+    @Inject
+    public TransportStarJoinAction(Settings settings, ThreadPool threadPool, ClusterService clusterService,
+                                   TransportService transportService, IndicesService indicesService,
+                                   ActionFilters actionFilters) {
+        super(settings, StarJoinAction.NAME, threadPool, clusterService, transportService, actionFilters);
+        this.indicesService = indicesService;
+    }
+
+    @Override
+    protected String executor() {
+        return ThreadPool.Names.SEARCH;
+    }
+
+    @Override
+    protected StarJoinRequest newRequest() {
+        return new StarJoinRequest();
+    }
+
+    @Override
+    protected ShardStarJoinRequest newShardRequest() {
+        return new ShardStarJoinRequest();
+    }
+
+    @Override
+    protected ShardStarJoinRequest newShardRequest(int numShards, ShardRouting shard, StarJoinRequest request) {
+        return new ShardStarJoinRequest(shard.shardId(), request);
+    }
+
+    @Override
+    protected ShardStarJoinResponse newShardResponse() {
+        return new ShardStarJoinResponse();
+    }
+
+    @Override
+    protected GroupShardsIterator shards(ClusterState clusterState, StarJoinRequest request, String[] concreteIndices) {
+        return clusterService.operationRouting().searchShards(clusterState, request.indices(), concreteIndices,
+                null, null);
+    }
+
+    @Override
+    protected ClusterBlockException checkGlobalBlock(ClusterState state, StarJoinRequest request) {
+        return state.blocks().globalBlockedException(ClusterBlockLevel.READ);
+    }
+
+    @Override
+    protected ClusterBlockException checkRequestBlock(ClusterState state, StarJoinRequest request,
+                                                      String[] concreteIndices) {
+        return state.blocks().indicesBlockedException(ClusterBlockLevel.READ, concreteIndices);
+    }
+
+    @Override
+    protected StarJoinResponse newResponse(StarJoinRequest request, AtomicReferenceArray shardsResponses,
+                                           ClusterState clusterState) {
+        int successfulShards = 0;
+        int failedShards = 0;
+        List<ShardOperationFailedException> shardFailures = null;
+        List<String[]> rows = new ArrayList<String[]>();
+        long scanned = 0L;
+        for (int i = 0; i < shardsResponses.length(); i++) {
+            Object shardResponse = shardsResponses.get(i);
+            if (shardResponse == null) {
+                // the shard has no active copy
+                failedShards++;
+            } else if (shardResponse instanceof BroadcastShardOperationFailedException) {
+                failedShards++;
+                if (shardFailures == null) {
+                    shardFailures = new ArrayList<ShardOperationFailedException>();
+                }
+                shardFailures.add(new DefaultShardOperationFailedException(
+                        (BroadcastShardOperationFailedException) shardResponse));
+            } else {
+                successfulShards++;
+                rows.addAll(((ShardStarJoinResponse) shardResponse).getRows());
+                scanned += ((ShardStarJoinResponse) shardResponse).getScanned();
+            }
+        }
+        return new StarJoinResponse(shardsResponses.length(), successfulShards, failedShards, shardFailures,
+                request.vars(), rows, scanned);
+    }
+
+    @Override
+    protected ShardStarJoinResponse shardOperation(ShardStarJoinRequest shardRequest) throws ElasticsearchException {
+        StarJoinRequest request = shardRequest.request();
+        IndexService indexService = indicesService.indexServiceSafe(shardRequest.shardId().getIndex());
+        IndexShard indexShard = indexService.shardSafe(shardRequest.shardId().id());
+        TripleMapping mapping = request.mapping() != null ?
+                TripleMapping.fromString(request.mapping()) : TripleMapping.STORED;
+        Filter typeFilter = indexService.mapperService().searchFilter(request.type());
+        List<String> vars = request.vars();
+        final List<Query> queries = new ArrayList<Query>();
+        for (StarJoinRequest.Pattern pattern : request.patterns()) {
+            Query query = indexService.queryParserService().parse(pattern.query()).query();
+            queries.add(typeFilter != null ? new FilteredQuery(query, typeFilter) : query);
+        }
+        Engine.Searcher searcher = indexShard.acquireSearcher("jena_star_join");
+        try {
+            IndexSearcher indexSearcher = searcher.searcher();
+            final long[] counts = new long[queries.size()];
+            List<Integer> order = new ArrayList<Integer>();
+            for (int i = 0; i < queries.size(); i++) {
+                TotalHitCountCollector counter = new TotalHitCountCollector();
+                indexSearcher.search(queries.get(i), counter);
+                counts[i] = counter.getTotalHits();
+                order.add(i);
+            }
+            Collections.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer i1, Integer i2) {
+                    return Long.compare(counts[i1], counts[i2]);
+                }
+            });
+            Map<String, List<String[]>> rows = null;
+            long scanned = 0L;
+            for (int i : order) {
+                if (rows != null && rows.isEmpty()) {
+                    break;
+                }
+                StarJoinRequest.Pattern pattern = request.patterns().get(i);
+                Query query = queries.get(i);
+                if (rows != null && rows.size() <= SUBJECT_CHUNK) {
+                    List<BytesRef> subjects = new ArrayList<BytesRef>(rows.size());
+                    for (String subject : rows.keySet()) {
+                        subjects.add(new BytesRef(subject));
+                    }
+                    query = new FilteredQuery(query, new TermsFilter(Field.S, subjects));
+                }
+                Join join = new Join(indexService, mapping, rows, vars.size(), request.maxRows(),
+                        vars.indexOf(pattern.subject()), vars.indexOf(pattern.predicate()),
+                        vars.indexOf(pattern.object()));
+                indexSearcher.search(query, join);
+                scanned += join.scanned;
+                rows = join.joined;
+            }
+            List<String[]> result = new ArrayList<String[]>();
+            if (rows != null) {
+                for (List<String[]> list : rows.values()) {
+                    result.addAll(list);
+                }
+            }
+            return new ShardStarJoinResponse(shardRequest.shardId(), result, scanned);
+        } catch (IOException e) {
+            throw new ElasticsearchException(e.getMessage(), e);
+        } finally {
+            searcher.close();
+        }
+    }
+
+    /**
+     * Collects the triples of a pattern and joins them with the rows of the previous patterns of the same subject.
+     */
+    private static class Join extends Collector {
+
+        private final IndexService indexService;
+
+        private final TripleMapping mapping;
+
+        private final Map<String, List<String[]>> rows;
+
+        private final Map<String, List<String[]>> joined = new HashMap<String, List<String[]>>();
+
+        private final int width;
+
+        private final long maxRows;
+
+        private final int[] positions;
+
+        private final String[] fields = new String[]{Field.S, Field.P, Field.O};
+
+        private final Set<String> storedFields = new HashSet<String>();
+
+        private final SortedBinaryDocValues[] docValues = new SortedBinaryDocValues[3];
+
+        private AtomicReader reader;
+
+        private long count;
+
+        private long scanned;
+
+        Join(IndexService indexService, TripleMapping mapping, Map<String, List<String[]>> rows, int width,
+             long maxRows, int subject, int predicate, int object) {
+            this.indexService = indexService;
+            this.mapping = mapping;
+            this.rows = rows;
+            this.width = width;
+            this.maxRows = maxRows;
+            this.positions = new int[]{subject, predicate, object};
+            // the subject is always needed to join, the other values only if they bind a variable
+            for (int i = 0; i < fields.length; i++) {
+                if (i == 0 || positions[i] >= 0) {
+                    storedFields.add(fields[i]);
+                }
+            }
+        }
+
+        @Override
+        public void setScorer(Scorer scorer) throws IOException {
+        }
+
+        @Override
+        public void setNextReader(AtomicReaderContext context) throws IOException {
+            this.reader = context.reader();
+            if (mapping == TripleMapping.DOC_VALUES) {
+                for (int i = 0; i < fields.length; i++) {
+                    if (storedFields.contains(fields[i])) {
+                        IndexFieldData<?> fieldData = indexService.fieldData()
+                                .getForField(indexService.mapperService().smartNameFieldMapper(fields[i]));
+                        docValues[i] = fieldData.load(context).getBytesValues();
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void collect(int doc) throws IOException {
+            scanned++;
+            String[] values = new String[fields.length];
+            if (mapping == TripleMapping.DOC_VALUES) {
+                for (int i = 0; i < fields.length; i++) {
+                    if (docValues[i] != null) {
+                        docValues[i].setDocument(doc);
+                        values[i] = docValues[i].count() > 0 ? docValues[i].valueAt(0).utf8ToString() : null;
+                    }
+                }
+            } else {
+                Document document = reader.document(doc, storedFields);
+                for (int i = 0; i < fields.length; i++) {
+                    values[i] = document.get(fields[i]);
+                }
+            }
+            String subject = values[0];
+            List<String[]> previous = rows == null ?
+                    Collections.singletonList(new String[width]) : rows.get(subject);
+            if (subject == null || previous == null) {
+                return;
+            }
+            for (String[] row : previous) {
+                String[] next = bind(row, values);
+                if (next != null) {
+                    if (++count > maxRows) {
+                        throw new ElasticsearchIllegalArgumentException("star join exceeded " + maxRows + " rows");
+                    }
+                    List<String[]> list = joined.get(subject);
+                    if (list == null) {
+                        list = new ArrayList<String[]>();
+                        joined.put(subject, list);
+                    }
+                    list.add(next);
+                }
+            }
+        }
+
+        @Override
+        public boolean acceptsDocsOutOfOrder() {
+            return true;
+        }
+
+        /**
+         * Bind the values of a triple to the variables of a row.
+         *
+         * @return the extended row, or null if a variable is already bound to another value
+         */
+        private String[] bind(String[] row, String[] values) {
+            String[] next = row.clone();
+            for (int i = 0; i < positions.length; i++) {
+                int position = positions[i];
+                if (position >= 0) {
+                    if (next[position] == null) {
+                        next[position] = values[i];
+                    } else if (!next[position].equals(values[i])) {
+                        return null;
+                    }
+                }
+            }
+            return next;
+        }
+    }
+}
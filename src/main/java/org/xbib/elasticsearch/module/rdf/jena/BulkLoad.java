@@ -0,0 +1,86 @@
+/**
+ *    Copyright 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.module.rdf.jena;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The state of a bulk load into a fresh index behind an alias.
+ */
+public class BulkLoad {
+
+    private final String alias;
+
+    private final String index;
+
+    private final String type;
+
+    private final BulkTracker tracker = new BulkTracker();
+
+    private final List<String> previousIndices = new ArrayList<String>();
+
+    private boolean swapped;
+
+    private boolean replacesIndex;
+
+    public BulkLoad(String alias, String index, String type) {
+        this.alias = alias;
+        this.index = index;
+        this.type = type;
+    }
+
+    public String getAlias() {
+        return alias;
+    }
+
+    public String getIndex() {
+        return index;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public BulkTracker getTracker() {
+        return tracker;
+    }
+
+    public List<String> getPreviousIndices() {
+        return previousIndices;
+    }
+
+    public boolean isSwapped() {
+        return swapped;
+    }
+
+    public void setSwapped(boolean swapped) {
+        this.swapped = swapped;
+    }
+
+    /**
+     * Return whether the alias name is the name of an index that is replaced by the alias.
+     *
+     * @return true if an index is replaced
+     */
+    public boolean isReplacesIndex() {
+        return replacesIndex;
+    }
+
+    public void setReplacesIndex(boolean replacesIndex) {
+        this.replacesIndex = replacesIndex;
+    }
+}
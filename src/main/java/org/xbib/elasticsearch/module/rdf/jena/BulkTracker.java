@@ -0,0 +1,113 @@
+/**
+ *    Copyright 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.module.rdf.jena;
+
+import org.elasticsearch.common.unit.TimeValue;
+
+/**
+ * Counts the outcome of bulk actions that were submitted on behalf of an upload.
+ */
+public class BulkTracker {
+
+    private long submitted;
+
+    private long succeeded;
+
+    private long failed;
+
+    private long retries;
+
+    private long pending;
+
+    private long inferred;
+
+    public synchronized void submitted() {
+        submitted++;
+        pending++;
+    }
+
+    public synchronized void succeeded() {
+        succeeded++;
+        completed();
+    }
+
+    public synchronized void failed() {
+        failed++;
+        completed();
+    }
+
+    public synchronized void retried() {
+        retries++;
+    }
+
+    public synchronized void inferred() {
+        inferred++;
+    }
+
+    public synchronized long getSubmitted() {
+        return submitted;
+    }
+
+    public synchronized long getSucceeded() {
+        return succeeded;
+    }
+
+    public synchronized long getFailed() {
+        return failed;
+    }
+
+    public synchronized long getRetries() {
+        return retries;
+    }
+
+    /**
+     * Return the number of submitted actions that index entailed triples.
+     *
+     * @return the number of inferred triples
+     */
+    public synchronized long getInferred() {
+        return inferred;
+    }
+
+    public synchronized long getPending() {
+        return pending;
+    }
+
+    /**
+     * Wait until all submitted actions have either succeeded or failed.
+     *
+     * @param maxWait the maximum time to wait
+     * @return true if no actions are pending
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized boolean await(TimeValue maxWait) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + maxWait.millis();
+        while (pending > 0) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return true;
+    }
+
+    private void completed() {
+        if (--pending == 0) {
+            notifyAll();
+        }
+    }
+}
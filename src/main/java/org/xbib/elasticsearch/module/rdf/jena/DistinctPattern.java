@@ -0,0 +1,232 @@
+/**
+ *    Copyright 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.module.rdf.jena;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.query.Query;
+import com.hp.hpl.jena.query.ResultSet;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.sparql.algebra.Op;
+import com.hp.hpl.jena.sparql.algebra.op.OpBGP;
+import com.hp.hpl.jena.sparql.algebra.op.OpDistinctReduced;
+import com.hp.hpl.jena.sparql.algebra.op.OpFilter;
+import com.hp.hpl.jena.sparql.algebra.op.OpProject;
+import com.hp.hpl.jena.sparql.algebra.op.OpSlice;
+import com.hp.hpl.jena.sparql.core.Var;
+import com.hp.hpl.jena.sparql.engine.ResultSetStream;
+import com.hp.hpl.jena.sparql.engine.binding.Binding;
+import com.hp.hpl.jena.sparql.engine.binding.BindingFactory;
+import com.hp.hpl.jena.sparql.expr.Expr;
+import com.hp.hpl.jena.sparql.expr.ExprList;
+import com.hp.hpl.jena.sparql.function.FunctionEnvBase;
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchType;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.query.BoolFilterBuilder;
+import org.elasticsearch.index.query.FilterBuilders;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.bucket.terms.Terms;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.elasticsearch.index.query.FilterBuilders.termFilter;
+import static org.xbib.elasticsearch.module.rdf.jena.NTriples.asNt;
+
+/**
+ * A SELECT DISTINCT query of one variable over a single triple pattern, which is answered by a terms
+ * aggregation instead of scanning all matching triples.
+ *
+ * The algebra must be a distinct or reduced projection of one variable over a basic graph pattern of
+ * one triple, optionally with a filter that only uses the projected variable, and optionally sliced by
+ * LIMIT and OFFSET. The given terms of the pattern become term filters, the filter is evaluated on the
+ * distinct values. Other unbound variables must not repeat in the pattern.
+ *
+ * The number of terms is bounded. If the aggregation returns as many terms as the bound, the result
+ * may be incomplete, and the query is evaluated by Jena instead.
+ */
+public class DistinctPattern {
+
+    private final static String AGGREGATION = "distinct";
+
+    private final Var var;
+
+    private final Triple pattern;
+
+    private final ExprList exprs;
+
+    private final long offset;
+
+    private final long limit;
+
+    private DistinctPattern(Var var, Triple pattern, ExprList exprs, long offset, long limit) {
+        this.var = var;
+        this.pattern = pattern;
+        this.exprs = exprs;
+        this.offset = offset;
+        this.limit = limit;
+    }
+
+    /**
+     * Match the optimized algebra of a query.
+     *
+     * @param op the algebra
+     * @return the distinct pattern, or null if the algebra does not match
+     */
+    public static DistinctPattern of(Op op) {
+        long offset = Query.NOLIMIT;
+        long limit = Query.NOLIMIT;
+        if (op instanceof OpSlice) {
+            offset = ((OpSlice) op).getStart();
+            limit = ((OpSlice) op).getLength();
+            op = ((OpSlice) op).getSubOp();
+        }
+        if (!(op instanceof OpDistinctReduced)) {
+            return null;
+        }
+        op = ((OpDistinctReduced) op).getSubOp();
+        if (!(op instanceof OpProject) || ((OpProject) op).getVars().size() != 1) {
+            return null;
+        }
+        Var var = ((OpProject) op).getVars().get(0);
+        op = ((OpProject) op).getSubOp();
+        ExprList exprs = null;
+        if (op instanceof OpFilter) {
+            exprs = ((OpFilter) op).getExprs();
+            Set<Var> mentioned = exprs.getVarsMentioned();
+            if (mentioned.size() > 1 || (mentioned.size() == 1 && !mentioned.contains(var))) {
+                return null;
+            }
+            op = ((OpFilter) op).getSubOp();
+        }
+        if (!(op instanceof OpBGP) || ((OpBGP) op).getPattern().size() != 1) {
+            return null;
+        }
+        Triple pattern = ((OpBGP) op).getPattern().get(0);
+        int occurrences = 0;
+        Set<Node> others = new HashSet<Node>();
+        for (Node node : new Node[]{pattern.getSubject(), pattern.getPredicate(), pattern.getObject()}) {
+            if (var.equals(node)) {
+                occurrences++;
+            } else if (node.isVariable() && !others.add(node)) {
+                return null;
+            }
+        }
+        return occurrences == 1 ? new DistinctPattern(var, pattern, exprs, offset, limit) : null;
+    }
+
+    /**
+     * Execute the aggregation.
+     *
+     * @param context the query context
+     * @param bindings initial bindings of variables, or null
+     * @param maxTerms the maximum number of distinct terms
+     * @return the result set, or null if the query must be evaluated by Jena
+     */
+    public ResultSet execute(QueryContext context, Map<String, Node> bindings, int maxTerms) {
+        if (bindings != null && bindings.containsKey(var.getVarName())) {
+            return null;
+        }
+        String field = null;
+        BoolFilterBuilder filterBuilder = FilterBuilders.boolFilter();
+        String[] fields = new String[]{Field.S, Field.P, Field.O};
+        Node[] nodes = new Node[]{pattern.getSubject(), pattern.getPredicate(), pattern.getObject()};
+        for (int i = 0; i < nodes.length; i++) {
+            Node node = nodes[i];
+            if (var.equals(node)) {
+                field = fields[i];
+                continue;
+            }
+            if (node.isVariable() && bindings != null) {
+                Node value = bindings.get(node.getName());
+                node = value != null ? value : node;
+            }
+            if (!node.isVariable()) {
+                filterBuilder.must(termFilter(fields[i], asNt(node)));
+            }
+        }
+        QueryBuilder queryBuilder = filterBuilder.hasClauses() ?
+                QueryBuilders.filteredQuery(QueryBuilders.matchAllQuery(), filterBuilder) :
+                QueryBuilders.matchAllQuery();
+        SearchRequestBuilder searchRequestBuilder = new SearchRequestBuilder(context.getClient())
+                .setSearchType(SearchType.COUNT)
+                .setQuery(queryBuilder)
+                .addAggregation(AggregationBuilders.terms(AGGREGATION)
+                        .field(field)
+                        .size(maxTerms)
+                        .shardSize(maxTerms));
+        if (context.getIndex() != null) {
+            searchRequestBuilder.setIndices(context.getIndex());
+        }
+        if (context.getType() != null) {
+            searchRequestBuilder.setTypes(context.getType());
+        }
+        long t0 = System.nanoTime();
+        SearchResponse searchResponse = context.execute(searchRequestBuilder);
+        Terms terms = searchResponse.getAggregations().get(AGGREGATION);
+        List<Terms.Bucket> buckets = terms.getBuckets();
+        context.getStats().search(buckets.size());
+        QueryProfile profile = context.getProfile();
+        if (profile != null) {
+            profile.search(profile.entry("distinct " + var + " " + pattern,
+                    "terms " + field + " " + queryBuilder.buildAsBytes(XContentType.JSON).toUtf8()),
+                    buckets.size(), System.nanoTime() - t0);
+        }
+        if (buckets.size() >= maxTerms) {
+            return null;
+        }
+        NodeCache nodeCache = context.getNodeCache();
+        FunctionEnvBase env = new FunctionEnvBase();
+        List<Binding> results = new ArrayList<Binding>(buckets.size());
+        long skip = offset > 0 ? offset : 0;
+        for (Terms.Bucket bucket : buckets) {
+            String value = bucket.getKey();
+            Node node = Field.P.equals(field) ? nodeCache.asURI(value) :
+                    Field.S.equals(field) ? nodeCache.asURIorBlankNode(value) : nodeCache.asNode(value);
+            Binding binding = BindingFactory.binding(var, node);
+            if (exprs != null && !isSatisfied(binding, env)) {
+                continue;
+            }
+            if (skip > 0) {
+                skip--;
+                continue;
+            }
+            if (limit >= 0 && results.size() >= limit) {
+                break;
+            }
+            results.add(binding);
+        }
+        return new ResultSetStream(Collections.singletonList(var.getVarName()),
+                ModelFactory.createDefaultModel(), results.iterator());
+    }
+
+    private boolean isSatisfied(Binding binding, FunctionEnvBase env) {
+        for (Expr expr : exprs) {
+            if (!expr.isSatisfied(binding, env)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -15,85 +15,172 @@
  */
 package org.xbib.elasticsearch.module.rdf.jena;
 
+import org.elasticsearch.ElasticsearchException;
 import org.elasticsearch.ElasticsearchIllegalStateException;
+import org.elasticsearch.ElasticsearchTimeoutException;
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequest;
 import org.elasticsearch.action.admin.indices.create.CreateIndexRequestBuilder;
 import org.elasticsearch.action.admin.indices.create.CreateIndexResponse;
-import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.admin.indices.mapping.get.GetMappingsResponse;
+import org.elasticsearch.action.bulk.BulkItemResponse;
 import org.elasticsearch.action.bulk.BulkRequest;
 import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
 import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.metadata.MappingMetaData;
 import org.elasticsearch.common.io.Streams;
 import org.elasticsearch.common.logging.ESLogger;
 import org.elasticsearch.common.logging.ESLoggerFactory;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.unit.ByteSizeValue;
 import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.indices.IndexAlreadyExistsException;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.threadpool.ThreadPool;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.StringWriter;
+import java.util.Iterator;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Bulk client for indexing triples.
+ *
+ * The number of bulk requests in flight is bounded, a caller blocks in {@link #index} until
+ * a slot is free. No lock is held while waiting for a slot, and the periodic flush runs on the
+ * generic thread pool, so the scheduler thread that fires the retries of rejected requests is never
+ * blocked. The slots may be shared between several bulk clients. Items rejected by a full
+ * bulk thread pool are retried with exponential backoff, all other item failures are counted,
+ * both in total and in the {@link BulkTracker} of the upload the item belongs to.
+ * Closing the bulk client never closes the underlying client.
+ */
 public class ElasticsearchBulkClient {
 
     private final static ESLogger logger = ESLoggerFactory.getLogger(ElasticsearchBulkClient.class.getName());
 
     private final Client client;
 
-    private final BulkProcessor bulkProcessor;
+    private final ThreadPool threadPool;
 
     private final String index;
 
     private final String type;
 
+    private final int maxActionsPerBulkRequest;
+
+    private final ByteSizeValue maxVolumePerBulkRequest;
+
+    private final int maxRetries;
+
+    private final TimeValue retryBackoff;
+
+    private final JenaStatsService stats;
+
+    private final Semaphore semaphore;
+
+    private final ScheduledFuture<?> scheduledFlush;
+
+    private final AtomicLong executionIdGen = new AtomicLong();
+
+    private final BulkTracker total = new BulkTracker();
+
+    private final AtomicInteger activeUploads = new AtomicInteger();
+
+    private volatile long lastUsed = System.nanoTime();
+
+    private BulkRequest bulkRequest;
+
     private volatile boolean closed = false;
 
-    public ElasticsearchBulkClient(Client client, String index, String type) {
-        this(client, index, type, 10000, Runtime.getRuntime().availableProcessors(),
-                ByteSizeValue.parseBytesSizeValue("10m"), TimeValue.timeValueSeconds(5));
+    private volatile boolean routedBySubject = false;
+
+    public ElasticsearchBulkClient(Client client, ThreadPool threadPool, String index, String type) {
+        this(client, threadPool, index, type, 10000, new Semaphore(Runtime.getRuntime().availableProcessors()),
+                ByteSizeValue.parseBytesSizeValue("10m"), TimeValue.timeValueSeconds(5),
+                8, TimeValue.timeValueMillis(50), null);
     }
 
-    public ElasticsearchBulkClient(Client client, String index, String type,
+    public ElasticsearchBulkClient(Client client, final ThreadPool threadPool, final String index, String type,
                                    int maxActionsPerBulkRequest,
-                                   int maxConcurrentBulkRequests,
+                                   Semaphore concurrentBulkRequests,
                                    ByteSizeValue maxVolumePerBulkRequest,
-                                   TimeValue flushInterval) {
+                                   TimeValue flushInterval,
+                                   int maxRetries,
+                                   TimeValue retryBackoff,
+                                   JenaStatsService stats) {
         this.client = client;
+        this.threadPool = threadPool;
         this.index = index;
         this.type = type;
-        BulkProcessor.Listener listener = new BulkProcessor.Listener() {
-            @Override
-            public void beforeBulk(long executionId, BulkRequest request) {
-                logger.debug("before bulk request: {}, {} requests", executionId, request.numberOfActions());
-            }
-
-            @Override
-            public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
-                logger.debug("after bulk request: {}, hasFailures = {} ", executionId, response.hasFailures());
-            }
-
-            @Override
-            public void afterBulk(long executionId, BulkRequest requst, Throwable failure) {
-                closed = true;
-            }
-        };
-        BulkProcessor.Builder builder = BulkProcessor.builder(client, listener)
-                .setBulkActions(maxActionsPerBulkRequest)
-                .setConcurrentRequests(maxConcurrentBulkRequests)
-                .setFlushInterval(flushInterval);
-        if (maxVolumePerBulkRequest != null) {
-            builder.setBulkSize(maxVolumePerBulkRequest);
+        this.maxActionsPerBulkRequest = maxActionsPerBulkRequest;
+        this.maxVolumePerBulkRequest = maxVolumePerBulkRequest;
+        this.maxRetries = maxRetries;
+        this.retryBackoff = retryBackoff;
+        this.stats = stats;
+        this.semaphore = concurrentBulkRequests;
+        this.bulkRequest = new BulkRequest();
+        if (flushInterval != null && flushInterval.millis() > 0) {
+            final Runnable flush = new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        flush();
+                    } catch (Throwable t) {
+                        logger.error("scheduled flush failed", t);
+                    }
+                }
+            };
+            // a flush may wait for a slot, which must not happen on the scheduler thread
+            this.scheduledFlush = threadPool.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        threadPool.executor(ThreadPool.Names.GENERIC).execute(flush);
+                    } catch (EsRejectedExecutionException e) {
+                        logger.debug("scheduled flush rejected, index {}", index);
+                    }
+                }
+            }, flushInterval);
+        } else {
+            this.scheduledFlush = null;
         }
-        this.bulkProcessor = builder.build();
-        this.closed = false;
     }
 
     public ElasticsearchBulkClient createIndex() throws IOException {
+        return createIndex(null);
+    }
+
+    public ElasticsearchBulkClient createIndex(Settings settings) throws IOException {
+        return createIndex(settings, TripleMapping.STORED);
+    }
+
+    /**
+     * Create the index if it does not exist.
+     *
+     * @param settings the index settings, or null
+     * @param mapping the mapping variant
+     * @return this bulk client
+     * @throws IOException if the mapping can not be read
+     */
+    public ElasticsearchBulkClient createIndex(Settings settings, TripleMapping mapping) throws IOException {
         try {
-            CreateIndexRequestBuilder createIndexRequestBuilder = client.admin().indices().prepareCreate(index);
-            InputStream in = getClass().getResourceAsStream("mapping.json");
+            CreateIndexRequestBuilder createIndexRequestBuilder = client.admin().indices().prepareCreate(index)
+                    .setSettings(ImmutableSettings.settingsBuilder()
+                            .put(settings != null ? settings : ImmutableSettings.EMPTY)
+                            .put(TripleMapping.SETTING, mapping.getName()));
+            InputStream in = getClass().getResourceAsStream(mapping.getResource());
             if (in != null) {
                 StringWriter sw = new StringWriter();
                 Streams.copy(new InputStreamReader(in), sw);
@@ -106,6 +193,15 @@ public class ElasticsearchBulkClient {
         } catch (IndexAlreadyExistsException e) {
             // ignore
         }
+        GetMappingsResponse response = client.admin().indices().prepareGetMappings(index).setTypes(type)
+                .execute().actionGet();
+        boolean routed = !response.getMappings().isEmpty();
+        Iterator<String> indices = response.getMappings().keysIt();
+        while (indices.hasNext()) {
+            MappingMetaData mappingMetaData = response.getMappings().get(indices.next()).get(type);
+            routed &= mappingMetaData != null && Field.S.equals(mappingMetaData.routing().path());
+        }
+        this.routedBySubject = routed;
         return this;
     }
 
@@ -115,19 +211,334 @@ public class ElasticsearchBulkClient {
     }
 
     public ElasticsearchBulkClient index(XContentBuilder builder) {
+        return index(null, builder, null);
+    }
+
+    public ElasticsearchBulkClient index(TripleDocument document, BulkTracker tracker) {
+        return index(document.id(), document.source(), tracker);
+    }
+
+    public ElasticsearchBulkClient index(String id, XContentBuilder builder, BulkTracker tracker) {
         if (closed) {
             throw new ElasticsearchIllegalStateException("client is closed");
         }
-        try {
-            bulkProcessor.add(new IndexRequest(index).type(type).create(false).source(builder));
-        } catch (Exception e) {
-            closed = true;
+        return add(new IndexRequest(index).type(type).id(id).create(false).source(builder), tracker);
+    }
+
+    /**
+     * Index the document of an entailed triple, unless a document with its ID exists. An existing
+     * document is not a failure, so an asserted triple is never turned into an inferred one.
+     *
+     * @param document the document
+     * @param tracker the tracker of the upload, or null
+     * @return this bulk client
+     */
+    public ElasticsearchBulkClient create(TripleDocument document, BulkTracker tracker) {
+        if (closed) {
+            throw new ElasticsearchIllegalStateException("client is closed");
+        }
+        if (tracker != null) {
+            tracker.inferred();
+        }
+        return add(new IndexRequest(index).type(type).id(document.id()).create(true).source(document.source()), tracker);
+    }
+
+    /**
+     * Delete the document of a triple. Deleting a triple that does not exist is not a failure.
+     *
+     * @param document the document, its source is not used
+     * @param tracker the tracker of the upload, or null
+     * @return this bulk client
+     */
+    public ElasticsearchBulkClient delete(TripleDocument document, BulkTracker tracker) {
+        if (closed) {
+            throw new ElasticsearchIllegalStateException("client is closed");
+        }
+        // index requests extract the routing from the subject field, deletes have no source to extract it from
+        return add(new DeleteRequest(index).type(type).id(document.id())
+                .routing(routedBySubject ? document.routing() : null), tracker);
+    }
+
+    private ElasticsearchBulkClient add(ActionRequest request, BulkTracker tracker) {
+        total.submitted();
+        if (tracker != null) {
+            tracker.submitted();
+        }
+        BulkRequest full = null;
+        synchronized (this) {
+            bulkRequest.add(request, tracker);
+            if (isOverTheLimit()) {
+                full = take();
+            }
+        }
+        if (full != null) {
+            execute(full);
+        }
+        return this;
+    }
+
+    public ElasticsearchBulkClient flush() {
+        BulkRequest request = null;
+        synchronized (this) {
+            if (bulkRequest.numberOfActions() > 0) {
+                request = take();
+            }
+        }
+        if (request != null) {
+            execute(request);
+        }
+        return this;
+    }
+
+    /**
+     * Flushes the outstanding requests if some of them belong to an upload, so that an upload
+     * that is done adding requests does not wait for the flush interval.
+     *
+     * @param tracker the tracker of the upload
+     * @return this bulk client
+     */
+    public ElasticsearchBulkClient flush(BulkTracker tracker) {
+        BulkRequest request = null;
+        synchronized (this) {
+            if (bulkRequest.payloads() != null && bulkRequest.payloads().contains(tracker)) {
+                request = take();
+            }
+        }
+        if (request != null) {
+            execute(request);
         }
         return this;
     }
 
+    /**
+     * Registers an upload that is about to add requests.
+     */
+    public void beginUpload() {
+        activeUploads.incrementAndGet();
+        lastUsed = System.nanoTime();
+    }
+
+    /**
+     * Unregisters an upload. The last active upload flushes the outstanding requests.
+     */
+    public void endUpload() {
+        lastUsed = System.nanoTime();
+        if (activeUploads.decrementAndGet() == 0) {
+            flush();
+        }
+    }
+
+    /**
+     * Return whether no upload is active and none has ended for some time.
+     *
+     * @param idleTimeout the time
+     * @return true if the bulk client is idle
+     */
+    public boolean isIdle(TimeValue idleTimeout) {
+        return activeUploads.get() == 0 && System.nanoTime() - lastUsed > idleTimeout.nanos();
+    }
+
+    public boolean isActive() {
+        return activeUploads.get() > 0;
+    }
+
+    /**
+     * Flushes outstanding requests and waits until all bulk requests in flight, including retries,
+     * have completed. The client passed to the constructor is not closed.
+     *
+     * @param maxWait the maximum time to wait
+     * @return true if all requests completed in time
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitClose(TimeValue maxWait) throws InterruptedException {
+        if (closed) {
+            return true;
+        }
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+        }
+        flush();
+        closed = true;
+        return total.await(maxWait);
+    }
+
+    /**
+     * Flushes outstanding requests and waits up to one minute for the bulk requests in flight.
+     *
+     * @throws ElasticsearchTimeoutException if bulk requests are still in flight
+     */
     public void close() {
-        bulkProcessor.close();
-        client.close();
+        try {
+            if (!awaitClose(TimeValue.timeValueMinutes(1))) {
+                throw new ElasticsearchTimeoutException("bulk requests of index " + index
+                        + " still in flight after close, " + total.getPending() + " requests pending");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ElasticsearchException("interrupted while closing bulk client of index " + index, e);
+        }
+    }
+
+    public String getIndex() {
+        return index;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public BulkTracker getTotal() {
+        return total;
+    }
+
+    private boolean isOverTheLimit() {
+        if (maxActionsPerBulkRequest != -1 && bulkRequest.numberOfActions() >= maxActionsPerBulkRequest) {
+            return true;
+        }
+        if (maxVolumePerBulkRequest != null && maxVolumePerBulkRequest.bytes() != -1
+                && bulkRequest.estimatedSizeInBytes() >= maxVolumePerBulkRequest.bytes()) {
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Must be called while holding the monitor.
+     */
+    private BulkRequest take() {
+        BulkRequest request = bulkRequest;
+        bulkRequest = new BulkRequest();
+        return request;
+    }
+
+    /**
+     * Must be called without holding the monitor. Blocks as long as the maximum number
+     * of concurrent bulk requests are in flight.
+     */
+    private void execute(BulkRequest request) {
+        try {
+            semaphore.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failed(request);
+            return;
+        }
+        submit(executionIdGen.incrementAndGet(), request, 0);
+    }
+
+    private void submit(final long executionId, final BulkRequest request, final int attempt) {
+        logger.debug("before bulk request: {}, {} requests, attempt {}", executionId, request.numberOfActions(),
+                attempt);
+        final long t0 = System.nanoTime();
+        ActionListener<BulkResponse> listener = new ActionListener<BulkResponse>() {
+            @Override
+            public void onResponse(BulkResponse response) {
+                long took = System.nanoTime() - t0;
+                logger.debug("after bulk request: {}, {} ms, hasFailures = {}",
+                        executionId, TimeUnit.NANOSECONDS.toMillis(took), response.hasFailures());
+                long failedItems = 0L;
+                BulkRequest retryRequest = null;
+                for (BulkItemResponse item : response.getItems()) {
+                    BulkTracker tracker = tracker(request, item.getItemId());
+                    if (!item.isFailed() || (item.getFailure().getStatus() == RestStatus.CONFLICT
+                            && "create".equals(item.getOpType()))) {
+                        total.succeeded();
+                        if (tracker != null) {
+                            tracker.succeeded();
+                        }
+                    } else if (item.getFailure().getStatus() == RestStatus.TOO_MANY_REQUESTS && attempt < maxRetries) {
+                        if (retryRequest == null) {
+                            retryRequest = new BulkRequest();
+                        }
+                        retryRequest.add(request.requests().get(item.getItemId()), tracker);
+                    } else {
+                        total.failed();
+                        if (tracker != null) {
+                            tracker.failed();
+                        }
+                        failedItems++;
+                        logger.warn("bulk request {} item {} failed: {}", executionId, item.getId(),
+                                item.getFailureMessage());
+                    }
+                }
+                if (stats != null) {
+                    int rejectedItems = retryRequest != null ? retryRequest.numberOfActions() : 0;
+                    stats.bulk(request.numberOfActions() - failedItems - rejectedItems, failedItems,
+                            rejectedItems, took);
+                }
+                if (retryRequest != null) {
+                    retry(executionId, retryRequest, attempt);
+                } else {
+                    semaphore.release();
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable e) {
+                if (ExceptionsHelper.unwrapCause(e) instanceof EsRejectedExecutionException && attempt < maxRetries) {
+                    if (stats != null) {
+                        stats.bulk(0L, 0L, request.numberOfActions(), System.nanoTime() - t0);
+                    }
+                    retry(executionId, request, attempt);
+                } else {
+                    if (stats != null) {
+                        stats.bulk(0L, request.numberOfActions(), 0L, System.nanoTime() - t0);
+                    }
+                    failed(request);
+                    logger.error("bulk request {} failed with {} requests", e, executionId, request.numberOfActions());
+                    semaphore.release();
+                }
+            }
+        };
+        try {
+            client.bulk(request, listener);
+        } catch (Throwable t) {
+            listener.onFailure(t);
+        }
+    }
+
+    /**
+     * Re-submits the rejected part of a bulk request after a delay that doubles with each attempt.
+     * The slot of the original bulk request is kept until the retry completes.
+     */
+    private void retry(final long executionId, final BulkRequest request, final int attempt) {
+        for (int i = 0; i < request.numberOfActions(); i++) {
+            total.retried();
+            BulkTracker tracker = tracker(request, i);
+            if (tracker != null) {
+                tracker.retried();
+            }
+        }
+        TimeValue delay = TimeValue.timeValueMillis(retryBackoff.millis() << Math.min(attempt, 16));
+        logger.debug("bulk request {} rejected, retrying {} requests in {}", executionId,
+                request.numberOfActions(), delay);
+        try {
+            threadPool.schedule(delay, ThreadPool.Names.GENERIC, new Runnable() {
+                @Override
+                public void run() {
+                    submit(executionId, request, attempt + 1);
+                }
+            });
+        } catch (EsRejectedExecutionException e) {
+            failed(request);
+            semaphore.release();
+        }
+    }
+
+    private void failed(BulkRequest request) {
+        for (int i = 0; i < request.numberOfActions(); i++) {
+            total.failed();
+            BulkTracker tracker = tracker(request, i);
+            if (tracker != null) {
+                tracker.failed();
+            }
+        }
+    }
+
+    /**
+     * The payload list of a bulk request is only created when a non-null payload is added.
+     */
+    private static BulkTracker tracker(BulkRequest request, int i) {
+        return request.payloads() != null ? (BulkTracker) request.payloads().get(i) : null;
     }
 }
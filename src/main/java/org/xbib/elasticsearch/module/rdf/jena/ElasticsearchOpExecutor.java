@@ -0,0 +1,581 @@
+/**
+ *    Copyright 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.module.rdf.jena;
+
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.sparql.algebra.Op;
+import com.hp.hpl.jena.sparql.algebra.op.OpBGP;
+import com.hp.hpl.jena.sparql.algebra.op.OpConditional;
+import com.hp.hpl.jena.sparql.algebra.op.OpFilter;
+import com.hp.hpl.jena.sparql.algebra.op.OpLeftJoin;
+import com.hp.hpl.jena.sparql.algebra.op.OpPath;
+import com.hp.hpl.jena.sparql.algebra.op.OpQuadPattern;
+import com.hp.hpl.jena.sparql.algebra.op.OpTriple;
+import com.hp.hpl.jena.sparql.algebra.op.OpUnion;
+import com.hp.hpl.jena.sparql.core.BasicPattern;
+import com.hp.hpl.jena.sparql.core.Substitute;
+import com.hp.hpl.jena.sparql.core.TriplePath;
+import com.hp.hpl.jena.sparql.core.Var;
+import com.hp.hpl.jena.sparql.engine.ExecutionContext;
+import com.hp.hpl.jena.sparql.engine.QueryIterator;
+import com.hp.hpl.jena.sparql.engine.binding.Binding;
+import com.hp.hpl.jena.sparql.engine.binding.BindingFactory;
+import com.hp.hpl.jena.sparql.engine.binding.BindingMap;
+import com.hp.hpl.jena.sparql.engine.iterator.QueryIter1;
+import com.hp.hpl.jena.sparql.engine.iterator.QueryIterNullIterator;
+import com.hp.hpl.jena.sparql.engine.iterator.QueryIterPlainWrapper;
+import com.hp.hpl.jena.sparql.engine.iterator.QueryIterProcessBinding;
+import com.hp.hpl.jena.sparql.engine.iterator.QueryIterRepeatApply;
+import com.hp.hpl.jena.sparql.engine.iterator.QueryIterSingleton;
+import com.hp.hpl.jena.sparql.engine.main.OpExecutor;
+import com.hp.hpl.jena.sparql.engine.main.LeftJoinClassifier;
+import com.hp.hpl.jena.sparql.engine.main.OpExecutorFactory;
+import com.hp.hpl.jena.sparql.engine.main.QC;
+import com.hp.hpl.jena.sparql.expr.ExprList;
+import com.hp.hpl.jena.sparql.path.P_Link;
+import com.hp.hpl.jena.sparql.path.P_OneOrMore1;
+import com.hp.hpl.jena.sparql.path.P_Path0;
+import com.hp.hpl.jena.sparql.path.P_ReverseLink;
+import com.hp.hpl.jena.sparql.path.P_ZeroOrMore1;
+import com.hp.hpl.jena.sparql.path.Path;
+import com.hp.hpl.jena.sparql.path.PathLib;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Executes the algebra of a query against Elasticsearch graphs.
+ *
+ * Transitive paths over a single predicate, such as {@code rdfs:subClassOf*} or {@code ^skos:broader+},
+ * are evaluated by a breadth first search with {@link ElasticsearchRDFGraph#closure}, where Jena would
+ * issue one search per reached node. One end of the path must be bound. Other paths are evaluated by Jena.
+ *
+ * With {@link QueryContext#isStarJoin()}, the largest group of patterns of a basic graph pattern that share
+ * their subject is joined on the shards with {@link ElasticsearchRDFGraph#starJoin}, and the remaining
+ * patterns are evaluated by Jena on its results.
+ *
+ * With an executor in the {@link QueryContext}, the branches of a UNION and the right hand sides of an
+ * OPTIONAL are evaluated concurrently for a chunk of input bindings. Branches that are a single pattern,
+ * optionally filtered, are looked up together with {@link ElasticsearchRDFGraph#findAll}, the others are
+ * evaluated by up to {@link QueryContext#getConcurrency()} threads. The results of the branches are
+ * materialized and emitted in the order of the branches.
+ *
+ * The bindings that leave the pattern operators, which are the intermediate results of the joins,
+ * are counted against the {@link QueryGuard} of the query.
+ */
+public class ElasticsearchOpExecutor extends OpExecutor {
+
+    private final static int CHUNK_SIZE = 64;
+
+    public final static OpExecutorFactory factory = new OpExecutorFactory() {
+        @Override
+        public OpExecutor create(ExecutionContext execCxt) {
+            return new ElasticsearchOpExecutor(execCxt);
+        }
+    };
+
+    protected ElasticsearchOpExecutor(ExecutionContext execCxt) {
+        super(execCxt);
+    }
+
+    @Override
+    protected QueryIterator execute(OpBGP opBGP, QueryIterator input) {
+        Graph activeGraph = execCxt.getActiveGraph();
+        if (opBGP.getPattern().size() < 2 || !(activeGraph instanceof ElasticsearchRDFGraph)
+                || !((ElasticsearchRDFGraph) activeGraph).getContext().isStarJoin()) {
+            return guarded(super.execute(opBGP, input));
+        }
+        return guarded(starJoin((ElasticsearchRDFGraph) activeGraph, opBGP.getPattern(), input));
+    }
+
+    @Override
+    protected QueryIterator execute(OpTriple opTriple, QueryIterator input) {
+        return guarded(super.execute(opTriple, input));
+    }
+
+    @Override
+    protected QueryIterator execute(OpQuadPattern quadPattern, QueryIterator input) {
+        return guarded(super.execute(quadPattern, input));
+    }
+
+    @Override
+    protected QueryIterator execute(OpPath opPath, QueryIterator input) {
+        return guarded(path(opPath, input));
+    }
+
+    @Override
+    protected QueryIterator execute(OpUnion opUnion, QueryIterator input) {
+        final ElasticsearchRDFGraph graph = concurrentGraph();
+        if (graph == null) {
+            return super.execute(opUnion, input);
+        }
+        final List<Op> branches = new ArrayList<Op>();
+        flatten(opUnion, branches);
+        return guarded(new QueryIterConcurrentApply(graph, input, execCxt) {
+            @Override
+            protected List<Op> branches(Binding binding) {
+                List<Op> ops = new ArrayList<Op>(branches.size());
+                for (Op branch : branches) {
+                    ops.add(QC.substitute(branch, binding));
+                }
+                return ops;
+            }
+
+            @Override
+            protected void collect(Binding binding, List<List<Binding>> results, List<Binding> output) {
+                for (List<Binding> result : results) {
+                    output.addAll(result);
+                }
+            }
+        });
+    }
+
+    @Override
+    protected QueryIterator execute(OpConditional opCondition, QueryIterator input) {
+        ElasticsearchRDFGraph graph = concurrentGraph();
+        if (graph == null) {
+            return super.execute(opCondition, input);
+        }
+        return guarded(optional(graph, opCondition.getRight(), exec(opCondition.getLeft(), input)));
+    }
+
+    @Override
+    protected QueryIterator execute(OpLeftJoin opLeftJoin, QueryIterator input) {
+        ElasticsearchRDFGraph graph = concurrentGraph();
+        if (graph == null || !LeftJoinClassifier.isLinear(opLeftJoin)) {
+            return super.execute(opLeftJoin, input);
+        }
+        ExprList exprs = opLeftJoin.getExprs();
+        Op right = exprs == null || exprs.isEmpty() ? opLeftJoin.getRight() : OpFilter.filter(exprs, opLeftJoin.getRight());
+        return guarded(optional(graph, right, exec(opLeftJoin.getLeft(), input)));
+    }
+
+    private QueryIterator optional(ElasticsearchRDFGraph graph, final Op right, QueryIterator left) {
+        return new QueryIterConcurrentApply(graph, left, execCxt) {
+            @Override
+            protected List<Op> branches(Binding binding) {
+                return Collections.singletonList(QC.substitute(right, binding));
+            }
+
+            @Override
+            protected void collect(Binding binding, List<List<Binding>> results, List<Binding> output) {
+                if (results.get(0).isEmpty()) {
+                    output.add(binding);
+                } else {
+                    output.addAll(results.get(0));
+                }
+            }
+        };
+    }
+
+    /**
+     * Return the graph of the query if branches may be evaluated concurrently.
+     *
+     * @return the graph, or null
+     */
+    private ElasticsearchRDFGraph concurrentGraph() {
+        Graph activeGraph = execCxt.getActiveGraph();
+        if (!(activeGraph instanceof ElasticsearchRDFGraph)) {
+            return null;
+        }
+        QueryContext context = ((ElasticsearchRDFGraph) activeGraph).getContext();
+        return context.getExecutor() != null && context.getConcurrency() > 1 ?
+                (ElasticsearchRDFGraph) activeGraph : null;
+    }
+
+    private static void flatten(Op op, List<Op> branches) {
+        if (op instanceof OpUnion) {
+            flatten(((OpUnion) op).getLeft(), branches);
+            flatten(((OpUnion) op).getRight(), branches);
+        } else {
+            branches.add(op);
+        }
+    }
+
+    private QueryIterator guarded(QueryIterator iterator) {
+        Graph activeGraph = execCxt.getActiveGraph();
+        final QueryGuard guard = activeGraph instanceof ElasticsearchRDFGraph ?
+                ((ElasticsearchRDFGraph) activeGraph).getContext().getGuard() : null;
+        if (guard == null) {
+            return iterator;
+        }
+        return new QueryIterProcessBinding(iterator, execCxt) {
+            @Override
+            public Binding accept(Binding binding) {
+                guard.bindings(1L);
+                return binding;
+            }
+        };
+    }
+
+    private QueryIterator path(OpPath opPath, QueryIterator input) {
+        Graph activeGraph = execCxt.getActiveGraph();
+        final TriplePath triplePath = opPath.getTriplePath();
+        Path path = triplePath.getPath();
+        final boolean reflexive;
+        Path subPath;
+        if (path instanceof P_ZeroOrMore1) {
+            reflexive = true;
+            subPath = ((P_ZeroOrMore1) path).getSubPath();
+        } else if (path instanceof P_OneOrMore1) {
+            reflexive = false;
+            subPath = ((P_OneOrMore1) path).getSubPath();
+        } else {
+            return super.execute(opPath, input);
+        }
+        if (!(activeGraph instanceof ElasticsearchRDFGraph)
+                || !(subPath instanceof P_Link || subPath instanceof P_ReverseLink)) {
+            return super.execute(opPath, input);
+        }
+        final ElasticsearchRDFGraph graph = (ElasticsearchRDFGraph) activeGraph;
+        final Node predicate = ((P_Path0) subPath).getNode();
+        final boolean forward = subPath instanceof P_Link;
+        return new QueryIterRepeatApply(input, execCxt) {
+            @Override
+            protected QueryIterator nextStage(Binding binding) {
+                Node subject = Var.lookup(binding, triplePath.getSubject());
+                Node object = Var.lookup(binding, triplePath.getObject());
+                if (!subject.isVariable()) {
+                    return bind(binding, graph.closure(subject, predicate, forward, reflexive), object);
+                }
+                if (!object.isVariable()) {
+                    return bind(binding, graph.closure(object, predicate, !forward, reflexive), subject);
+                }
+                return PathLib.execTriplePath(binding, triplePath, getExecContext());
+            }
+        };
+    }
+
+    private QueryIterator starJoin(final ElasticsearchRDFGraph graph, final BasicPattern pattern,
+                                   QueryIterator input) {
+        return new QueryIterRepeatApply(input, execCxt) {
+            @Override
+            protected QueryIterator nextStage(Binding binding) {
+                BasicPattern bound = Substitute.substitute(pattern, binding);
+                List<Triple> star = star(bound);
+                QueryIterator single = QueryIterSingleton.create(binding, getExecContext());
+                if (star == null) {
+                    return ElasticsearchOpExecutor.super.execute(new OpBGP(bound), single);
+                }
+                QueryIterator joined = new QueryIterPlainWrapper(graph.starJoin(binding, star).iterator(),
+                        getExecContext());
+                BasicPattern rest = new BasicPattern();
+                for (Triple triple : bound) {
+                    if (!star.contains(triple)) {
+                        rest.add(triple);
+                    }
+                }
+                return rest.isEmpty() ? joined : ElasticsearchOpExecutor.super.execute(new OpBGP(rest), joined);
+            }
+        };
+    }
+
+    /**
+     * Find the largest group of at least two patterns with the same subject.
+     *
+     * @param pattern the basic graph pattern
+     * @return the patterns of the group, or null
+     */
+    private static List<Triple> star(BasicPattern pattern) {
+        Map<Node, List<Triple>> groups = new LinkedHashMap<Node, List<Triple>>();
+        for (Triple triple : pattern) {
+            Node subject = triple.getSubject();
+            if (subject.isLiteral()) {
+                continue;
+            }
+            List<Triple> group = groups.get(subject);
+            if (group == null) {
+                group = new ArrayList<Triple>();
+                groups.put(subject, group);
+            }
+            if (!group.contains(triple)) {
+                group.add(triple);
+            }
+        }
+        List<Triple> star = null;
+        for (List<Triple> group : groups.values()) {
+            if (group.size() >= 2 && (star == null || group.size() > star.size())) {
+                star = group;
+            }
+        }
+        return star;
+    }
+
+    private QueryIterator bind(Binding binding, Set<Node> reached, Node target) {
+        if (!target.isVariable()) {
+            return reached.contains(target) ?
+                    QueryIterSingleton.create(binding, execCxt) :
+                    QueryIterNullIterator.create(execCxt);
+        }
+        Var var = Var.alloc(target);
+        List<Binding> bindings = new ArrayList<Binding>(reached.size());
+        for (Node node : reached) {
+            bindings.add(BindingFactory.binding(binding, var, node));
+        }
+        return new QueryIterPlainWrapper(bindings.iterator(), execCxt);
+    }
+
+    /**
+     * Evaluates the branches of each input binding, a chunk of input bindings at a time.
+     */
+    private abstract static class QueryIterConcurrentApply extends QueryIter1 {
+
+        private final ElasticsearchRDFGraph graph;
+
+        private Iterator<Binding> current = Collections.<Binding>emptyList().iterator();
+
+        QueryIterConcurrentApply(ElasticsearchRDFGraph graph, QueryIterator input, ExecutionContext execCxt) {
+            super(input, execCxt);
+            this.graph = graph;
+        }
+
+        /**
+         * Return the branches of an input binding, with the binding substituted.
+         */
+        protected abstract List<Op> branches(Binding binding);
+
+        /**
+         * Add the output of an input binding, given the results of its branches.
+         */
+        protected abstract void collect(Binding binding, List<List<Binding>> results, List<Binding> output);
+
+        @Override
+        protected boolean hasNextBinding() {
+            while (!current.hasNext()) {
+                if (!getInput().hasNext()) {
+                    return false;
+                }
+                List<Binding> chunk = new ArrayList<Binding>(CHUNK_SIZE);
+                List<Op> ops = new ArrayList<Op>();
+                List<Binding> parents = new ArrayList<Binding>();
+                List<Integer> sizes = new ArrayList<Integer>(CHUNK_SIZE);
+                while (chunk.size() < CHUNK_SIZE && getInput().hasNext()) {
+                    Binding binding = getInput().nextBinding();
+                    List<Op> branches = branches(binding);
+                    chunk.add(binding);
+                    sizes.add(branches.size());
+                    for (Op branch : branches) {
+                        ops.add(branch);
+                        parents.add(binding);
+                    }
+                }
+                List<List<Binding>> results = evaluate(graph, ops, parents, getExecContext());
+                List<Binding> output = new ArrayList<Binding>();
+                int offset = 0;
+                for (int i = 0; i < chunk.size(); i++) {
+                    collect(chunk.get(i), results.subList(offset, offset + sizes.get(i)), output);
+                    offset += sizes.get(i);
+                }
+                current = output.iterator();
+            }
+            return true;
+        }
+
+        @Override
+        protected Binding moveToNextBinding() {
+            return current.next();
+        }
+
+        @Override
+        protected void requestSubCancel() {
+        }
+
+        @Override
+        protected void closeSubIterator() {
+        }
+    }
+
+    /**
+     * Evaluate operators, each with its parent binding. Operators that are a single pattern, optionally
+     * filtered, are looked up with one multi search, the others are evaluated concurrently.
+     *
+     * @param graph the graph
+     * @param ops the operators
+     * @param parents the parent binding of each operator
+     * @param execCxt the execution context of the query
+     * @return the bindings of each operator
+     */
+    private static List<List<Binding>> evaluate(ElasticsearchRDFGraph graph, final List<Op> ops,
+                                                final List<Binding> parents, final ExecutionContext execCxt) {
+        final AtomicReferenceArray<List<Binding>> results = new AtomicReferenceArray<List<Binding>>(ops.size());
+        List<Integer> leaves = new ArrayList<Integer>();
+        List<Triple> patterns = new ArrayList<Triple>();
+        final List<Integer> tasks = new ArrayList<Integer>();
+        for (int i = 0; i < ops.size(); i++) {
+            Triple pattern = pattern(ops.get(i) instanceof OpFilter ? ((OpFilter) ops.get(i)).getSubOp() : ops.get(i));
+            if (pattern != null) {
+                leaves.add(i);
+                patterns.add(pattern);
+            } else {
+                tasks.add(i);
+            }
+        }
+        List<Triple> lookups = new ArrayList<Triple>(patterns.size());
+        for (Triple pattern : patterns) {
+            lookups.add(Triple.createMatch(any(pattern.getSubject()), any(pattern.getPredicate()),
+                    any(pattern.getObject())));
+        }
+        List<Iterator<Triple>> found = graph.findAll(lookups);
+        for (int j = 0; j < leaves.size(); j++) {
+            int i = leaves.get(j);
+            ExprList exprs = ops.get(i) instanceof OpFilter ? ((OpFilter) ops.get(i)).getExprs() : null;
+            List<Binding> bindings = new ArrayList<Binding>();
+            Iterator<Triple> it = found.get(j);
+            while (it.hasNext()) {
+                Binding binding = bind(parents.get(i), patterns.get(j), it.next());
+                if (binding != null && (exprs == null || exprs.isSatisfied(binding, execCxt))) {
+                    bindings.add(binding);
+                }
+            }
+            results.set(i, bindings);
+        }
+        if (!tasks.isEmpty()) {
+            QueryContext context = graph.getContext();
+            final AtomicInteger next = new AtomicInteger();
+            final AtomicBoolean failed = new AtomicBoolean();
+            Runnable worker = new Runnable() {
+                @Override
+                public void run() {
+                    // the open iterators of an execution context are not thread safe
+                    ExecutionContext cxt = new ExecutionContext(execCxt.getContext(), execCxt.getActiveGraph(),
+                            execCxt.getDataset(), execCxt.getExecutor());
+                    int n;
+                    while (!failed.get() && (n = next.getAndIncrement()) < tasks.size()) {
+                        int i = tasks.get(n);
+                        try {
+                            List<Binding> bindings = new ArrayList<Binding>();
+                            QueryIterator it = QC.execute(ops.get(i), parents.get(i), cxt);
+                            try {
+                                while (it.hasNext()) {
+                                    bindings.add(it.nextBinding());
+                                }
+                            } finally {
+                                it.close();
+                            }
+                            results.set(i, bindings);
+                        } catch (RuntimeException e) {
+                            failed.set(true);
+                            throw e;
+                        }
+                    }
+                }
+            };
+            Executor executor = context.getExecutor();
+            List<FutureTask<Void>> futures = new ArrayList<FutureTask<Void>>();
+            for (int k = 1; k < context.getConcurrency() && k < tasks.size(); k++) {
+                FutureTask<Void> future = new FutureTask<Void>(worker, null);
+                try {
+                    executor.execute(future);
+                    futures.add(future);
+                } catch (EsRejectedExecutionException e) {
+                    // the query thread evaluates the branches
+                    break;
+                }
+            }
+            RuntimeException failure = null;
+            try {
+                worker.run();
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+            for (FutureTask<Void> future : futures) {
+                // a worker that has not started yet has nothing left to do
+                if (future.cancel(false)) {
+                    continue;
+                }
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    failed.set(true);
+                    if (failure == null) {
+                        failure = new ElasticsearchException("interrupted", e);
+                    }
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause() instanceof RuntimeException ?
+                                (RuntimeException) e.getCause() : new ElasticsearchException(e.getMessage(), e.getCause());
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+        List<List<Binding>> list = new ArrayList<List<Binding>>(ops.size());
+        for (int i = 0; i < ops.size(); i++) {
+            list.add(results.get(i));
+        }
+        return list;
+    }
+
+    private static Triple pattern(Op op) {
+        if (op instanceof OpTriple) {
+            return ((OpTriple) op).getTriple();
+        }
+        if (op instanceof OpBGP && ((OpBGP) op).getPattern().size() == 1) {
+            return ((OpBGP) op).getPattern().get(0);
+        }
+        return null;
+    }
+
+    private static Node any(Node node) {
+        return Var.isVar(node) ? Node.ANY : node;
+    }
+
+    /**
+     * Bind the variables of a pattern to a matching triple.
+     *
+     * @return the binding, or null if a variable that occurs twice has different values
+     */
+    private static Binding bind(Binding parent, Triple pattern, Triple triple) {
+        BindingMap binding = BindingFactory.create(parent);
+        if (!bind(binding, pattern.getSubject(), triple.getSubject())
+                || !bind(binding, pattern.getPredicate(), triple.getPredicate())
+                || !bind(binding, pattern.getObject(), triple.getObject())) {
+            return null;
+        }
+        return binding;
+    }
+
+    private static boolean bind(BindingMap binding, Node node, Node value) {
+        if (!Var.isVar(node)) {
+            return true;
+        }
+        Var var = Var.alloc(node);
+        Node bound = binding.get(var);
+        if (bound != null) {
+            return bound.equals(value);
+        }
+        binding.add(var, value);
+        return true;
+    }
+}
@@ -20,26 +20,15 @@ import com.hp.hpl.jena.graph.Node;
 import com.hp.hpl.jena.graph.Triple;
 import com.hp.hpl.jena.sparql.core.DatasetGraphCaching;
 import com.hp.hpl.jena.sparql.core.Quad;
-import org.elasticsearch.action.search.SearchRequestBuilder;
-import org.elasticsearch.client.Client;
 
 import java.util.Iterator;
 
 public class ElasticsearchRDFDatasetGraph extends DatasetGraphCaching {
 
-    private final Client client;
+    private final QueryContext context;
 
-    private final String index;
-
-    private final String type;
-
-    private final SearchRequestBuilder searchRequestBuilder;
-
-    public ElasticsearchRDFDatasetGraph(Client client, String index, String type, SearchRequestBuilder searchRequestBuilder) {
-        this.client = client;
-        this.index = index;
-        this.type = type;
-        this.searchRequestBuilder = searchRequestBuilder;
+    public ElasticsearchRDFDatasetGraph(QueryContext context) {
+        this.context = context;
     }
 
     @Override
@@ -53,12 +42,12 @@ public class ElasticsearchRDFDatasetGraph extends DatasetGraphCaching {
 
     @Override
     protected Graph _createNamedGraph(final Node graphNode) {
-        return new ElasticsearchRDFGraph(graphNode, client, index, type, searchRequestBuilder);
+        return new ElasticsearchRDFGraph(graphNode, context);
     }
 
     @Override
     protected Graph _createDefaultGraph() {
-        return new ElasticsearchRDFGraph(null, client, index, type, searchRequestBuilder);
+        return new ElasticsearchRDFGraph(null, context);
     }
 
     @Override
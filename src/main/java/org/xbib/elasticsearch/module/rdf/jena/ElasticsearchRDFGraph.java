@@ -15,36 +15,69 @@
  */
 package org.xbib.elasticsearch.module.rdf.jena;
 
-import com.hp.hpl.jena.datatypes.RDFDatatype;
 import com.hp.hpl.jena.graph.GraphEvents;
 import com.hp.hpl.jena.graph.Node;
 import com.hp.hpl.jena.graph.Triple;
 import com.hp.hpl.jena.graph.TripleMatch;
 import com.hp.hpl.jena.graph.impl.GraphBase;
+import com.hp.hpl.jena.sparql.core.Var;
+import com.hp.hpl.jena.sparql.engine.binding.Binding;
+import com.hp.hpl.jena.sparql.engine.binding.BindingFactory;
+import com.hp.hpl.jena.sparql.engine.binding.BindingMap;
+import com.hp.hpl.jena.util.iterator.ClosableIterator;
 import com.hp.hpl.jena.util.iterator.ExtendedIterator;
 import com.hp.hpl.jena.util.iterator.WrappedIterator;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.ElasticsearchIllegalArgumentException;
+import org.elasticsearch.action.ShardOperationFailedException;
+import org.elasticsearch.action.search.MultiSearchRequestBuilder;
+import org.elasticsearch.action.search.MultiSearchResponse;
 import org.elasticsearch.action.search.SearchRequestBuilder;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.action.search.SearchType;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentType;
 import org.elasticsearch.index.query.BoolFilterBuilder;
 import org.elasticsearch.index.query.FilterBuilders;
+import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.index.query.SimpleQueryStringBuilder;
 import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.rest.RestStatus;
 import org.elasticsearch.search.SearchHits;
+import org.xbib.elasticsearch.action.rdf.jena.StarJoinRequest;
+import org.xbib.elasticsearch.action.rdf.jena.StarJoinRequestBuilder;
+import org.xbib.elasticsearch.action.rdf.jena.StarJoinResponse;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import static org.elasticsearch.index.query.FilterBuilders.termFilter;
+import static org.elasticsearch.index.query.FilterBuilders.termsFilter;
 import static org.xbib.elasticsearch.module.rdf.jena.NTriples.asNt;
 import static org.xbib.elasticsearch.module.rdf.jena.NTriples.asNtURI;
 
 public class ElasticsearchRDFGraph extends GraphBase implements Datatypes {
 
+    /**
+     * The maximum number of frontier nodes in the terms filter of a path step.
+     */
+    public final static int FRONTIER_CHUNK = 1024;
+
+    /**
+     * The number of triples fetched per search or scroll page.
+     */
+    public final static int PAGE_SIZE = 1000;
+
     private final Node node;
 
     private final Client client;
@@ -53,14 +86,274 @@ public class ElasticsearchRDFGraph extends GraphBase implements Datatypes {
 
     private final String type;
 
-    private final SearchRequestBuilder searchRequestBuilder;
+    private final JenaStatsService stats;
+
+    private final NodeCache nodeCache;
+
+    private final QueryProfile profile;
+
+    private final QueryContext context;
 
-    public ElasticsearchRDFGraph(Node node, Client client, String index, String type, SearchRequestBuilder searchRequestBuilder) {
+    private final TripleMapping mapping;
+
+    private final QueryGuard guard;
+
+    public ElasticsearchRDFGraph(Node node, QueryContext context) {
         this.node = node;
-        this.client = client;
-        this.index = index;
-        this.type = type;
-        this.searchRequestBuilder = searchRequestBuilder;
+        this.context = context;
+        this.client = context.getClient();
+        this.index = context.getIndex();
+        this.type = context.getType();
+        this.stats = context.getStats();
+        this.nodeCache = context.getNodeCache();
+        this.profile = context.getProfile();
+        this.mapping = context.getMapping();
+        this.guard = context.getGuard();
+    }
+
+    /**
+     * Return the graph node.
+     *
+     * @return the graph node, or null for the default graph
+     */
+    public Node getNode() {
+        return node;
+    }
+
+    public QueryContext getContext() {
+        return context;
+    }
+
+    /**
+     * Search literals by full text, with a simple query string query on the analyzed object field.
+     *
+     * @param subject the subject of the matching triples, or null for any subject
+     * @param predicate the predicate of the matching triples, or null for any predicate
+     * @param text the query, in simple query string syntax
+     * @param limit the maximum number of hits
+     * @return the hits, as triples with the score of each triple
+     */
+    public List<TextHit> textQuery(Node subject, Node predicate, String text, int limit) {
+        BoolFilterBuilder filterBuilder = FilterBuilders.boolFilter();
+        if (subject != null) {
+            filterBuilder.must(termFilter(Field.S, asNt(subject)));
+        }
+        if (predicate != null) {
+            filterBuilder.must(termFilter(Field.P, asNt(predicate)));
+        }
+        if (node != null) {
+            filterBuilder.must(termFilter(Field.C, asNtURI(node)));
+        }
+        SearchRequestBuilder searchRequestBuilder = new SearchRequestBuilder(client)
+                .setSize(limit);
+        TripleMapping.addFields(mapping, searchRequestBuilder, Field.S, Field.P, Field.O);
+        if (index != null) {
+            searchRequestBuilder.setIndices(index);
+        }
+        if (type != null) {
+            searchRequestBuilder.setTypes(type);
+        }
+        QueryBuilder queryBuilder = QueryBuilders.simpleQueryString(text)
+                .field(Field.STRING_OBJECT)
+                .defaultOperator(SimpleQueryStringBuilder.Operator.AND);
+        if (filterBuilder.hasClauses()) {
+            queryBuilder = QueryBuilders.filteredQuery(queryBuilder, filterBuilder);
+        }
+        searchRequestBuilder.setQuery(queryBuilder);
+        long t0 = System.nanoTime();
+        SearchResponse searchResponse = context.execute(searchRequestBuilder);
+        SearchHits hits = searchResponse.getHits();
+        stats.search(hits.getHits().length);
+        if (guard != null) {
+            guard.scanned(hits.getHits().length);
+        }
+        if (profile != null) {
+            profile.search(profile.entry("text:query " + (predicate != null ? predicate : "ANY") + " \"" + text + "\"",
+                    queryBuilder.buildAsBytes(XContentType.JSON).toUtf8()), hits.getHits().length, System.nanoTime() - t0);
+        }
+        List<TextHit> textHits = new ArrayList<TextHit>(hits.getHits().length);
+        for (SearchHit hit : hits) {
+            textHits.add(new TextHit(Triple.create(
+                    nodeCache.asURIorBlankNode(TripleMapping.value(hit, Field.S)),
+                    nodeCache.asURI(TripleMapping.value(hit, Field.P)),
+                    nodeCache.asNode(TripleMapping.value(hit, Field.O))), hit.getScore()));
+        }
+        return textHits;
+    }
+
+    /**
+     * Return the nodes reachable from a start node over one or more edges with a predicate.
+     *
+     * The closure is computed breadth first: each step expands the whole frontier with one terms
+     * filtered scan per {@link #FRONTIER_CHUNK} nodes, instead of one search per node. Visited nodes
+     * are not expanded again, which ends the search on cycles.
+     *
+     * @param start the start node
+     * @param predicate the predicate of the edges
+     * @param forward true to follow edges from subject to object, false from object to subject
+     * @param reflexive true if the start node is reachable over zero edges
+     * @return the reached nodes, in breadth first order
+     */
+    public Set<Node> closure(Node start, Node predicate, boolean forward, boolean reflexive) {
+        PathCache pathCache = context.getPathCache();
+        String key = null;
+        long generation = 0L;
+        if (pathCache != null) {
+            key = PathCache.key(index, type, node, predicate, forward, reflexive, start);
+            Set<Node> reached = pathCache.get(key);
+            if (reached != null) {
+                return reached;
+            }
+            generation = pathCache.generation();
+        }
+        Set<Node> reached = new LinkedHashSet<Node>();
+        Set<Node> visited = new HashSet<Node>();
+        if (reflexive) {
+            reached.add(start);
+        }
+        visited.add(start);
+        List<Node> frontier = new ArrayList<Node>();
+        if (!start.isLiteral()) {
+            frontier.add(start);
+        }
+        while (!frontier.isEmpty()) {
+            List<Node> next = new ArrayList<Node>();
+            for (int i = 0; i < frontier.size(); i += FRONTIER_CHUNK) {
+                Iterator<Node> it = step(frontier.subList(i, Math.min(frontier.size(), i + FRONTIER_CHUNK)),
+                        predicate, forward);
+                while (it.hasNext()) {
+                    Node n = it.next();
+                    reached.add(n);
+                    // literals are never subjects
+                    if (visited.add(n) && !n.isLiteral()) {
+                        next.add(n);
+                    }
+                }
+            }
+            frontier = next;
+        }
+        reached = Collections.unmodifiableSet(reached);
+        if (pathCache != null) {
+            pathCache.put(key, generation, reached);
+        }
+        return reached;
+    }
+
+    /**
+     * Join patterns that share their subject on the shards, where Jena would search each pattern
+     * once per binding of the previous patterns. Only complete if all triples of a subject are on
+     * the same shard, see {@link QueryContext#isStarJoin()}.
+     *
+     * @param parent the binding the patterns are evaluated with
+     * @param patterns the patterns, all with the same subject
+     * @return the bindings of the variables of the patterns, each extending the parent binding
+     */
+    public List<Binding> starJoin(Binding parent, List<Triple> patterns) {
+        StarJoinRequestBuilder starJoinRequestBuilder = new StarJoinRequestBuilder(client)
+                .setIndices(index)
+                .setType(type)
+                .setMapping(mapping != null ? mapping.getName() : null)
+                .setMaxRows(guard != null && guard.getMaxBindings() >= 0L ? guard.getMaxBindings() : Long.MAX_VALUE);
+        // the position of its first occurrence decides how the value of a variable is read
+        Map<String, Integer> positions = new HashMap<String, Integer>();
+        for (Triple pattern : patterns) {
+            Node[] nodes = new Node[]{pattern.getSubject(), pattern.getPredicate(), pattern.getObject()};
+            for (int i = 0; i < nodes.length; i++) {
+                if (nodes[i].isVariable() && !positions.containsKey(nodes[i].getName())) {
+                    positions.put(nodes[i].getName(), i);
+                }
+            }
+            BoolFilterBuilder filterBuilder = filter(Triple.createMatch(
+                    nodes[0].isVariable() ? null : nodes[0],
+                    nodes[1].isVariable() ? null : nodes[1],
+                    nodes[2].isVariable() ? null : nodes[2]));
+            QueryBuilder queryBuilder = filterBuilder.hasClauses() ?
+                    QueryBuilders.filteredQuery(QueryBuilders.matchAllQuery(), filterBuilder) :
+                    QueryBuilders.matchAllQuery();
+            starJoinRequestBuilder.addPattern(new StarJoinRequest.Pattern(queryBuilder.buildAsBytes(),
+                    nodes[0].isVariable() ? nodes[0].getName() : null,
+                    nodes[1].isVariable() ? nodes[1].getName() : null,
+                    nodes[2].isVariable() ? nodes[2].getName() : null));
+        }
+        long t0 = System.nanoTime();
+        StarJoinResponse response = context.execute(starJoinRequestBuilder);
+        if (response.getFailedShards() > 0) {
+            // a partial join is a wrong answer
+            ShardOperationFailedException[] failures = response.getShardFailures();
+            String reason = failures.length > 0 ? failures[0].reason() : "no active shard copy";
+            if (failures.length > 0 && failures[0].status() == RestStatus.BAD_REQUEST) {
+                throw new ElasticsearchIllegalArgumentException(reason);
+            }
+            throw new ElasticsearchException("star join failed on " + response.getFailedShards()
+                    + " of " + response.getTotalShards() + " shards: " + reason);
+        }
+        if (guard != null) {
+            guard.scanned(response.getScanned());
+        }
+        stats.search(response.getRows().size());
+        if (profile != null) {
+            profile.search(profile.entry("star join " + patterns, "star join " + patterns),
+                    response.getRows().size(), System.nanoTime() - t0);
+        }
+        List<String> vars = response.getVars();
+        List<Binding> bindings = new ArrayList<Binding>(response.getRows().size());
+        for (String[] row : response.getRows()) {
+            BindingMap binding = BindingFactory.create(parent);
+            for (int i = 0; i < row.length; i++) {
+                String var = vars.get(i);
+                int position = positions.get(var);
+                binding.add(Var.alloc(var), position == 0 ? nodeCache.asURIorBlankNode(row[i]) :
+                        position == 1 ? nodeCache.asURI(row[i]) : nodeCache.asNode(row[i]));
+            }
+            bindings.add(binding);
+        }
+        return bindings;
+    }
+
+    private Iterator<Node> step(List<Node> frontier, Node predicate, final boolean forward) {
+        List<String> terms = new ArrayList<String>(frontier.size());
+        for (Node n : frontier) {
+            terms.add(asNt(n));
+        }
+        BoolFilterBuilder filterBuilder = FilterBuilders.boolFilter()
+                .must(termsFilter(forward ? Field.S : Field.O, terms))
+                .must(termFilter(Field.P, asNt(predicate)));
+        if (node != null) {
+            filterBuilder.must(termFilter(Field.C, asNtURI(node)));
+        }
+        SearchRequestBuilder searchRequestBuilder = new SearchRequestBuilder(client)
+                .setSearchType(SearchType.SCAN)
+                .setScroll(TimeValue.timeValueMillis(5000))
+                .setSize(PAGE_SIZE)
+                .setQuery(QueryBuilders.filteredQuery(QueryBuilders.matchAllQuery(), filterBuilder));
+        if (index != null) {
+            searchRequestBuilder.setIndices(index);
+        }
+        if (type != null) {
+            searchRequestBuilder.setTypes(type);
+        }
+        TripleMapping.addFields(mapping, searchRequestBuilder, Field.S, Field.P, Field.O);
+        QueryProfile.Entry entry = profile != null ?
+                profile.entry("path " + (forward ? "" : "^") + predicate + " (" + frontier.size() + " nodes)",
+                        filterBuilder.buildAsBytes(XContentType.JSON).toUtf8()) : null;
+        final Iterator<Triple> triples = new ScanScroll(searchRequestBuilder, entry);
+        return new Iterator<Node>() {
+            @Override
+            public boolean hasNext() {
+                return triples.hasNext();
+            }
+
+            @Override
+            public Node next() {
+                Triple triple = triples.next();
+                return forward ? triple.getObject() : triple.getSubject();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
     }
 
     @Override
@@ -97,10 +390,82 @@ public class ElasticsearchRDFGraph extends GraphBase implements Datatypes {
         SearchRequestBuilder searchRequestBuilder = new SearchRequestBuilder(client)
                 .setSearchType(SearchType.COUNT)
                 .setQuery(QueryBuilders.matchAllQuery());
-        return searchRequestBuilder.execute().actionGet().getHits().getTotalHits();
+        return context.execute(searchRequestBuilder).getHits().getTotalHits();
     }
 
-    private Iterator<Triple> query(TripleMatch query) {
+    /**
+     * Check for a matching triple without fetching triples. A concrete triple of a named graph is looked up
+     * by its ID, other triples and patterns are counted with a count request that terminates after the first hit.
+     */
+    @Override
+    protected boolean graphBaseContains(Triple triple) {
+        // the default graph is the union of all graphs, a triple of it may be stored under the ID of any context
+        if (node != null && triple.isConcrete() && !triple.getSubject().isLiteral() && triple.getPredicate().isURI()
+                && index != null && type != null) {
+            long t0 = System.nanoTime();
+            try {
+                // not realtime, so that unrefreshed writes are not seen, just like by searches
+                boolean exists = context.execute(client.prepareGet(index, type, TripleId.of(triple, node))
+                        .setRouting(context.isRoutedBySubject() ? asNt(triple.getSubject()) : null)
+                        .setRealtime(false)
+                        .setFields())
+                        .isExists();
+                stats.search(exists ? 1L : 0L);
+                if (profile != null) {
+                    profile.search(profile.entry("contains " + triple, "get " + TripleId.of(triple, node)),
+                            exists ? 1L : 0L, System.nanoTime() - t0);
+                }
+                return exists;
+            } catch (ElasticsearchIllegalArgumentException e) {
+                // an alias for more than one index, documents can not be looked up by ID
+            }
+        }
+        BoolFilterBuilder filterBuilder = filter(triple);
+        SearchRequestBuilder searchRequestBuilder = new SearchRequestBuilder(client)
+                .setSearchType(SearchType.COUNT)
+                .setTerminateAfter(1)
+                .setQuery(filterBuilder.hasClauses() ?
+                        QueryBuilders.filteredQuery(QueryBuilders.matchAllQuery(), filterBuilder) :
+                        QueryBuilders.matchAllQuery());
+        if (index != null) {
+            searchRequestBuilder.setIndices(index);
+        }
+        if (type != null) {
+            searchRequestBuilder.setTypes(type);
+        }
+        long t0 = System.nanoTime();
+        long count = context.execute(searchRequestBuilder).getHits().getTotalHits();
+        stats.search(count);
+        if (profile != null) {
+            profile.search(profile.entry("contains " + triple, "count " + (filterBuilder.hasClauses() ?
+                    filterBuilder.buildAsBytes(XContentType.JSON).toUtf8() : "{}")), count, System.nanoTime() - t0);
+        }
+        return count > 0;
+    }
+
+    /**
+     * Build a request that counts the triples matching a pattern.
+     *
+     * @param pattern the pattern, with {@link Node#ANY} for any node
+     * @return the count request
+     */
+    public SearchRequestBuilder countRequest(Triple pattern) {
+        BoolFilterBuilder filterBuilder = filter(pattern);
+        SearchRequestBuilder searchRequestBuilder = new SearchRequestBuilder(client)
+                .setSearchType(SearchType.COUNT)
+                .setQuery(filterBuilder.hasClauses() ?
+                        QueryBuilders.filteredQuery(QueryBuilders.matchAllQuery(), filterBuilder) :
+                        QueryBuilders.matchAllQuery());
+        if (index != null) {
+            searchRequestBuilder.setIndices(index);
+        }
+        if (type != null) {
+            searchRequestBuilder.setTypes(type);
+        }
+        return searchRequestBuilder;
+    }
+
+    private BoolFilterBuilder filter(TripleMatch query) {
         BoolFilterBuilder filterBuilder = FilterBuilders.boolFilter();
         final Node s = query.getMatchSubject();
         final Node p = query.getMatchPredicate();
@@ -112,61 +477,135 @@ public class ElasticsearchRDFGraph extends GraphBase implements Datatypes {
             filterBuilder.must(termFilter(Field.P, asNt(p)));
         }
         if (o != null) {
-            if (o.isLiteral()) {
-                final String language = o.getLiteralLanguage();
-                if (language != null && !language.isEmpty()) {
-                    filterBuilder.must(termFilter(Field.LANG, language));
-                }
-                final String literalValue = o.getLiteralLexicalForm();
-                final RDFDatatype dataType = o.getLiteralDatatype();
-                if (dataType != null) {
-                    final String uri = dataType.getURI();
-                    if (XSD_BOOLEAN.equals(uri)) {
-                        filterBuilder.must(termFilter(Field.BOOLEAN_OBJECT, literalValue));
-                    } else if (XSD_INT.equals(uri) ||
-                            XSD_INTEGER.equals(uri) ||
-                            XSD_LONG.equals(uri)) {
-                        filterBuilder.must(termFilter(Field.LONG_OBJECT, literalValue));
-                    } else if (XSD_DECIMAL.equals(uri) ||
-                            XSD_DOUBLE.equals(uri)) {
-                        filterBuilder.must(termFilter(Field.DOUBLE_OBJECT, literalValue));
-                    } else if (XSD_DATE.equals(uri) ||
-                                    XSD_DATETIME.equals(uri)) {
-                        filterBuilder.must(termFilter(Field.DATE_OBJECT, literalValue));
-                    } else {
-                        filterBuilder.must(termFilter(Field.STRING_OBJECT, literalValue));
-                    }
-                } else {
-                    filterBuilder.must(termFilter(Field.STRING_OBJECT, literalValue));
-                }
-            } else {
-                filterBuilder.must(termFilter(Field.STRING_OBJECT, asNt(o)));
-            }
+            // o_s is analyzed for text search, exact matches use the N-Triples form in o
+            filterBuilder.must(termFilter(Field.O, asNt(o)));
         }
         if (node != null) {
-            filterBuilder.must(termFilter(Field.C, asNtURI(o)));
+            filterBuilder.must(termFilter(Field.C, asNtURI(node)));
         }
-        searchRequestBuilder.setSearchType(SearchType.SCAN)
+        return filterBuilder;
+    }
+
+    private Iterator<Triple> query(TripleMatch query) {
+        BoolFilterBuilder filterBuilder = filter(query);
+        // a fresh request per find, finds may run concurrently
+        SearchRequestBuilder searchRequestBuilder = new SearchRequestBuilder(client)
+                .setSearchType(SearchType.SCAN)
                 .setScroll(TimeValue.timeValueMillis(5000)) // should be a parameter
-                .setSize(1000); // should be a parameter
+                .setSize(PAGE_SIZE);
         if (index != null) {
             searchRequestBuilder.setIndices(index);
         }
         if (type != null) {
             searchRequestBuilder.setTypes(type);
         }
-        searchRequestBuilder.addFields(Field.S, Field.P, Field.O, Field.C,
-                Field.BOOLEAN_OBJECT, Field.DOUBLE_OBJECT, Field.LONG_OBJECT,
-                Field.DATE_OBJECT, Field.STRING_OBJECT, Field.LANG);
+        // the N-Triples forms in s, p and o are all it takes to rebuild the triple
+        TripleMapping.addFields(mapping, searchRequestBuilder, Field.S, Field.P, Field.O);
         if (filterBuilder.hasClauses()) {
             searchRequestBuilder.setQuery(QueryBuilders.filteredQuery(QueryBuilders.matchAllQuery(), filterBuilder));
         } else {
             searchRequestBuilder.setQuery(QueryBuilders.matchAllQuery());
         }
-        return new ScanScroll(searchRequestBuilder);
+        QueryProfile.Entry entry = profile != null ?
+                profile.entry(query.asTriple().toString(), filterBuilder.hasClauses() ?
+                        filterBuilder.buildAsBytes(XContentType.JSON).toUtf8() : "{}") : null;
+        return new ScanScroll(searchRequestBuilder, entry);
+    }
+
+    /**
+     * Find the triples of several patterns with one multi search, instead of one scan per pattern.
+     * The first {@link #PAGE_SIZE} triples of each pattern are fetched with the multi search, a pattern
+     * with more triples is scanned again.
+     *
+     * @param patterns the patterns, with {@link Node#ANY} for any node
+     * @return the triples of each pattern
+     */
+    public List<Iterator<Triple>> findAll(List<Triple> patterns) {
+        List<Iterator<Triple>> result = new ArrayList<Iterator<Triple>>(patterns.size());
+        if (patterns.isEmpty()) {
+            return result;
+        }
+        MultiSearchRequestBuilder multiSearchRequestBuilder = client.prepareMultiSearch();
+        List<String> filters = new ArrayList<String>(patterns.size());
+        for (Triple pattern : patterns) {
+            BoolFilterBuilder filterBuilder = filter(pattern);
+            SearchRequestBuilder searchRequestBuilder = new SearchRequestBuilder(client)
+                    .setSize(PAGE_SIZE)
+                    .setQuery(filterBuilder.hasClauses() ?
+                            QueryBuilders.filteredQuery(QueryBuilders.matchAllQuery(), filterBuilder) :
+                            QueryBuilders.matchAllQuery());
+            if (index != null) {
+                searchRequestBuilder.setIndices(index);
+            }
+            if (type != null) {
+                searchRequestBuilder.setTypes(type);
+            }
+            TripleMapping.addFields(mapping, searchRequestBuilder, Field.S, Field.P, Field.O);
+            multiSearchRequestBuilder.add(searchRequestBuilder);
+            if (profile != null) {
+                filters.add(filterBuilder.hasClauses() ? filterBuilder.buildAsBytes(XContentType.JSON).toUtf8() : "{}");
+            }
+        }
+        long t0 = System.nanoTime();
+        MultiSearchResponse.Item[] items = context.execute(multiSearchRequestBuilder).getResponses();
+        long nanos = (System.nanoTime() - t0) / items.length;
+        for (int i = 0; i < items.length; i++) {
+            if (items[i].isFailure()) {
+                throw new ElasticsearchException(items[i].getFailureMessage());
+            }
+            SearchHits hits = items[i].getResponse().getHits();
+            stats.search(hits.getHits().length);
+            if (guard != null) {
+                guard.scanned(hits.getHits().length);
+            }
+            if (profile != null) {
+                profile.search(profile.entry(patterns.get(i).toString(), filters.get(i)), hits.getHits().length, nanos);
+            }
+            if (hits.getTotalHits() > hits.getHits().length) {
+                result.add(query(patterns.get(i)));
+            } else {
+                List<Triple> triples = new ArrayList<Triple>(hits.getHits().length);
+                for (SearchHit hit : hits) {
+                    triples.add(triple(hit));
+                }
+                result.add(triples.iterator());
+            }
+        }
+        return result;
+    }
+
+    private Triple triple(SearchHit hit) {
+        return Triple.create(
+                nodeCache.asURIorBlankNode(TripleMapping.value(hit, Field.S)),
+                nodeCache.asURI(TripleMapping.value(hit, Field.P)),
+                nodeCache.asNode(TripleMapping.value(hit, Field.O)));
+    }
+
+    public static class TextHit {
+
+        private final Triple triple;
+
+        private final float score;
+
+        TextHit(Triple triple, float score) {
+            this.triple = triple;
+            this.score = score;
+        }
+
+        public Triple getTriple() {
+            return triple;
+        }
+
+        public float getScore() {
+            return score;
+        }
     }
 
-    class ScanScroll implements Iterator<Triple> {
+    /**
+     * Reads the triples of a scan page by page. A scan that is closed before it is read to the end
+     * clears its scroll.
+     */
+    class ScanScroll implements ClosableIterator<Triple> {
 
         SearchResponse searchResponse;
 
@@ -174,27 +613,55 @@ public class ElasticsearchRDFGraph extends GraphBase implements Datatypes {
 
         Iterator<Triple> iterator;
 
-        ScanScroll(SearchRequestBuilder searchRequestBuilder) {
-            searchResponse = searchRequestBuilder.execute().actionGet();
+        boolean open;
+
+        final QueryProfile.Entry entry;
+
+        ScanScroll(SearchRequestBuilder searchRequestBuilder, QueryProfile.Entry entry) {
+            this.entry = entry;
+            long t0 = System.nanoTime();
+            searchResponse = context.execute(searchRequestBuilder);
+            if (guard != null) {
+                guard.opened(searchResponse.getScrollId());
+            }
+            stats.search(0L);
+            if (entry != null) {
+                profile.search(entry, 0L, System.nanoTime() - t0);
+            }
+            stats.scrollOpened();
+            open = true;
             triples = new ArrayList<Triple>();
             iterator = triples.iterator();
             scroll();
         }
 
         private void scroll() {
-            if (searchResponse.getScrollId() != null) {
-                searchResponse = client.prepareSearchScroll(searchResponse.getScrollId())
-                        .setScroll(TimeValue.timeValueMillis(5000))
-                        .execute().actionGet();
+            if (open && searchResponse.getScrollId() != null) {
+                long t0 = System.nanoTime();
+                String scrollId = searchResponse.getScrollId();
+                searchResponse = context.execute(client.prepareSearchScroll(scrollId)
+                        .setScroll(TimeValue.timeValueMillis(5000)));
                 SearchHits hits = searchResponse.getHits();
+                stats.scrollPage(hits.getHits().length);
+                if (guard != null) {
+                    // the scroll ID may change from page to page, a scan that is read to the end is released
+                    guard.closed(scrollId);
+                    if (hits.getHits().length > 0) {
+                        guard.opened(searchResponse.getScrollId());
+                    }
+                    guard.scanned(hits.getHits().length);
+                }
+                if (entry != null) {
+                    profile.scrollPage(entry, hits.getHits().length, System.nanoTime() - t0);
+                }
                 triples = new ArrayList<Triple>();
                 if (hits.getHits().length > 0) {
                     for (SearchHit hit : hits) {
-                        triples.add(Triple.create(
-                                NTriples.asURIorBlankNode((String) hit.field(Field.S).getValue()),
-                                NTriples.asURI((String) hit.field(Field.P).getValue()),
-                                NTriples.asNode((String) hit.field(Field.O).getValue())));
+                        triples.add(triple(hit));
                     }
+                } else {
+                    open = false;
+                    stats.scrollClosed();
                 }
                 iterator = triples.iterator();
             }
@@ -219,6 +686,23 @@ public class ElasticsearchRDFGraph extends GraphBase implements Datatypes {
         public void remove() {
             throw new UnsupportedOperationException();
         }
+
+        @Override
+        public void close() {
+            if (!open) {
+                return;
+            }
+            open = false;
+            String scrollId = searchResponse.getScrollId();
+            // the guard may have cleared the scroll already
+            if (guard != null && scrollId != null && !guard.closed(scrollId)) {
+                return;
+            }
+            stats.scrollClosed();
+            if (scrollId != null) {
+                client.prepareClearScroll().addScrollId(scrollId).execute();
+            }
+        }
     }
 
 }
\ No newline at end of file
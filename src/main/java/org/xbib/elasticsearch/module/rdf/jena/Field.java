@@ -30,4 +30,5 @@ public interface Field {
     String BOOLEAN_OBJECT = "o_b";
     String DATE_OBJECT = "o_d";
     String STRING_OBJECT = "o_s";
+    String INFERRED = "inferred";
 }
\ No newline at end of file
@@ -0,0 +1,973 @@
+/**
+ *    Copyright 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.module.rdf.jena;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.sparql.core.Quad;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.ReaderRIOT;
+import org.apache.jena.riot.lang.LabelToNode;
+import org.apache.jena.riot.system.ParserProfile;
+import org.apache.jena.riot.system.RiotLib;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFBase;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.ElasticsearchIllegalArgumentException;
+import org.elasticsearch.ElasticsearchTimeoutException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequestBuilder;
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchType;
+import org.elasticsearch.action.support.IndicesOptions;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.cluster.metadata.AliasMetaData;
+import org.elasticsearch.cluster.metadata.MetaData;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.collect.ImmutableOpenMap;
+import org.elasticsearch.common.component.AbstractLifecycleComponent;
+import org.elasticsearch.common.hash.MurmurHash3;
+import org.elasticsearch.common.hppc.cursors.ObjectCursor;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.inject.Injector;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.index.Index;
+import org.elasticsearch.index.query.FilterBuilders;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.indices.IndexMissingException;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.threadpool.ThreadPool;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Node level service for uploading RDF.
+ *
+ * Uploads are parsed on a fixed pool of parser threads. All uploads to the same index and type
+ * share one bulk client, and all bulk clients share a global limit of bulk requests in flight.
+ * Bulk clients without uploads for {@code jena.ingest.idle_timeout}, or whose index was deleted, are closed.
+ */
+public class JenaIngestService extends AbstractLifecycleComponent<JenaIngestService> {
+
+    private final Injector injector;
+
+    private final ThreadPool threadPool;
+
+    private final JenaStatsService stats;
+
+    private final ResultCache resultCache;
+
+    private final int parserThreads;
+
+    private final int queueSize;
+
+    private final int bulkActions;
+
+    private final ByteSizeValue bulkSize;
+
+    private final TimeValue flushInterval;
+
+    private final int maxRetries;
+
+    private final TimeValue retryBackoff;
+
+    private final TimeValue timeout;
+
+    private final TimeValue idleTimeout;
+
+    private final int bulkLoadActions;
+
+    private final ByteSizeValue bulkLoadSize;
+
+    private final int bulkLoadMaxNumSegments;
+
+    private final TimeValue bulkLoadGreenTimeout;
+
+    private final String refreshInterval;
+
+    private final TripleMapping mapping;
+
+    private final boolean infer;
+
+    private final Semaphore concurrentBulkRequests;
+
+    private final Map<String, ElasticsearchBulkClient> bulkClients = new HashMap<String, ElasticsearchBulkClient>();
+
+    private Client client;
+
+    private ExecutorService parserExecutor;
+
+    private ScheduledFuture<?> scheduledEviction;
+
+    /**
+     * The client is looked up when the service starts, injecting it into a node level
+     * service would create a circular dependency.
+     */
+    @Inject
+    public JenaIngestService(Settings settings, Injector injector, ThreadPool threadPool, JenaStatsService stats,
+                             ResultCache resultCache) {
+        super(settings);
+        this.injector = injector;
+        this.threadPool = threadPool;
+        this.stats = stats;
+        this.resultCache = resultCache;
+        int processors = EsExecutors.boundedNumberOfProcessors(settings);
+        this.parserThreads = settings.getAsInt("jena.ingest.parser_threads", processors);
+        this.queueSize = settings.getAsInt("jena.ingest.queue_size", 100);
+        this.bulkActions = settings.getAsInt("jena.ingest.bulk_actions", 10000);
+        this.bulkSize = settings.getAsBytesSize("jena.ingest.bulk_size", ByteSizeValue.parseBytesSizeValue("10m"));
+        this.flushInterval = settings.getAsTime("jena.ingest.flush_interval", TimeValue.timeValueSeconds(5));
+        this.maxRetries = settings.getAsInt("jena.ingest.max_retries", 8);
+        this.retryBackoff = settings.getAsTime("jena.ingest.retry_backoff", TimeValue.timeValueMillis(50));
+        this.timeout = settings.getAsTime("jena.ingest.timeout", TimeValue.timeValueMinutes(30));
+        this.idleTimeout = settings.getAsTime("jena.ingest.idle_timeout", TimeValue.timeValueMinutes(5));
+        this.bulkLoadActions = settings.getAsInt("jena.bulkload.bulk_actions", 50000);
+        this.bulkLoadSize = settings.getAsBytesSize("jena.bulkload.bulk_size", ByteSizeValue.parseBytesSizeValue("50m"));
+        this.bulkLoadMaxNumSegments = settings.getAsInt("jena.bulkload.max_num_segments", 1);
+        this.bulkLoadGreenTimeout = settings.getAsTime("jena.bulkload.green_timeout", TimeValue.timeValueSeconds(30));
+        this.refreshInterval = settings.get("jena.bulkload.refresh_interval", "1s");
+        this.mapping = TripleMapping.fromString(settings.get("jena.index.mapping", TripleMapping.STORED.getName()));
+        this.infer = settings.getAsBoolean("jena.ingest.infer", false);
+        this.concurrentBulkRequests = new Semaphore(settings.getAsInt("jena.ingest.concurrent_requests", processors));
+    }
+
+    @Override
+    protected void doStart() throws ElasticsearchException {
+        this.client = injector.getInstance(Client.class);
+        injector.getInstance(ClusterService.class).add(resultCache);
+        this.parserExecutor = EsExecutors.newFixed(parserThreads, queueSize,
+                EsExecutors.daemonThreadFactory(settings, "jena_parser"));
+        final Runnable eviction = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    evict();
+                } catch (Throwable t) {
+                    logger.warn("failed to evict bulk clients", t);
+                }
+            }
+        };
+        // closing a bulk client waits for its requests, which must not happen on the scheduler thread
+        this.scheduledEviction = threadPool.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    threadPool.executor(ThreadPool.Names.GENERIC).execute(eviction);
+                } catch (EsRejectedExecutionException e) {
+                    logger.debug("bulk client eviction rejected");
+                }
+            }
+        }, idleTimeout);
+    }
+
+    @Override
+    protected void doStop() throws ElasticsearchException {
+        scheduledEviction.cancel(false);
+        injector.getInstance(ClusterService.class).remove(resultCache);
+        synchronized (bulkClients) {
+            for (ElasticsearchBulkClient bulkClient : bulkClients.values()) {
+                try {
+                    bulkClient.close();
+                } catch (ElasticsearchException e) {
+                    logger.warn("failed to close bulk client", e);
+                }
+            }
+            bulkClients.clear();
+        }
+        parserExecutor.shutdown();
+        try {
+            parserExecutor.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    protected void doClose() throws ElasticsearchException {
+    }
+
+    /**
+     * Return the shared bulk client for an index and type, with an upload registered. The caller must
+     * call {@link ElasticsearchBulkClient#endUpload()} when done, a bulk client is never evicted while
+     * an upload is registered.
+     *
+     * @param index the index
+     * @param type the type
+     * @return the bulk client
+     */
+    public ElasticsearchBulkClient beginUpload(String index, String type) {
+        String key = index + "/" + type;
+        synchronized (bulkClients) {
+            ElasticsearchBulkClient bulkClient = bulkClients.get(key);
+            if (bulkClient == null) {
+                bulkClient = new ElasticsearchBulkClient(client, threadPool, index, type,
+                        bulkActions, concurrentBulkRequests, bulkSize, flushInterval, maxRetries, retryBackoff, stats);
+                bulkClients.put(key, bulkClient);
+            }
+            bulkClient.beginUpload();
+            return bulkClient;
+        }
+    }
+
+    /**
+     * Close and remove the shared bulk clients that are idle, or whose index was deleted.
+     */
+    private void evict() {
+        List<ElasticsearchBulkClient> evicted = new ArrayList<ElasticsearchBulkClient>();
+        synchronized (bulkClients) {
+            if (bulkClients.isEmpty()) {
+                return;
+            }
+        }
+        MetaData metaData = client.admin().cluster().prepareState().setMetaData(true)
+                .execute().actionGet().getState().metaData();
+        synchronized (bulkClients) {
+            Iterator<ElasticsearchBulkClient> it = bulkClients.values().iterator();
+            while (it.hasNext()) {
+                ElasticsearchBulkClient bulkClient = it.next();
+                if (bulkClient.isIdle(idleTimeout) || (!bulkClient.isActive() && metaData.concreteIndices(
+                        IndicesOptions.lenientExpandOpen(), bulkClient.getIndex()).length == 0)) {
+                    it.remove();
+                    evicted.add(bulkClient);
+                }
+            }
+        }
+        for (ElasticsearchBulkClient bulkClient : evicted) {
+            logger.debug("closing bulk client of {}/{}", bulkClient.getIndex(), bulkClient.getType());
+            try {
+                bulkClient.close();
+            } catch (ElasticsearchException e) {
+                logger.warn("failed to close bulk client", e);
+            }
+        }
+    }
+
+    /**
+     * Return whether uploads materialize RDFS entailments unless requested otherwise.
+     *
+     * @return true if inference is enabled by default
+     */
+    public boolean isInfer() {
+        return infer;
+    }
+
+    /**
+     * Parse RDF content and index the triples. The listener is notified on a parser thread
+     * after all triples of the content have been indexed and the index has been refreshed.
+     *
+     * With inference, the schema triples of the index and of the content are read first, and the
+     * triples entailed by each triple are indexed along with it, see {@link RDFSchema}.
+     *
+     * @param index the index
+     * @param type the type
+     * @param content the RDF content
+     * @param contentEncoding the compression of the content, or null
+     * @param lang the RDF language of the content
+     * @param infer whether to materialize RDFS entailments
+     * @param listener the listener
+     */
+    public void ingest(final String index, final String type, final BytesReference content,
+                       final String contentEncoding, final Lang lang, final boolean infer,
+                       final ActionListener<BulkTracker> listener) {
+        parserExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final BulkTracker tracker = new BulkTracker();
+                    final ElasticsearchBulkClient bulkClient = beginUpload(index, type);
+                    try {
+                        bulkClient.createIndex(null, mapping);
+                        RDFSchema schema = infer ? schema(index, type, content, contentEncoding, lang) : null;
+                        resultCache.beginWrite();
+                        try {
+                            parse(bulkClient, content, contentEncoding, lang, schema, tracker);
+                            bulkClient.flush(tracker);
+                            await(tracker);
+                            bulkClient.refreshIndex();
+                        } finally {
+                            resultCache.endWrite();
+                        }
+                    } finally {
+                        bulkClient.endUpload();
+                    }
+                    listener.onResponse(tracker);
+                } catch (Throwable t) {
+                    listener.onFailure(t);
+                }
+            }
+        });
+    }
+
+    /**
+     * Apply an RDF Patch to an index. The listener is notified on a parser thread after all changes
+     * have been applied and the index has been refreshed.
+     *
+     * Changes are indexed and deleted by the deterministic IDs of the triples. The changes of a transaction
+     * are collected until it is committed, so an aborted transaction has no effect, and a triple that is
+     * changed more than once in a transaction is changed once. Bulk requests may complete in any order,
+     * so before a triple is changed again while a change of it is in flight, the requests in flight are awaited.
+     *
+     * @param index the index
+     * @param type the type
+     * @param content the patch
+     * @param contentEncoding the compression of the content, or null
+     * @param listener the listener
+     */
+    public void patch(final String index, final String type, final BytesReference content,
+                      final String contentEncoding, final ActionListener<Patch> listener) {
+        parserExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    long t0 = System.nanoTime();
+                    Patch patch = new Patch();
+                    final ElasticsearchBulkClient bulkClient = beginUpload(index, type);
+                    try {
+                        bulkClient.createIndex(null, mapping);
+                        resultCache.beginWrite();
+                        try {
+                            InputStream in = UploadDecoder.decode(content, contentEncoding);
+                            try {
+                                RDFPatch.parse(in, new RDFPatch.Transactions(new PatchHandler(bulkClient, patch)));
+                            } finally {
+                                in.close();
+                            }
+                            bulkClient.flush(patch.getTracker());
+                            await(patch.getTracker());
+                            bulkClient.refreshIndex();
+                        } finally {
+                            resultCache.endWrite();
+                        }
+                    } finally {
+                        bulkClient.endUpload();
+                    }
+                    patch.setTookInNanos(System.nanoTime() - t0);
+                    stats.patched(patch.getAdds(), patch.getDeletes());
+                    listener.onResponse(patch);
+                } catch (Throwable t) {
+                    listener.onFailure(t);
+                }
+            }
+        });
+    }
+
+    /**
+     * Load RDF content into a fresh index and swap the alias to the new index when complete.
+     *
+     * The new index is created with refresh disabled and without replicas. After loading, the index
+     * is optimized, replicas and refresh are restored, and the alias is moved from the previous
+     * indices to the new index in a single atomic request, so queries never see a partially loaded index.
+     * The alias is not moved if any triple failed to index. The new index is deleted if it is not swapped in.
+     *
+     * @param alias the alias
+     * @param type the type
+     * @param content the RDF content
+     * @param contentEncoding the compression of the content, or null
+     * @param lang the RDF language of the content
+     * @param infer whether to materialize RDFS entailments, with the schema of the content
+     * @param replicas the number of replicas of the loaded index
+     * @param deletePrevious whether to delete the indices the alias pointed to before
+     * @param listener the listener
+     */
+    public void bulkLoad(final String alias, final String type, final BytesReference content,
+                         final String contentEncoding, final Lang lang, final boolean infer, final int replicas,
+                         final boolean deletePrevious, final ActionListener<BulkLoad> listener) {
+        parserExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                BulkLoad bulkLoad = null;
+                try {
+                    RDFSchema schema = infer ? schema(null, type, content, contentEncoding, lang) : null;
+                    bulkLoad = beginBulkLoad(alias, type);
+                    ElasticsearchBulkClient bulkClient = new ElasticsearchBulkClient(client, threadPool,
+                            bulkLoad.getIndex(), type, bulkLoadActions, concurrentBulkRequests, bulkLoadSize,
+                            flushInterval, maxRetries, retryBackoff, stats);
+                    try {
+                        parse(bulkClient, content, contentEncoding, lang, schema, bulkLoad.getTracker());
+                    } finally {
+                        bulkClient.close();
+                    }
+                    await(bulkLoad.getTracker());
+                    endBulkLoad(bulkLoad, replicas, deletePrevious);
+                    listener.onResponse(bulkLoad);
+                } catch (Throwable t) {
+                    if (bulkLoad != null) {
+                        abortBulkLoad(bulkLoad);
+                    }
+                    listener.onFailure(t);
+                }
+            }
+        });
+    }
+
+    /**
+     * Create a fresh index for a bulk load, with refresh disabled and without replicas.
+     *
+     * @param alias the alias
+     * @param type the type
+     * @return the bulk load
+     * @throws IOException if the index can not be created
+     */
+    public BulkLoad beginBulkLoad(String alias, String type) throws IOException {
+        return beginBulkLoad(alias, type, mapping, false);
+    }
+
+    private BulkLoad beginBulkLoad(String alias, String type, TripleMapping mapping, boolean replaceIndex)
+            throws IOException {
+        MetaData metaData = client.admin().cluster().prepareState().setMetaData(true)
+                .execute().actionGet().getState().metaData();
+        BulkLoad bulkLoad = new BulkLoad(alias, alias + "_" + System.currentTimeMillis(), type);
+        if (metaData.hasIndex(alias)) {
+            if (!replaceIndex) {
+                throw new ElasticsearchIllegalArgumentException("bulk load requires that " + alias
+                        + " is an alias or does not exist, but it is an index");
+            }
+            bulkLoad.getPreviousIndices().add(alias);
+            bulkLoad.setReplacesIndex(true);
+        }
+        ImmutableOpenMap<String, AliasMetaData> indices = metaData.aliases().get(alias);
+        if (indices != null) {
+            for (ObjectCursor<String> index : indices.keys()) {
+                bulkLoad.getPreviousIndices().add(index.value);
+            }
+        }
+        new ElasticsearchBulkClient(client, threadPool, bulkLoad.getIndex(), type, bulkLoadActions,
+                concurrentBulkRequests, bulkLoadSize, null, maxRetries, retryBackoff, stats)
+                .createIndex(ImmutableSettings.settingsBuilder()
+                        .put("index.refresh_interval", -1)
+                        .put("index.number_of_replicas", 0)
+                        .build(), mapping);
+        logger.info("bulk load into {} with {} mapping for alias {} started", bulkLoad.getIndex(),
+                mapping.getName(), alias);
+        return bulkLoad;
+    }
+
+    /**
+     * Optimize the index of a bulk load, restore replicas and refresh, and swap the alias.
+     *
+     * @param bulkLoad the bulk load
+     * @param replicas the number of replicas
+     * @param deletePrevious whether to delete the indices the alias pointed to before
+     */
+    public void endBulkLoad(BulkLoad bulkLoad, int replicas, boolean deletePrevious) {
+        String index = bulkLoad.getIndex();
+        client.admin().indices().prepareOptimize(index)
+                .setMaxNumSegments(bulkLoadMaxNumSegments)
+                .setWaitForMerge(true)
+                .execute().actionGet();
+        client.admin().indices().prepareUpdateSettings(index)
+                .setSettings(ImmutableSettings.settingsBuilder()
+                        .put("index.number_of_replicas", replicas)
+                        .put("index.refresh_interval", refreshInterval)
+                        .build())
+                .execute().actionGet();
+        client.admin().indices().prepareRefresh(index).execute().actionGet();
+        if (bulkLoad.getTracker().getFailed() > 0) {
+            logger.warn("bulk load into {} had {} failed triples, alias {} not swapped",
+                    index, bulkLoad.getTracker().getFailed(), bulkLoad.getAlias());
+            abortBulkLoad(bulkLoad);
+            return;
+        }
+        client.admin().cluster().prepareHealth(index)
+                .setWaitForGreenStatus()
+                .setTimeout(bulkLoadGreenTimeout)
+                .execute().actionGet();
+        if (bulkLoad.isReplacesIndex()) {
+            // an alias can not have the name of an index, the index is gone until the alias is added
+            client.admin().indices().prepareDelete(bulkLoad.getAlias()).execute().actionGet();
+            client.admin().indices().prepareAliases().addAlias(index, bulkLoad.getAlias()).execute().actionGet();
+            resultCache.invalidate();
+            bulkLoad.setSwapped(true);
+            logger.info("index {} replaced by {} with alias {}", bulkLoad.getAlias(), index, bulkLoad.getAlias());
+            return;
+        }
+        IndicesAliasesRequestBuilder aliasesRequestBuilder = client.admin().indices().prepareAliases();
+        for (String previous : bulkLoad.getPreviousIndices()) {
+            aliasesRequestBuilder.removeAlias(previous, bulkLoad.getAlias());
+        }
+        aliasesRequestBuilder.addAlias(index, bulkLoad.getAlias()).execute().actionGet();
+        resultCache.invalidate();
+        bulkLoad.setSwapped(true);
+        logger.info("alias {} swapped to {}", bulkLoad.getAlias(), index);
+        if (deletePrevious && !bulkLoad.getPreviousIndices().isEmpty()) {
+            client.admin().indices().prepareDelete(bulkLoad.getPreviousIndices()
+                    .toArray(new String[bulkLoad.getPreviousIndices().size()]))
+                    .execute().actionGet();
+        }
+    }
+
+    /**
+     * Delete the index of a bulk load that was not swapped in, so that no index is left behind with
+     * refresh disabled, without replicas and without an alias. The index is kept if the index it
+     * replaces is deleted already, because it is then the only copy of the triples.
+     *
+     * @param bulkLoad the bulk load
+     */
+    private void abortBulkLoad(BulkLoad bulkLoad) {
+        if (bulkLoad.isSwapped()) {
+            return;
+        }
+        try {
+            MetaData metaData = client.admin().cluster().prepareState().setMetaData(true)
+                    .execute().actionGet().getState().metaData();
+            if (bulkLoad.isReplacesIndex() && !metaData.hasIndex(bulkLoad.getAlias())) {
+                logger.error("index {} was deleted, but not replaced by {} with alias {}",
+                        bulkLoad.getAlias(), bulkLoad.getIndex(), bulkLoad.getAlias());
+                return;
+            }
+            if (metaData.hasIndex(bulkLoad.getIndex())) {
+                client.admin().indices().prepareDelete(bulkLoad.getIndex()).execute().actionGet();
+                logger.info("bulk load into {} aborted, index deleted", bulkLoad.getIndex());
+            }
+        } catch (Exception e) {
+            logger.error("index {} of an aborted bulk load could not be deleted", e, bulkLoad.getIndex());
+        }
+    }
+
+    /**
+     * Copy the triples of an index or alias into a fresh index with another mapping variant,
+     * and point the alias to the new index when complete, the same way as a bulk load.
+     *
+     * If the source is an alias, it is swapped atomically. If the source is an index, it is deleted
+     * and an alias with its name is added, so queries fail for the short time in between.
+     *
+     * @param source the index or alias
+     * @param type the type
+     * @param mapping the mapping variant of the new index
+     * @param replicas the number of replicas of the new index
+     * @param deletePrevious whether to delete the indices the alias pointed to before
+     * @param listener the listener
+     */
+    public void migrate(final String source, final String type, final TripleMapping mapping, final int replicas,
+                        final boolean deletePrevious, final ActionListener<BulkLoad> listener) {
+        parserExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                BulkLoad bulkLoad = null;
+                try {
+                    MetaData metaData = client.admin().cluster().prepareState().setMetaData(true)
+                            .execute().actionGet().getState().metaData();
+                    if (metaData.concreteIndices(IndicesOptions.lenientExpandOpen(), source).length == 0) {
+                        throw new IndexMissingException(new Index(source));
+                    }
+                    bulkLoad = beginBulkLoad(source, type, mapping, true);
+                    ElasticsearchBulkClient bulkClient = new ElasticsearchBulkClient(client, threadPool,
+                            bulkLoad.getIndex(), type, bulkLoadActions, concurrentBulkRequests, bulkLoadSize,
+                            flushInterval, maxRetries, retryBackoff, stats);
+                    try {
+                        copy(source, type, bulkClient, bulkLoad.getTracker());
+                    } finally {
+                        bulkClient.close();
+                    }
+                    await(bulkLoad.getTracker());
+                    endBulkLoad(bulkLoad, replicas, deletePrevious);
+                    listener.onResponse(bulkLoad);
+                } catch (Throwable t) {
+                    if (bulkLoad != null) {
+                        abortBulkLoad(bulkLoad);
+                    }
+                    listener.onFailure(t);
+                }
+            }
+        });
+    }
+
+    /**
+     * Return the number of replicas an index is configured with, or the node default if the index
+     * does not exist.
+     *
+     * @param index the index or alias
+     * @return the number of replicas
+     */
+    public int numberOfReplicas(String index) {
+        MetaData metaData = client.admin().cluster().prepareState().setMetaData(true)
+                .execute().actionGet().getState().metaData();
+        String[] concreteIndices = metaData.concreteIndices(IndicesOptions.lenientExpandOpen(), index);
+        if (concreteIndices.length > 0) {
+            return metaData.index(concreteIndices[0]).numberOfReplicas();
+        }
+        return settings.getAsInt("index.number_of_replicas", 1);
+    }
+
+    /**
+     * Delete the inferred triples of an index, and materialize the RDFS entailments of the asserted
+     * triples again under the current schema of the index. The listener is notified on a parser thread
+     * after the index has been refreshed.
+     *
+     * @param index the index
+     * @param type the type
+     * @param listener the listener
+     */
+    public void infer(final String index, final String type, final ActionListener<BulkTracker> listener) {
+        parserExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final BulkTracker tracker = new BulkTracker();
+                    final ElasticsearchBulkClient bulkClient = beginUpload(index, type);
+                    try {
+                        resultCache.beginWrite();
+                        try {
+                            client.prepareDeleteByQuery(index).setTypes(type)
+                                    .setQuery(QueryBuilders.termQuery(Field.INFERRED, true))
+                                    .execute().actionGet();
+                            client.admin().indices().prepareRefresh(index).execute().actionGet();
+                            final RDFSchema schema = schema(index, type, null, null, null);
+                            final Set<Quad> recent = recent();
+                            scan(index, type, asserted(), new StreamRDFBase() {
+                                @Override
+                                public void quad(Quad quad) {
+                                    infer(bulkClient, schema, quad.asTriple(),
+                                            quad.isDefaultGraph() ? null : quad.getGraph(), recent, tracker);
+                                }
+                            });
+                            bulkClient.flush(tracker);
+                            await(tracker);
+                            bulkClient.refreshIndex();
+                        } finally {
+                            resultCache.endWrite();
+                        }
+                    } finally {
+                        bulkClient.endUpload();
+                    }
+                    listener.onResponse(tracker);
+                } catch (Throwable t) {
+                    listener.onFailure(t);
+                }
+            }
+        });
+    }
+
+    /**
+     * Build the RDFS schema from the schema triples of an index and of RDF content.
+     *
+     * @param index the index, or null
+     * @param type the type
+     * @param content the RDF content, or null
+     * @param contentEncoding the compression of the content, or null
+     * @param lang the RDF language of the content
+     * @return the schema
+     * @throws IOException if the content can not be read
+     */
+    private RDFSchema schema(String index, String type, BytesReference content, String contentEncoding, Lang lang)
+            throws IOException {
+        final RDFSchema.Builder builder = RDFSchema.builder();
+        StreamRDFBase sink = new StreamRDFBase() {
+            @Override
+            public void triple(Triple triple) {
+                builder.add(triple);
+            }
+
+            @Override
+            public void quad(Quad quad) {
+                builder.add(quad.asTriple());
+            }
+        };
+        if (index != null) {
+            // the index may just have been created, searches fail until its primary shards are started
+            client.admin().cluster().prepareHealth(index).setWaitForYellowStatus().execute().actionGet();
+            scan(index, type, QueryBuilders.filteredQuery(QueryBuilders.matchAllQuery(),
+                    FilterBuilders.termsFilter(Field.P, RDFSchema.PREDICATES)), sink);
+        }
+        if (content != null) {
+            InputStream in = UploadDecoder.decode(content, contentEncoding);
+            try {
+                parse(sink, in, lang, scope(content));
+            } finally {
+                in.close();
+            }
+        }
+        return builder.build();
+    }
+
+    private void parse(final ElasticsearchBulkClient bulkClient, BytesReference content, String contentEncoding,
+                       Lang lang, RDFSchema schema, final BulkTracker tracker) throws IOException {
+        logger.debug("parser starts, {} {} {}", lang, contentEncoding, content.length());
+        InputStream in = UploadDecoder.decode(content, contentEncoding);
+        try {
+            parse(bulkClient, in, lang, scope(content), schema != null && !schema.isEmpty() ? schema : null, tracker);
+        } finally {
+            in.close();
+        }
+    }
+
+    private void parse(final ElasticsearchBulkClient bulkClient, InputStream in, Lang lang, UUID scope,
+                       final RDFSchema schema, final BulkTracker tracker) {
+        final Set<Quad> recent = schema != null ? recent() : null;
+        parse(new StreamRDFBase() {
+            @Override
+            public void triple(Triple triple) {
+                index(bulkClient, triple, null, tracker);
+                if (schema != null) {
+                    infer(bulkClient, schema, triple, null, recent, tracker);
+                }
+            }
+
+            @Override
+            public void quad(Quad quad) {
+                Node context = quad.isDefaultGraph() ? null : quad.getGraph();
+                index(bulkClient, quad.asTriple(), context, tracker);
+                if (schema != null) {
+                    infer(bulkClient, schema, quad.asTriple(), context, recent, tracker);
+                }
+            }
+        }, in, lang, scope);
+    }
+
+    /**
+     * Parse RDF with blank node labels that are hashed from the labels in the content and a scope,
+     * instead of fresh labels, so that uploading the same content again yields the same triple IDs.
+     * Blank nodes of different scopes never share a label.
+     *
+     * @param sink the sink
+     * @param in the RDF content
+     * @param lang the RDF language of the content
+     * @param scope the scope of the blank node labels
+     */
+    static void parse(StreamRDF sink, InputStream in, Lang lang, UUID scope) {
+        ReaderRIOT reader = RDFDataMgr.createReader(lang);
+        ParserProfile profile = RiotLib.profile(lang, null);
+        profile.setLabelToNode(LabelToNode.createScopeByDocumentHash(scope));
+        reader.setParserProfile(profile);
+        reader.read(in, null, lang.getContentType(), sink, null);
+    }
+
+    /**
+     * The blank node scope of uploaded content is the hash of the content as uploaded.
+     *
+     * @param content the content
+     * @return the scope
+     */
+    static UUID scope(BytesReference content) {
+        BytesRef bytes = content.toBytesRef();
+        MurmurHash3.Hash128 hash = MurmurHash3.hash128(bytes.bytes, bytes.offset, bytes.length, 0L,
+                new MurmurHash3.Hash128());
+        return new UUID(hash.h1, hash.h2);
+    }
+
+    private void copy(String source, String type, final ElasticsearchBulkClient bulkClient,
+                      final BulkTracker tracker) {
+        scan(source, type, asserted(), new StreamRDFBase() {
+            @Override
+            public void quad(Quad quad) {
+                index(bulkClient, quad.asTriple(), quad.isDefaultGraph() ? null : quad.getGraph(), tracker);
+            }
+        });
+        scan(source, type, QueryBuilders.termQuery(Field.INFERRED, true), new StreamRDFBase() {
+            @Override
+            public void quad(Quad quad) {
+                create(bulkClient, quad.asTriple(), quad.isDefaultGraph() ? null : quad.getGraph(), tracker);
+            }
+        });
+    }
+
+    /**
+     * Scan the triples of an index that match a query, and send them as quads to a sink.
+     * Triples of the default graph are sent as quads of the default graph.
+     */
+    private void scan(String index, String type, QueryBuilder query, StreamRDF sink) {
+        TimeValue keepAlive = TimeValue.timeValueMinutes(1);
+        MetaData metaData = client.admin().cluster().prepareState().setMetaData(true)
+                .execute().actionGet().getState().metaData();
+        SearchRequestBuilder searchRequestBuilder = client.prepareSearch(index)
+                .setTypes(type)
+                .setSearchType(SearchType.SCAN)
+                .setScroll(keepAlive)
+                .setSize(1000)
+                .setQuery(query);
+        TripleMapping.addFields(TripleMapping.of(metaData, index), searchRequestBuilder,
+                Field.S, Field.P, Field.O, Field.C);
+        SearchResponse searchResponse = searchRequestBuilder.execute().actionGet();
+        try {
+            while (true) {
+                searchResponse = client.prepareSearchScroll(searchResponse.getScrollId())
+                        .setScroll(keepAlive)
+                        .execute().actionGet();
+                if (searchResponse.getHits().getHits().length == 0) {
+                    break;
+                }
+                for (SearchHit hit : searchResponse.getHits()) {
+                    String c = TripleMapping.value(hit, Field.C);
+                    sink.quad(Quad.create(c != null ? NTriples.asURI(c) : Quad.defaultGraphNodeGenerated,
+                            NTriples.asURIorBlankNode(TripleMapping.value(hit, Field.S)),
+                            NTriples.asURI(TripleMapping.value(hit, Field.P)),
+                            NTriples.asNode(TripleMapping.value(hit, Field.O))));
+                }
+            }
+        } finally {
+            if (searchResponse.getScrollId() != null) {
+                client.prepareClearScroll().addScrollId(searchResponse.getScrollId()).execute().actionGet();
+            }
+        }
+    }
+
+    /**
+     * Applies the changes of a patch, the transactions are resolved by {@link RDFPatch.Transactions}.
+     */
+    private class PatchHandler implements RDFPatch.Handler {
+
+        private final ElasticsearchBulkClient bulkClient;
+
+        private final Patch patch;
+
+        /**
+         * The IDs of the triples changed since the last barrier.
+         */
+        private final Set<String> inFlight = new HashSet<String>();
+
+        PatchHandler(ElasticsearchBulkClient bulkClient, Patch patch) {
+            this.bulkClient = bulkClient;
+            this.patch = patch;
+        }
+
+        @Override
+        public void begin() {
+        }
+
+        @Override
+        public void commit() {
+            patch.committed();
+        }
+
+        @Override
+        public void abort() {
+            patch.aborted();
+        }
+
+        @Override
+        public void add(Triple triple, Node context) {
+            stats.parsed(1L);
+            try {
+                TripleDocument document = TripleDocument.of(triple, context);
+                apply(document.id(), document);
+            } catch (IOException e) {
+                throw new ElasticsearchException(e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public void delete(Triple triple, Node context) {
+            stats.parsed(1L);
+            TripleDocument document = TripleDocument.deletion(triple, context);
+            apply(document.id(), document);
+        }
+
+        private void apply(String id, TripleDocument document) {
+            if (inFlight.contains(id) || inFlight.size() >= bulkActions * 10) {
+                bulkClient.flush();
+                try {
+                    await(patch.getTracker());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new ElasticsearchException("interrupted", e);
+                }
+                inFlight.clear();
+                patch.barrier();
+            }
+            inFlight.add(id);
+            if (document.source() != null) {
+                bulkClient.index(document, patch.getTracker());
+                patch.added(1L);
+            } else {
+                bulkClient.delete(document, patch.getTracker());
+                patch.deleted(1L);
+            }
+        }
+    }
+
+    private void await(BulkTracker tracker) throws InterruptedException {
+        if (!tracker.await(timeout)) {
+            throw new ElasticsearchTimeoutException("upload not completed within " + timeout
+                    + ", " + tracker.getPending() + " triples pending");
+        }
+    }
+
+    /**
+     * The query for asserted triples, which also matches triples of indices that never had inferred triples.
+     */
+    static QueryBuilder asserted() {
+        return QueryBuilders.filteredQuery(QueryBuilders.matchAllQuery(),
+                FilterBuilders.notFilter(FilterBuilders.termFilter(Field.INFERRED, true)));
+    }
+
+    /**
+     * A bounded set of the most recently inferred triples of an upload. Many triples entail the same
+     * triple, for example all properties with the same domain of a resource, and each duplicate
+     * that is caught here saves an indexing request.
+     */
+    private static Set<Quad> recent() {
+        return Collections.newSetFromMap(new LinkedHashMap<Quad, Boolean>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Quad, Boolean> eldest) {
+                return size() > 10000;
+            }
+        });
+    }
+
+    private void infer(ElasticsearchBulkClient bulkClient, RDFSchema schema, Triple triple, Node context,
+                       Set<Quad> recent, BulkTracker tracker) {
+        long n = 0L;
+        for (Triple inferred : schema.infer(triple)) {
+            if (recent.add(new Quad(context != null ? context : Quad.defaultGraphNodeGenerated, inferred))) {
+                create(bulkClient, inferred, context, tracker);
+                n++;
+            }
+        }
+        stats.inferred(n);
+    }
+
+    private void create(ElasticsearchBulkClient bulkClient, Triple triple, Node context, BulkTracker tracker) {
+        try {
+            bulkClient.create(TripleDocument.of(triple, context, true), tracker);
+        } catch (IOException e) {
+            throw new ElasticsearchException(e.getMessage(), e);
+        }
+    }
+
+    private void index(ElasticsearchBulkClient bulkClient, Triple triple, Node context, BulkTracker tracker) {
+        stats.parsed(1L);
+        try {
+            bulkClient.index(TripleDocument.of(triple, context), tracker);
+        } catch (IOException e) {
+            throw new ElasticsearchException(e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+/**
+ *    Copyright 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.module.rdf.jena;
+
+import org.elasticsearch.common.inject.AbstractModule;
+
+public class JenaModule extends AbstractModule {
+
+    @Override
+    protected void configure() {
+        bind(NodeCache.class).asEagerSingleton();
+        bind(QueryCache.class).asEagerSingleton();
+        bind(ResultCache.class).asEagerSingleton();
+        bind(PathCache.class).asEagerSingleton();
+        bind(QueryAdmission.class).asEagerSingleton();
+        bind(JenaStatsService.class).asEagerSingleton();
+        bind(JenaIngestService.class).asEagerSingleton();
+    }
+}
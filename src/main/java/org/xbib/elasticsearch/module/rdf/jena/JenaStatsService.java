@@ -0,0 +1,261 @@
+/**
+ *    Copyright 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.module.rdf.jena;
+
+import com.hp.hpl.jena.query.Query;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.common.component.AbstractLifecycleComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.metrics.CounterMetric;
+import org.elasticsearch.common.metrics.MeterMetric;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.threadpool.ThreadPool;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Node level counters for the ingest and query paths of the plugin.
+ */
+public class JenaStatsService extends AbstractLifecycleComponent<JenaStatsService> implements ToXContent {
+
+    private final NodeCache nodeCache;
+
+    private final QueryCache queryCache;
+
+    private final ResultCache resultCache;
+
+    private final PathCache pathCache;
+
+    private final QueryAdmission admission;
+
+    private final MeterMetric parsed;
+
+    private final MeterMetric indexed;
+
+    private final CounterMetric failed = new CounterMetric();
+
+    private final CounterMetric rejected = new CounterMetric();
+
+    private final CounterMetric bulkRequests = new CounterMetric();
+
+    private final CounterMetric patchAdds = new CounterMetric();
+
+    private final CounterMetric patchDeletes = new CounterMetric();
+
+    private final CounterMetric inferred = new CounterMetric();
+
+    private final LatencyHistogram bulkLatency = new LatencyHistogram();
+
+    private final CounterMetric selectQueries = new CounterMetric();
+
+    private final CounterMetric askQueries = new CounterMetric();
+
+    private final CounterMetric constructQueries = new CounterMetric();
+
+    private final CounterMetric describeQueries = new CounterMetric();
+
+    private final CounterMetric failedQueries = new CounterMetric();
+
+    private final LatencyHistogram queryLatency = new LatencyHistogram();
+
+    private final CounterMetric searches = new CounterMetric();
+
+    private final CounterMetric scrollPages = new CounterMetric();
+
+    private final CounterMetric hits = new CounterMetric();
+
+    private final CounterMetric activeScrolls = new CounterMetric();
+
+    @Inject
+    public JenaStatsService(Settings settings, ThreadPool threadPool, NodeCache nodeCache, QueryCache queryCache,
+                            ResultCache resultCache, PathCache pathCache, QueryAdmission admission) {
+        super(settings);
+        this.nodeCache = nodeCache;
+        this.queryCache = queryCache;
+        this.resultCache = resultCache;
+        this.pathCache = pathCache;
+        this.admission = admission;
+        this.parsed = new MeterMetric(threadPool.scheduler(), TimeUnit.SECONDS);
+        this.indexed = new MeterMetric(threadPool.scheduler(), TimeUnit.SECONDS);
+    }
+
+    @Override
+    protected void doStart() throws ElasticsearchException {
+    }
+
+    @Override
+    protected void doStop() throws ElasticsearchException {
+    }
+
+    @Override
+    protected void doClose() throws ElasticsearchException {
+        parsed.stop();
+        indexed.stop();
+    }
+
+    public void parsed(long n) {
+        parsed.mark(n);
+    }
+
+    public void bulk(long indexedItems, long failedItems, long rejectedItems, long tookInNanos) {
+        bulkRequests.inc();
+        indexed.mark(indexedItems);
+        failed.inc(failedItems);
+        rejected.inc(rejectedItems);
+        bulkLatency.record(tookInNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void inferred(long n) {
+        inferred.inc(n);
+    }
+
+    public void patched(long adds, long deletes) {
+        patchAdds.inc(adds);
+        patchDeletes.inc(deletes);
+    }
+
+    public void query(int queryType, long tookInNanos) {
+        switch (queryType) {
+            case Query.QueryTypeSelect:
+                selectQueries.inc();
+                break;
+            case Query.QueryTypeAsk:
+                askQueries.inc();
+                break;
+            case Query.QueryTypeConstruct:
+                constructQueries.inc();
+                break;
+            case Query.QueryTypeDescribe:
+                describeQueries.inc();
+                break;
+        }
+        queryLatency.record(tookInNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void queryFailed() {
+        failedQueries.inc();
+    }
+
+    public void search(long hitCount) {
+        searches.inc();
+        hits.inc(hitCount);
+    }
+
+    public void scrollPage(long hitCount) {
+        scrollPages.inc();
+        hits.inc(hitCount);
+    }
+
+    public void scrollOpened() {
+        activeScrolls.inc();
+    }
+
+    public void scrollClosed() {
+        activeScrolls.dec();
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject("ingest")
+                .field("parsed", parsed.count())
+                .startObject("parsed_per_second")
+                .field("mean", parsed.meanRate())
+                .field("1m", parsed.oneMinuteRate())
+                .field("5m", parsed.fiveMinuteRate())
+                .endObject()
+                .field("indexed", indexed.count())
+                .startObject("indexed_per_second")
+                .field("mean", indexed.meanRate())
+                .field("1m", indexed.oneMinuteRate())
+                .field("5m", indexed.fiveMinuteRate())
+                .endObject()
+                .field("failed", failed.count())
+                .field("rejected", rejected.count())
+                .field("inferred", inferred.count())
+                .field("patch_adds", patchAdds.count())
+                .field("patch_deletes", patchDeletes.count())
+                .field("bulk_requests", bulkRequests.count())
+                .field("bulk_latency");
+        bulkLatency.toXContent(builder, params);
+        builder.endObject();
+        builder.startObject("query")
+                .field("select", selectQueries.count())
+                .field("ask", askQueries.count())
+                .field("construct", constructQueries.count())
+                .field("describe", describeQueries.count())
+                .field("failed", failedQueries.count())
+                .field("latency");
+        queryLatency.toXContent(builder, params);
+        builder.field("searches", searches.count())
+                .field("scroll_pages", scrollPages.count())
+                .field("hits", hits.count())
+                .field("active_scrolls", activeScrolls.count())
+                .endObject();
+        long nodeCacheHits = nodeCache.hits();
+        long nodeCacheMisses = nodeCache.misses();
+        builder.startObject("node_cache")
+                .field("size", nodeCache.size())
+                .field("hits", nodeCacheHits)
+                .field("misses", nodeCacheMisses)
+                .field("hit_rate", nodeCacheHits + nodeCacheMisses > 0 ?
+                        (double) nodeCacheHits / (nodeCacheHits + nodeCacheMisses) : 0.0)
+                .endObject();
+        long queryCacheHits = queryCache.hits();
+        long queryCacheMisses = queryCache.misses();
+        builder.startObject("query_cache")
+                .field("size", queryCache.size())
+                .field("hits", queryCacheHits)
+                .field("misses", queryCacheMisses)
+                .field("hit_rate", queryCacheHits + queryCacheMisses > 0 ?
+                        (double) queryCacheHits / (queryCacheHits + queryCacheMisses) : 0.0)
+                .endObject();
+        long resultCacheHits = resultCache.hits();
+        long resultCacheMisses = resultCache.misses();
+        builder.startObject("result_cache")
+                .field("enabled", resultCache.isEnabled())
+                .field("size", resultCache.size())
+                .field("hits", resultCacheHits)
+                .field("misses", resultCacheMisses)
+                .field("hit_rate", resultCacheHits + resultCacheMisses > 0 ?
+                        (double) resultCacheHits / (resultCacheHits + resultCacheMisses) : 0.0)
+                .field("invalidations", resultCache.invalidations())
+                .endObject();
+        long pathCacheHits = pathCache.hits();
+        long pathCacheMisses = pathCache.misses();
+        builder.startObject("path_cache")
+                .field("enabled", pathCache.isEnabled())
+                .field("size", pathCache.size())
+                .field("hits", pathCacheHits)
+                .field("misses", pathCacheMisses)
+                .field("hit_rate", pathCacheHits + pathCacheMisses > 0 ?
+                        (double) pathCacheHits / (pathCacheHits + pathCacheMisses) : 0.0)
+                .endObject();
+        builder.startObject("admission")
+                .field("enabled", admission.isEnabled())
+                .field("admitted", admission.admitted())
+                .field("queued", admission.queued())
+                .field("rejected", admission.rejected())
+                .startObject("running");
+        for (QueryCost.CostClass costClass : QueryCost.CostClass.values()) {
+            builder.field(costClass.name().toLowerCase(), admission.running(costClass));
+        }
+        builder.endObject().endObject();
+        return builder;
+    }
+}
@@ -0,0 +1,114 @@
+/**
+ *    Copyright 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.module.rdf.jena;
+
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock free latency histogram with power of two buckets in microseconds.
+ *
+ * Percentiles are reported as the upper bound of the bucket they fall into, capped by the
+ * maximum recorded value, so they are accurate within a factor of two.
+ */
+public class LatencyHistogram implements ToXContent {
+
+    private final static int BUCKETS = 32;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    private final AtomicLong sum = new AtomicLong();
+
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long duration, TimeUnit unit) {
+        long micros = unit.toMicros(duration);
+        int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        counts.incrementAndGet(bucket);
+        sum.addAndGet(micros);
+        long m = max.get();
+        while (micros > m && !max.compareAndSet(m, micros)) {
+            m = max.get();
+        }
+    }
+
+    public long count() {
+        long count = 0L;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * Return the percentile in milliseconds.
+     *
+     * @param percentile the percentile between 0 and 100
+     * @return the upper bound of the bucket of the percentile, in milliseconds
+     */
+    public double percentile(double percentile) {
+        long[] snapshot = new long[BUCKETS];
+        long count = 0L;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+        if (count == 0L) {
+            return 0.0;
+        }
+        long rank = (long) Math.ceil(percentile / 100.0 * count);
+        long seen = 0L;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max.get()) / 1000.0;
+            }
+        }
+        return max.get() / 1000.0;
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        long count = count();
+        builder.startObject();
+        builder.field("count", count);
+        builder.field("mean_ms", count > 0 ? sum.get() / 1000.0 / count : 0.0);
+        builder.field("max_ms", max.get() / 1000.0);
+        builder.field("p50_ms", percentile(50));
+        builder.field("p90_ms", percentile(90));
+        builder.field("p99_ms", percentile(99));
+        builder.field("p999_ms", percentile(99.9));
+        builder.startObject("buckets");
+        for (int i = 0; i < BUCKETS; i++) {
+            long c = counts.get(i);
+            if (c > 0) {
+                builder.field("le_" + (upperBound(i) / 1000.0) + "_ms", c);
+            }
+        }
+        builder.endObject();
+        builder.endObject();
+        return builder;
+    }
+
+    private static long upperBound(int bucket) {
+        return 1L << bucket;
+    }
+}
@@ -88,6 +88,25 @@ public class NTriples {
         throw new IllegalArgumentException(literal);
     }
 
+    /**
+     * Return the N-Triples syntax of a term in the form it is indexed in. Indexed literals have
+     * the datatype IRI without angle brackets, which is added here.
+     *
+     * @param nt the indexed term
+     * @return the term in N-Triples syntax
+     */
+    public static String asNTriplesSyntax(String nt) {
+        if (nt.startsWith(START_LITERAL_CHAR)) {
+            int endIndexOfValue = endIndexOfValue(nt);
+            if (endIndexOfValue != -1 && nt.startsWith(DATATYPE_MARKER, endIndexOfValue + 1)
+                    && !nt.startsWith("<", endIndexOfValue + 1 + DATATYPE_MARKER.length())) {
+                int start = endIndexOfValue + 1 + DATATYPE_MARKER.length();
+                return nt.substring(0, start) + "<" + nt.substring(start) + ">";
+            }
+        }
+        return nt;
+    }
+
     private static int endIndexOfValue(String literalValue) {
         boolean previousWasBackslash = false;
         for (int i = 1; i < literalValue.length(); i++) {
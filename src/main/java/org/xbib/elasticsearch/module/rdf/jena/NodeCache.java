@@ -0,0 +1,95 @@
+/**
+ *    Copyright 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.module.rdf.jena;
+
+import com.hp.hpl.jena.graph.Node;
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.jsr166e.LongAdder;
+
+/**
+ * Node level cache for decoding N-Triples terms read from the index into Jena nodes.
+ *
+ * Predicates, types and frequent subjects repeat in almost every hit, so decoding them
+ * once saves unescaping and node creation on the read path.
+ */
+public class NodeCache {
+
+    private final Cache<String, Node> cache;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    @Inject
+    public NodeCache(Settings settings) {
+        this(settings.getAsInt("jena.node_cache.size", 100000));
+    }
+
+    public NodeCache(int size) {
+        this.cache = CacheBuilder.newBuilder().maximumSize(size).build();
+    }
+
+    public Node asNode(String nt) {
+        Node node = cache.getIfPresent(nt);
+        if (node == null) {
+            misses.increment();
+            node = NTriples.asNode(nt);
+            cache.put(nt, node);
+        } else {
+            hits.increment();
+        }
+        return node;
+    }
+
+    public Node asURIorBlankNode(String nt) {
+        Node node = cache.getIfPresent(nt);
+        if (node == null) {
+            misses.increment();
+            node = NTriples.asURIorBlankNode(nt);
+            cache.put(nt, node);
+        } else {
+            hits.increment();
+        }
+        return node;
+    }
+
+    public Node asURI(String nt) {
+        Node node = cache.getIfPresent(nt);
+        if (node == null) {
+            misses.increment();
+            node = NTriples.asURI(nt);
+            cache.put(nt, node);
+        } else {
+            hits.increment();
+        }
+        return node;
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+}
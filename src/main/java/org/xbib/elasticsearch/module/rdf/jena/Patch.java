@@ -0,0 +1,100 @@
+/**
+ *    Copyright 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.module.rdf.jena;
+
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The state of an RDF Patch that is applied to an index.
+ */
+public class Patch implements ToXContent {
+
+    private final BulkTracker tracker = new BulkTracker();
+
+    private long adds;
+
+    private long deletes;
+
+    private long committed;
+
+    private long aborted;
+
+    private long barriers;
+
+    private long tookInNanos;
+
+    public BulkTracker getTracker() {
+        return tracker;
+    }
+
+    public synchronized void added(long n) {
+        adds += n;
+    }
+
+    public synchronized void deleted(long n) {
+        deletes += n;
+    }
+
+    public synchronized void committed() {
+        committed++;
+    }
+
+    public synchronized void aborted() {
+        aborted++;
+    }
+
+    /**
+     * Count a wait for the requests in flight, because a row changes a triple that is changed by
+     * a request in flight.
+     */
+    public synchronized void barrier() {
+        barriers++;
+    }
+
+    public synchronized void setTookInNanos(long tookInNanos) {
+        this.tookInNanos = tookInNanos;
+    }
+
+    public synchronized long getAdds() {
+        return adds;
+    }
+
+    public synchronized long getDeletes() {
+        return deletes;
+    }
+
+    @Override
+    public synchronized XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        long millis = TimeUnit.NANOSECONDS.toMillis(tookInNanos);
+        builder.startObject()
+                .field("added", adds)
+                .field("deleted", deletes)
+                .field("committed", committed)
+                .field("aborted", aborted)
+                .field("barriers", barriers)
+                .field("succeeded", tracker.getSucceeded())
+                .field("failed", tracker.getFailed())
+                .field("retries", tracker.getRetries())
+                .field("took_ms", millis)
+                .field("per_second", millis > 0 ? (adds + deletes) * 1000.0 / millis : 0.0)
+                .endObject();
+        return builder;
+    }
+}
@@ -0,0 +1,141 @@
+/**
+ *    Copyright 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.module.rdf.jena;
+
+import com.hp.hpl.jena.graph.Node;
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.common.cache.Weigher;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.jsr166e.LongAdder;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Optional node level cache of transitive closures computed by property path evaluation, bounded by
+ * the number of cached nodes.
+ *
+ * Class and concept hierarchies rarely change, but they are walked by almost every query
+ * that uses them. The cache follows the generation of the {@link ResultCache}, which is maintained
+ * even if the result cache is disabled: a closure is only returned if no write went through the plugin
+ * on this node and the cluster metadata did not change since it was computed, and it is bypassed while
+ * an upload is running. Writes through other nodes or directly to Elasticsearch are not seen until the
+ * closures expire, so the cache is disabled unless a size is set.
+ */
+public class PathCache {
+
+    private final Cache<String, Closure> cache;
+
+    private final ResultCache resultCache;
+
+    private final boolean enabled;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    @Inject
+    public PathCache(Settings settings, ResultCache resultCache) {
+        this(settings.getAsInt("jena.path_cache.size", 0),
+                settings.getAsTime("jena.path_cache.expire", TimeValue.timeValueMinutes(10)), resultCache);
+    }
+
+    public PathCache(int size, TimeValue expire, ResultCache resultCache) {
+        this.resultCache = resultCache;
+        this.enabled = size > 0;
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(Math.max(1, size))
+                .weigher(new Weigher<String, Closure>() {
+                    @Override
+                    public int weigh(String key, Closure closure) {
+                        return 1 + closure.nodes.size();
+                    }
+                })
+                .expireAfterWrite(expire.millis(), TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Return the generation that must be passed to {@link #put} for a closure that is computed now.
+     *
+     * @return the current generation
+     */
+    public long generation() {
+        return resultCache.generation();
+    }
+
+    public Set<Node> get(String key) {
+        if (!enabled || resultCache.isWriting()) {
+            return null;
+        }
+        Closure closure = cache.getIfPresent(key);
+        if (closure == null || closure.generation != resultCache.generation()) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return closure.nodes;
+    }
+
+    public void put(String key, long generation, Set<Node> nodes) {
+        if (enabled && !resultCache.isWriting() && resultCache.generation() == generation) {
+            cache.put(key, new Closure(generation, nodes));
+        }
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public static String key(String index, String type, Node graph, Node predicate, boolean forward,
+                             boolean reflexive, Node start) {
+        return new StringBuilder()
+                .append(index).append('\u0000')
+                .append(type).append('\u0000')
+                .append(graph != null ? NTriples.asNt(graph) : "").append('\u0000')
+                .append(NTriples.asNt(predicate)).append('\u0000')
+                .append(forward ? '>' : '<').append(reflexive ? '*' : '+').append('\u0000')
+                .append(NTriples.asNt(start))
+                .toString();
+    }
+
+    private static class Closure {
+
+        private final long generation;
+
+        private final Set<Node> nodes;
+
+        Closure(long generation, Set<Node> nodes) {
+            this.generation = generation;
+            this.nodes = nodes;
+        }
+    }
+}
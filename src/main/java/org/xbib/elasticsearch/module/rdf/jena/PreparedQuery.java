@@ -0,0 +1,204 @@
+/**
+ *    Copyright 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.module.rdf.jena;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.query.Dataset;
+import com.hp.hpl.jena.query.Query;
+import com.hp.hpl.jena.query.QueryExecution;
+import com.hp.hpl.jena.query.QuerySolutionMap;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.sparql.algebra.Algebra;
+import com.hp.hpl.jena.sparql.algebra.Op;
+import com.hp.hpl.jena.sparql.algebra.op.OpBGP;
+import com.hp.hpl.jena.sparql.core.DatasetGraph;
+import com.hp.hpl.jena.sparql.core.Substitute;
+import com.hp.hpl.jena.sparql.core.Var;
+import com.hp.hpl.jena.sparql.engine.Plan;
+import com.hp.hpl.jena.sparql.engine.QueryEngineFactory;
+import com.hp.hpl.jena.sparql.engine.QueryExecutionBase;
+import com.hp.hpl.jena.sparql.engine.binding.Binding;
+import com.hp.hpl.jena.sparql.engine.binding.BindingFactory;
+import com.hp.hpl.jena.sparql.engine.binding.BindingMap;
+import com.hp.hpl.jena.sparql.engine.main.QC;
+import com.hp.hpl.jena.sparql.engine.main.QueryEngineMain;
+import com.hp.hpl.jena.sparql.util.Context;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A parsed SPARQL query with its optimized algebra, which can be executed many times
+ * against different datasets and with different initial bindings.
+ */
+public class PreparedQuery {
+
+    private final Query query;
+
+    private final Op op;
+
+    private final QueryEngineFactory engineFactory;
+
+    private final Triple askPattern;
+
+    private final DistinctPattern distinctPattern;
+
+    public PreparedQuery(Query query) {
+        this.query = query;
+        // result vars are computed lazily, do it once before the query is shared
+        query.setResultVars();
+        this.op = Algebra.optimize(Algebra.compile(query));
+        this.engineFactory = new PreparedQueryEngineFactory(op);
+        this.askPattern = query.isAskType() && op instanceof OpBGP
+                && ((OpBGP) op).getPattern().size() == 1 ? ((OpBGP) op).getPattern().get(0) : null;
+        this.distinctPattern = query.isSelectType() ? DistinctPattern.of(op) : null;
+    }
+
+    public Query getQuery() {
+        return query;
+    }
+
+    public Op getOp() {
+        return op;
+    }
+
+    /**
+     * Return the algebra with initial bindings substituted for their variables.
+     *
+     * @param bindings initial bindings of variables, by variable name without $ or ?, or null
+     * @return the algebra
+     */
+    public Op getOp(Map<String, Node> bindings) {
+        if (bindings == null || bindings.isEmpty()) {
+            return op;
+        }
+        BindingMap binding = BindingFactory.create();
+        for (Map.Entry<String, Node> entry : bindings.entrySet()) {
+            binding.add(Var.alloc(entry.getKey()), entry.getValue());
+        }
+        return Substitute.substitute(op, binding);
+    }
+
+    /**
+     * Return the distinct pattern of a SELECT query that can be answered by a terms aggregation.
+     *
+     * @return the distinct pattern, or null
+     */
+    public DistinctPattern getDistinctPattern() {
+        return distinctPattern;
+    }
+
+    /**
+     * Return the pattern of an ASK query that consists of a single triple pattern, so that it can be
+     * answered by an existence check. Variables are replaced by their bindings, or by wildcards.
+     *
+     * @param bindings initial bindings of variables, or null
+     * @return the pattern, or null if the query is not a single pattern ASK query, or if an unbound
+     * variable occurs more than once in the pattern
+     */
+    public Triple askPattern(Map<String, Node> bindings) {
+        if (askPattern == null) {
+            return null;
+        }
+        Set<Var> vars = new HashSet<Var>();
+        Node[] nodes = new Node[]{askPattern.getSubject(), askPattern.getPredicate(), askPattern.getObject()};
+        for (int i = 0; i < nodes.length; i++) {
+            if (nodes[i].isVariable()) {
+                Node value = bindings != null ? bindings.get(nodes[i].getName()) : null;
+                if (value != null) {
+                    nodes[i] = value;
+                } else if (vars.add(Var.alloc(nodes[i]))) {
+                    nodes[i] = Node.ANY;
+                } else {
+                    return null;
+                }
+            }
+        }
+        return Triple.create(nodes[0], nodes[1], nodes[2]);
+    }
+
+    /**
+     * Create an execution of this query.
+     *
+     * @param dataset the dataset to query
+     * @param bindings initial bindings of variables, by variable name without $ or ?, or null
+     * @return the query execution
+     */
+    public QueryExecution execution(Dataset dataset, Map<String, Node> bindings) {
+        QueryExecution execution = new QueryExecutionBase(query, dataset, null, engineFactory);
+        QC.setFactory(execution.getContext(), ElasticsearchOpExecutor.factory);
+        if (bindings != null && !bindings.isEmpty()) {
+            Model model = ModelFactory.createDefaultModel();
+            QuerySolutionMap initialBinding = new QuerySolutionMap();
+            for (Map.Entry<String, Node> binding : bindings.entrySet()) {
+                initialBinding.add(binding.getKey(), model.asRDFNode(binding.getValue()));
+            }
+            execution.setInitialBinding(initialBinding);
+        }
+        return execution;
+    }
+
+    /**
+     * Creates query engines that evaluate the prepared algebra instead of compiling the query again.
+     */
+    static class PreparedQueryEngineFactory implements QueryEngineFactory {
+
+        private final Op op;
+
+        PreparedQueryEngineFactory(Op op) {
+            this.op = op;
+        }
+
+        @Override
+        public boolean accept(Query query, DatasetGraph dataset, Context context) {
+            return true;
+        }
+
+        @Override
+        public Plan create(Query query, DatasetGraph dataset, Binding inputBinding, Context context) {
+            return new PreparedQueryEngine(op, dataset, inputBinding, context).getPlan();
+        }
+
+        @Override
+        public boolean accept(Op op, DatasetGraph dataset, Context context) {
+            return true;
+        }
+
+        @Override
+        public Plan create(Op op, DatasetGraph dataset, Binding inputBinding, Context context) {
+            return new PreparedQueryEngine(op, dataset, inputBinding, context).getPlan();
+        }
+    }
+
+    /**
+     * The main query engine, without optimizing the algebra again. Initial bindings are
+     * substituted into the already optimized algebra.
+     */
+    static class PreparedQueryEngine extends QueryEngineMain {
+
+        PreparedQueryEngine(Op op, DatasetGraph dataset, Binding input, Context context) {
+            super(op, dataset, input, context);
+        }
+
+        @Override
+        protected Op modifyOp(Op op) {
+            return op;
+        }
+    }
+}
@@ -0,0 +1,249 @@
+/**
+ *    Copyright 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.module.rdf.jena;
+
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.ElasticsearchIllegalArgumentException;
+import org.elasticsearch.common.component.AbstractLifecycleComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.common.util.concurrent.EsThreadPoolExecutor;
+import org.elasticsearch.common.util.concurrent.jsr166e.LongAdder;
+import org.elasticsearch.threadpool.ThreadPool;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Node level admission control of SPARQL queries by their estimated {@link QueryCost}.
+ *
+ * A query whose cost exceeds the maximum cost, globally or for its index, is rejected before it runs.
+ * Other queries are sorted into cost classes, each with its own fixed pool of query threads, so that
+ * a few expensive queries can not starve the cheap ones. A query waits in the queue of its class
+ * for a free thread up to the queue timeout, and is rejected after that. Waiting queries do not
+ * hold a thread, so the HTTP workers are never blocked by admission.
+ */
+public class QueryAdmission extends AbstractLifecycleComponent<QueryAdmission> {
+
+    private final ThreadPool threadPool;
+
+    private final boolean enabled;
+
+    private final long maxCost;
+
+    private final Map<String, Long> indexMaxCost;
+
+    private final long cheapCost;
+
+    private final long expensiveCost;
+
+    private final TimeValue queueTimeout;
+
+    private final int queueSize;
+
+    private final Map<QueryCost.CostClass, Integer> concurrency =
+            new EnumMap<QueryCost.CostClass, Integer>(QueryCost.CostClass.class);
+
+    private final Map<QueryCost.CostClass, EsThreadPoolExecutor> executors =
+            new EnumMap<QueryCost.CostClass, EsThreadPoolExecutor>(QueryCost.CostClass.class);
+
+    private final LongAdder admitted = new LongAdder();
+
+    private final LongAdder queued = new LongAdder();
+
+    private final LongAdder rejected = new LongAdder();
+
+    @Inject
+    public QueryAdmission(Settings settings, ThreadPool threadPool) {
+        super(settings);
+        this.threadPool = threadPool;
+        this.enabled = settings.getAsBoolean("jena.admission.enabled", false);
+        this.maxCost = settings.getAsLong("jena.admission.max_cost", 1000000L);
+        this.indexMaxCost = new HashMap<String, Long>();
+        for (Map.Entry<String, Settings> entry : settings.getGroups("jena.admission.index").entrySet()) {
+            Long cost = entry.getValue().getAsLong("max_cost", null);
+            if (cost != null) {
+                indexMaxCost.put(entry.getKey(), cost);
+            }
+        }
+        this.cheapCost = settings.getAsLong("jena.admission.cheap_cost", 1000L);
+        this.expensiveCost = settings.getAsLong("jena.admission.expensive_cost", 100000L);
+        this.queueTimeout = settings.getAsTime("jena.admission.queue_timeout", TimeValue.timeValueSeconds(10));
+        this.queueSize = settings.getAsInt("jena.admission.queue_size", 1000);
+        int processors = Runtime.getRuntime().availableProcessors();
+        concurrency.put(QueryCost.CostClass.CHEAP,
+                settings.getAsInt("jena.admission.concurrency.cheap", 4 * processors));
+        concurrency.put(QueryCost.CostClass.MEDIUM,
+                settings.getAsInt("jena.admission.concurrency.medium", processors));
+        concurrency.put(QueryCost.CostClass.EXPENSIVE,
+                settings.getAsInt("jena.admission.concurrency.expensive", 1));
+    }
+
+    @Override
+    protected void doStart() throws ElasticsearchException {
+        if (!enabled) {
+            return;
+        }
+        for (Map.Entry<QueryCost.CostClass, Integer> entry : concurrency.entrySet()) {
+            executors.put(entry.getKey(), EsExecutors.newFixed(entry.getValue(), queueSize,
+                    EsExecutors.daemonThreadFactory(settings, "jena_query_" + entry.getKey().name().toLowerCase())));
+        }
+    }
+
+    @Override
+    protected void doStop() throws ElasticsearchException {
+        for (EsThreadPoolExecutor executor : executors.values()) {
+            executor.shutdown();
+        }
+        for (EsThreadPoolExecutor executor : executors.values()) {
+            try {
+                executor.awaitTermination(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        executors.clear();
+    }
+
+    @Override
+    protected void doClose() throws ElasticsearchException {
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Return the maximum cost of a query on an index.
+     *
+     * @param index the index or alias name
+     * @return the maximum cost
+     */
+    public long maxCost(String index) {
+        Long cost = index != null ? indexMaxCost.get(index) : null;
+        return cost != null ? cost : maxCost;
+    }
+
+    /**
+     * Execute a query on a thread of its cost class, after waiting in the queue of the class if necessary.
+     * The caller returns immediately, the query responds from the query thread.
+     *
+     * @param index the index or alias name
+     * @param cost the estimated cost of the query
+     * @param query the query, {@link Task#onRejection} is called if it is not run within the queue timeout
+     * @throws ElasticsearchIllegalArgumentException if the cost exceeds the maximum cost
+     * @throws EsRejectedExecutionException if the queue of the cost class is full
+     */
+    public void execute(String index, QueryCost cost, final Task query) {
+        long max = maxCost(index);
+        if (cost.getCost() > max) {
+            rejected.increment();
+            throw new ElasticsearchIllegalArgumentException("estimated query cost " + cost.getCost()
+                    + " exceeds maximum cost " + max + " of [" + index + "]");
+        }
+        final QueryCost.CostClass costClass = cost.costClass(cheapCost, expensiveCost);
+        final EsThreadPoolExecutor executor = executors.get(costClass);
+        if (executor == null) {
+            rejected.increment();
+            throw new EsRejectedExecutionException("admission is stopped");
+        }
+        final Admitted admittedQuery = new Admitted(query);
+        if (executor.getActiveCount() >= concurrency.get(costClass)) {
+            queued.increment();
+        }
+        try {
+            executor.execute(admittedQuery);
+        } catch (EsRejectedExecutionException e) {
+            rejected.increment();
+            throw new EsRejectedExecutionException("queue of " + costClass.name().toLowerCase()
+                    + " queries is full");
+        }
+        admittedQuery.timeout = threadPool.schedule(queueTimeout, ThreadPool.Names.GENERIC, new Runnable() {
+            @Override
+            public void run() {
+                // a query that got its thread already can no longer be removed
+                if (executor.remove(admittedQuery)) {
+                    rejected.increment();
+                    query.onRejection(new EsRejectedExecutionException("no slot for "
+                            + costClass.name().toLowerCase() + " query within " + queueTimeout));
+                }
+            }
+        });
+    }
+
+    public long admitted() {
+        return admitted.sum();
+    }
+
+    public long queued() {
+        return queued.sum();
+    }
+
+    public long rejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * Return the number of running queries of a cost class.
+     *
+     * @param costClass the cost class
+     * @return the number of admitted queries that are not finished yet
+     */
+    public int running(QueryCost.CostClass costClass) {
+        EsThreadPoolExecutor executor = executors.get(costClass);
+        return executor != null ? executor.getActiveCount() : 0;
+    }
+
+    /**
+     * A query waiting for admission.
+     */
+    public interface Task extends Runnable {
+
+        /**
+         * Called instead of {@link #run} if the query waited longer than the queue timeout.
+         *
+         * @param e the rejection
+         */
+        void onRejection(Exception e);
+    }
+
+    private class Admitted implements Runnable {
+
+        private final Task query;
+
+        private volatile ScheduledFuture<?> timeout;
+
+        Admitted(Task query) {
+            this.query = query;
+        }
+
+        @Override
+        public void run() {
+            ScheduledFuture<?> timeout = this.timeout;
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+            admitted.increment();
+            query.run();
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/**
+ *    Copyright 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.module.rdf.jena;
+
+import com.hp.hpl.jena.query.QueryFactory;
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.jsr166e.LongAdder;
+
+/**
+ * Node level cache of parsed queries and their optimized algebra, keyed by the normalized query text.
+ *
+ * Applications send the same query templates over and over, with constants either inlined
+ * or passed as initial bindings, so parsing and optimizing is done once per template.
+ */
+public class QueryCache {
+
+    private final Cache<String, PreparedQuery> cache;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    @Inject
+    public QueryCache(Settings settings) {
+        this(settings.getAsInt("jena.query_cache.size", 1000));
+    }
+
+    public QueryCache(int size) {
+        this.cache = CacheBuilder.newBuilder().maximumSize(size).build();
+    }
+
+    /**
+     * Return the prepared query for a query text, parsing and optimizing it on a cache miss.
+     *
+     * @param text the SPARQL query
+     * @return the prepared query
+     */
+    public PreparedQuery prepare(String text) {
+        String key = normalize(text);
+        PreparedQuery preparedQuery = cache.getIfPresent(key);
+        if (preparedQuery == null) {
+            misses.increment();
+            preparedQuery = new PreparedQuery(QueryFactory.create(text));
+            cache.put(key, preparedQuery);
+        } else {
+            hits.increment();
+        }
+        return preparedQuery;
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * Trim the query, drop comments, and collapse white space outside of IRIs and string literals
+     * into single blanks. A comment separates tokens like white space.
+     *
+     * @param text the query
+     * @return the normalized query
+     */
+    public static String normalize(String text) {
+        StringBuilder sb = new StringBuilder(text.length());
+        boolean space = false;
+        int i = 0;
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            if (c == '#') {
+                while (i < text.length() && text.charAt(i) != '\n' && text.charAt(i) != '\r') {
+                    i++;
+                }
+                space = true;
+            } else if (Character.isWhitespace(c)) {
+                space = true;
+                i++;
+            } else {
+                if (space && sb.length() > 0) {
+                    sb.append(' ');
+                }
+                space = false;
+                int end = c == '"' || c == '\'' ? endOfString(text, i) : c == '<' ? endOfIRI(text, i) : i + 1;
+                sb.append(text, i, end);
+                i = end;
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Return the end of a short or long string literal.
+     */
+    private static int endOfString(String text, int start) {
+        char quote = text.charAt(start);
+        boolean isLong = start + 2 < text.length()
+                && text.charAt(start + 1) == quote && text.charAt(start + 2) == quote;
+        int i = start + (isLong ? 3 : 1);
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            if (c == '\\') {
+                i += 2;
+            } else if (c == quote && !isLong) {
+                return i + 1;
+            } else if (c == quote && i + 2 < text.length()
+                    && text.charAt(i + 1) == quote && text.charAt(i + 2) == quote) {
+                return i + 3;
+            } else {
+                i++;
+            }
+        }
+        return text.length();
+    }
+
+    /**
+     * Return the end of an IRI, or of a less than operator, which is what a {@code <} that is not
+     * followed by the characters of an IRI and a {@code >} is.
+     */
+    private static int endOfIRI(String text, int start) {
+        for (int i = start + 1; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '>') {
+                return i + 1;
+            }
+            if (c <= ' ' || "<\"{}|^`\\".indexOf(c) >= 0) {
+                break;
+            }
+        }
+        return start + 1;
+    }
+}
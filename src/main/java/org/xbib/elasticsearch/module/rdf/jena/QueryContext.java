@@ -0,0 +1,214 @@
+/**
+ *    Copyright 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.module.rdf.jena;
+
+import org.elasticsearch.ElasticsearchTimeoutException;
+import org.elasticsearch.action.ActionRequestBuilder;
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.client.Client;
+
+import java.util.concurrent.Executor;
+
+/**
+ * The state of a SPARQL query that is executed against an index.
+ */
+public class QueryContext {
+
+    private final Client client;
+
+    private final String index;
+
+    private final String type;
+
+    private final JenaStatsService stats;
+
+    private final NodeCache nodeCache;
+
+    private QueryProfile profile;
+
+    private TripleMapping mapping = TripleMapping.STORED;
+
+    private PathCache pathCache;
+
+    private QueryGuard guard;
+
+    private boolean routedBySubject;
+
+    private boolean starJoin;
+
+    private Executor executor;
+
+    private int concurrency = 1;
+
+    public QueryContext(Client client, String index, String type, JenaStatsService stats, NodeCache nodeCache) {
+        this.client = client;
+        this.index = index;
+        this.type = type;
+        this.stats = stats;
+        this.nodeCache = nodeCache;
+    }
+
+    public Client getClient() {
+        return client;
+    }
+
+    public String getIndex() {
+        return index;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public JenaStatsService getStats() {
+        return stats;
+    }
+
+    public NodeCache getNodeCache() {
+        return nodeCache;
+    }
+
+    public QueryContext setMapping(TripleMapping mapping) {
+        this.mapping = mapping;
+        return this;
+    }
+
+    /**
+     * Return the mapping variant of the queried indices.
+     *
+     * @return the mapping variant, or null if the queried indices use different variants
+     */
+    public TripleMapping getMapping() {
+        return mapping;
+    }
+
+    public QueryContext setPathCache(PathCache pathCache) {
+        this.pathCache = pathCache;
+        return this;
+    }
+
+    /**
+     * Return the cache of transitive closures.
+     *
+     * @return the cache, or null if closures are not cached
+     */
+    public PathCache getPathCache() {
+        return pathCache;
+    }
+
+    public QueryContext setGuard(QueryGuard guard) {
+        this.guard = guard;
+        return this;
+    }
+
+    /**
+     * Return the resource limits of this query.
+     *
+     * @return the guard, or null if the query is not limited
+     */
+    public QueryGuard getGuard() {
+        return guard;
+    }
+
+    public QueryContext setRoutedBySubject(boolean routedBySubject) {
+        this.routedBySubject = routedBySubject;
+        return this;
+    }
+
+    /**
+     * Check if the triples of the queried index are routed by their subject. Documents must then be
+     * looked up with the subject as routing value.
+     *
+     * @return true if the triples are routed by subject
+     */
+    public boolean isRoutedBySubject() {
+        return routedBySubject;
+    }
+
+    public QueryContext setStarJoin(boolean starJoin) {
+        this.starJoin = starJoin;
+        return this;
+    }
+
+    /**
+     * Check if patterns sharing a subject may be joined on the shards, which requires a single index
+     * whose triples are routed by subject.
+     *
+     * @return true if star joins are executed on the shards
+     */
+    public boolean isStarJoin() {
+        return starJoin;
+    }
+
+    /**
+     * Set the executor for branches of a query that are evaluated concurrently.
+     *
+     * @param executor the executor
+     * @param concurrency the maximum number of concurrently evaluated branches of an operator
+     * @return this context
+     */
+    public QueryContext setExecutor(Executor executor, int concurrency) {
+        this.executor = executor;
+        this.concurrency = concurrency;
+        return this;
+    }
+
+    /**
+     * Return the executor for branches of a query that are evaluated concurrently.
+     *
+     * @return the executor, or null if branches are evaluated by the query thread
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * Execute a request on behalf of this query, and wait for the response no longer than
+     * the deadline of the query allows.
+     *
+     * @param builder the request
+     * @param <Response> the response type
+     * @return the response
+     */
+    public <Response extends ActionResponse> Response execute(ActionRequestBuilder<?, Response, ?, ?> builder) {
+        if (guard == null) {
+            return builder.execute().actionGet();
+        }
+        try {
+            return builder.execute().actionGet(guard.remaining());
+        } catch (ElasticsearchTimeoutException e) {
+            throw new ElasticsearchTimeoutException("query timed out after " + guard.getTimeout(), e);
+        }
+    }
+
+    public QueryContext setProfile(QueryProfile profile) {
+        this.profile = profile;
+        return this;
+    }
+
+    /**
+     * Return the profile of this query.
+     *
+     * @return the profile, or null if the query is not profiled
+     */
+    public QueryProfile getProfile() {
+        return profile;
+    }
+}
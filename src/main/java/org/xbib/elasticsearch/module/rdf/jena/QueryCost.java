@@ -0,0 +1,322 @@
+/**
+ *    Copyright 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.module.rdf.jena;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.sparql.algebra.Op;
+import com.hp.hpl.jena.sparql.algebra.op.Op1;
+import com.hp.hpl.jena.sparql.algebra.op.Op2;
+import com.hp.hpl.jena.sparql.algebra.op.OpBGP;
+import com.hp.hpl.jena.sparql.algebra.op.OpConditional;
+import com.hp.hpl.jena.sparql.algebra.op.OpLeftJoin;
+import com.hp.hpl.jena.sparql.algebra.op.OpMinus;
+import com.hp.hpl.jena.sparql.algebra.op.OpN;
+import com.hp.hpl.jena.sparql.algebra.op.OpPath;
+import com.hp.hpl.jena.sparql.algebra.op.OpQuadPattern;
+import com.hp.hpl.jena.sparql.algebra.op.OpSequence;
+import com.hp.hpl.jena.sparql.algebra.op.OpTriple;
+import com.hp.hpl.jena.sparql.algebra.op.OpUnion;
+import com.hp.hpl.jena.sparql.core.TriplePath;
+import com.hp.hpl.jena.sparql.core.Var;
+import com.hp.hpl.jena.sparql.path.P_Link;
+import com.hp.hpl.jena.sparql.path.P_Path0;
+import com.hp.hpl.jena.sparql.path.P_Path1;
+import com.hp.hpl.jena.sparql.path.Path;
+import org.elasticsearch.action.search.MultiSearchRequestBuilder;
+import org.elasticsearch.action.search.MultiSearchResponse;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An estimate of what a query costs before it is executed, in Elasticsearch requests.
+ *
+ * The counts of all triple patterns of the algebra are fetched with one multi search, variables count
+ * as wildcards. Jena joins by nested loops, so a pattern is searched once per binding that flows into it.
+ * A pattern that shares no variable with the bindings before it multiplies them by its count, a pattern
+ * that joins on a bound variable is assumed to yield about one match per input binding or matching
+ * triple. Joins of two subqueries are estimated the same way, by the product of their rows, bounded
+ * like a pattern if they share a variable. Each search costs two requests, the scan and its last scroll
+ * page, plus one request per {@link #PAGE_SIZE} fetched triples. Filters and limits are not taken into
+ * account, so the estimate is an upper bound for typical queries, not an exact figure.
+ */
+public class QueryCost implements ToXContent {
+
+    public final static int PAGE_SIZE = 1000;
+
+    public enum CostClass {
+        CHEAP, MEDIUM, EXPENSIVE
+    }
+
+    private final double searches;
+
+    private final double fetched;
+
+    private final double rows;
+
+    private final int patterns;
+
+    private QueryCost(double searches, double fetched, double rows, int patterns) {
+        this.searches = searches;
+        this.fetched = fetched;
+        this.rows = rows;
+        this.patterns = patterns;
+    }
+
+    /**
+     * Estimate the cost of executing the algebra of a query.
+     *
+     * @param context the query context
+     * @param op the algebra, with initial bindings substituted
+     * @return the estimated cost
+     */
+    public static QueryCost estimate(QueryContext context, Op op) {
+        List<Triple> patterns = new ArrayList<Triple>();
+        collect(op, patterns);
+        Map<Triple, Long> counts = new LinkedHashMap<Triple, Long>();
+        for (Triple pattern : patterns) {
+            counts.put(pattern, 0L);
+        }
+        if (!counts.isEmpty()) {
+            ElasticsearchRDFGraph graph = new ElasticsearchRDFGraph(null, context);
+            MultiSearchRequestBuilder multiSearchRequestBuilder = context.getClient().prepareMultiSearch();
+            for (Triple pattern : counts.keySet()) {
+                multiSearchRequestBuilder.add(graph.countRequest(pattern));
+            }
+            MultiSearchResponse.Item[] items = context.execute(multiSearchRequestBuilder).getResponses();
+            int i = 0;
+            for (Map.Entry<Triple, Long> entry : counts.entrySet()) {
+                MultiSearchResponse.Item item = items[i++];
+                // a failed count, for example on a missing index, counts as empty
+                entry.setValue(item.isFailure() ? 0L : item.getResponse().getHits().getTotalHits());
+            }
+            context.getStats().search(0L);
+        }
+        Estimate estimate = new Estimate(counts).apply(op, 1.0d, new HashSet<Var>());
+        return new QueryCost(estimate.searches, estimate.fetched, estimate.rows, counts.size());
+    }
+
+    /**
+     * Return the estimated number of requests to Elasticsearch.
+     *
+     * @return the estimated cost
+     */
+    public long getCost() {
+        return saturated(2.0d * searches + Math.ceil(fetched / PAGE_SIZE));
+    }
+
+    public long getSearches() {
+        return saturated(searches);
+    }
+
+    public long getFetched() {
+        return saturated(fetched);
+    }
+
+    public long getRows() {
+        return saturated(rows);
+    }
+
+    public CostClass costClass(long cheapCost, long expensiveCost) {
+        long cost = getCost();
+        return cost < cheapCost ? CostClass.CHEAP : cost < expensiveCost ? CostClass.MEDIUM : CostClass.EXPENSIVE;
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject()
+                .field("cost", getCost())
+                .field("searches", getSearches())
+                .field("fetched", getFetched())
+                .field("rows", getRows())
+                .field("patterns", patterns)
+                .endObject();
+        return builder;
+    }
+
+    private static long saturated(double d) {
+        return d >= Long.MAX_VALUE ? Long.MAX_VALUE : (long) d;
+    }
+
+    private static void collect(Op op, List<Triple> patterns) {
+        if (op instanceof OpBGP) {
+            for (Triple triple : ((OpBGP) op).getPattern()) {
+                patterns.add(wildcards(triple));
+            }
+        } else if (op instanceof OpTriple) {
+            patterns.add(wildcards(((OpTriple) op).getTriple()));
+        } else if (op instanceof OpQuadPattern) {
+            for (Triple triple : ((OpQuadPattern) op).getBasicPattern()) {
+                patterns.add(wildcards(triple));
+            }
+        } else if (op instanceof OpPath) {
+            patterns.add(wildcards(((OpPath) op).getTriplePath()));
+        } else if (op instanceof Op1) {
+            collect(((Op1) op).getSubOp(), patterns);
+        } else if (op instanceof Op2) {
+            collect(((Op2) op).getLeft(), patterns);
+            collect(((Op2) op).getRight(), patterns);
+        } else if (op instanceof OpN) {
+            for (Op element : ((OpN) op).getElements()) {
+                collect(element, patterns);
+            }
+        }
+    }
+
+    private static Triple wildcards(Triple triple) {
+        return Triple.create(wildcard(triple.getSubject()), wildcard(triple.getPredicate()),
+                wildcard(triple.getObject()));
+    }
+
+    /**
+     * A path is estimated by the triples of its first predicate.
+     */
+    private static Triple wildcards(TriplePath triplePath) {
+        if (triplePath.isTriple()) {
+            return wildcards(triplePath.asTriple());
+        }
+        Path path = triplePath.getPath();
+        while (path instanceof P_Path1) {
+            path = ((P_Path1) path).getSubPath();
+        }
+        Node predicate = path instanceof P_Path0 ? ((P_Path0) path).getNode() : Node.ANY;
+        return path instanceof P_Link ?
+                Triple.create(wildcard(triplePath.getSubject()), predicate, Node.ANY) :
+                Triple.create(Node.ANY, predicate, Node.ANY);
+    }
+
+    private static Node wildcard(Node node) {
+        return node.isVariable() || node.isBlank() ? Node.ANY : node;
+    }
+
+    private static class Estimate {
+
+        private final Map<Triple, Long> counts;
+
+        private double searches;
+
+        private double fetched;
+
+        private double rows;
+
+        Estimate(Map<Triple, Long> counts) {
+            this.counts = counts;
+        }
+
+        /**
+         * Add the cost of an operator that is executed for a number of input bindings.
+         *
+         * @param op the operator
+         * @param in the number of input bindings
+         * @param bound the variables bound by the input, extended by the variables the operator binds
+         * @return this estimate, with the number of output bindings in {@code rows}
+         */
+        Estimate apply(Op op, double in, Set<Var> bound) {
+            rows = in;
+            if (op instanceof OpBGP) {
+                for (Triple triple : ((OpBGP) op).getPattern()) {
+                    pattern(triple, wildcards(triple), bound);
+                }
+            } else if (op instanceof OpTriple) {
+                Triple triple = ((OpTriple) op).getTriple();
+                pattern(triple, wildcards(triple), bound);
+            } else if (op instanceof OpQuadPattern) {
+                for (Triple triple : ((OpQuadPattern) op).getBasicPattern()) {
+                    pattern(triple, wildcards(triple), bound);
+                }
+            } else if (op instanceof OpPath) {
+                TriplePath triplePath = ((OpPath) op).getTriplePath();
+                pattern(Triple.create(triplePath.getSubject(), Node.ANY, triplePath.getObject()),
+                        wildcards(triplePath), bound);
+            } else if (op instanceof OpSequence) {
+                for (Op element : ((OpSequence) op).getElements()) {
+                    apply(element, rows, bound);
+                }
+            } else if (op instanceof OpLeftJoin || op instanceof OpConditional) {
+                // the right side is executed for each binding of the left side, and keeps them
+                apply(((Op2) op).getLeft(), in, bound);
+                double left = rows;
+                apply(((Op2) op).getRight(), left, bound);
+                rows = Math.max(left, rows);
+            } else if (op instanceof Op1) {
+                apply(((Op1) op).getSubOp(), in, bound);
+            } else if (op instanceof Op2) {
+                // union, join and minus evaluate both sides for the same input
+                Set<Var> in0 = new HashSet<Var>(bound);
+                Set<Var> rightBound = new HashSet<Var>(bound);
+                apply(((Op2) op).getLeft(), in, bound);
+                double left = rows;
+                apply(((Op2) op).getRight(), in, rightBound);
+                double right = rows;
+                if (op instanceof OpUnion) {
+                    rows = left + right;
+                } else if (op instanceof OpMinus) {
+                    rows = left;
+                } else {
+                    // both sides are computed per input binding, their product is the cross product
+                    double product = in > 0.0d ? left * right / in : 0.0d;
+                    Set<Var> shared = new HashSet<Var>(bound);
+                    shared.removeAll(in0);
+                    rightBound.removeAll(in0);
+                    shared.retainAll(rightBound);
+                    rows = shared.isEmpty() ? product : Math.min(product, Math.max(left, right));
+                }
+                bound.addAll(rightBound);
+            } else if (op instanceof OpN) {
+                Set<Var> in0 = new HashSet<Var>(bound);
+                double sum = 0.0d;
+                for (Op element : ((OpN) op).getElements()) {
+                    Set<Var> elementBound = new HashSet<Var>(in0);
+                    apply(element, in, elementBound);
+                    bound.addAll(elementBound);
+                    sum += rows;
+                }
+                rows = sum;
+            }
+            return this;
+        }
+
+        private void pattern(Triple triple, Triple wildcards, Set<Var> bound) {
+            Long count = counts.get(wildcards);
+            double n = count != null ? count : 0L;
+            boolean joined = false;
+            for (Node node : new Node[]{triple.getSubject(), triple.getPredicate(), triple.getObject()}) {
+                if (node.isVariable()) {
+                    joined |= !bound.add(Var.alloc(node));
+                }
+            }
+            searches += rows;
+            if (joined) {
+                // the bound variables select a part of the matching triples for each input binding,
+                // assume about one match per input binding or per matching triple
+                double out = Math.min(rows * n, Math.max(rows, n));
+                fetched += out;
+                rows = out;
+            } else {
+                fetched += rows * n;
+                rows = rows * n;
+            }
+        }
+    }
+}
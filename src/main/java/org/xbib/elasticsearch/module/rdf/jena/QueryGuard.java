@@ -0,0 +1,158 @@
+/**
+ *    Copyright 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.module.rdf.jena;
+
+import org.elasticsearch.ElasticsearchIllegalArgumentException;
+import org.elasticsearch.ElasticsearchTimeoutException;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.ConcurrentCollections;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The resource limits of a single SPARQL query: a deadline, the number of triples it may fetch from
+ * Elasticsearch, and the number of bindings its pattern operators may produce.
+ *
+ * The limits are checked before each request to Elasticsearch and for each binding, so an exceeded
+ * limit aborts the query with an exception at the next step. The guard keeps track of the scrolls the
+ * query opened, and {@link #close} clears those that were not read to the end.
+ */
+public class QueryGuard {
+
+    private final TimeValue timeout;
+
+    private final long deadline;
+
+    private final long maxScanned;
+
+    private final long maxBindings;
+
+    private final AtomicLong scanned = new AtomicLong();
+
+    private final AtomicLong bindings = new AtomicLong();
+
+    private final Set<String> scrollIds = ConcurrentCollections.newConcurrentSet();
+
+    /**
+     * @param timeout the maximum execution time
+     * @param maxScanned the maximum number of fetched triples, or -1 for no limit
+     * @param maxBindings the maximum number of bindings of pattern operators, or -1 for no limit
+     */
+    public QueryGuard(TimeValue timeout, long maxScanned, long maxBindings) {
+        this.timeout = timeout;
+        this.deadline = System.nanoTime() + timeout.nanos();
+        this.maxScanned = maxScanned;
+        this.maxBindings = maxBindings;
+    }
+
+    public TimeValue getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Return the time left until the deadline.
+     *
+     * @return the remaining time
+     * @throws ElasticsearchTimeoutException if the deadline has passed
+     */
+    public TimeValue remaining() {
+        long nanos = deadline - System.nanoTime();
+        if (nanos <= 0L) {
+            throw new ElasticsearchTimeoutException("query timed out after " + timeout);
+        }
+        return TimeValue.timeValueNanos(nanos);
+    }
+
+    /**
+     * Check the deadline before a request to Elasticsearch.
+     */
+    public void check() {
+        remaining();
+    }
+
+    public void scanned(long n) {
+        if (scanned.addAndGet(n) > maxScanned && maxScanned >= 0L) {
+            throw new ElasticsearchIllegalArgumentException("query fetched more than " + maxScanned
+                    + " triples, see jena.query.max_scanned");
+        }
+    }
+
+    public void bindings(long n) {
+        if (bindings.addAndGet(n) > maxBindings && maxBindings >= 0L) {
+            throw new ElasticsearchIllegalArgumentException("query produced more than " + maxBindings
+                    + " intermediate bindings, see jena.query.max_bindings");
+        }
+    }
+
+    /**
+     * Return the maximum number of bindings of pattern operators.
+     *
+     * @return the maximum number, or -1 for no limit
+     */
+    public long getMaxBindings() {
+        return maxBindings;
+    }
+
+    public long getScanned() {
+        return scanned.get();
+    }
+
+    public long getBindings() {
+        return bindings.get();
+    }
+
+    public void opened(String scrollId) {
+        if (scrollId != null) {
+            scrollIds.add(scrollId);
+        }
+    }
+
+    /**
+     * Forget a scroll that was read to the end or cleared.
+     *
+     * @param scrollId the scroll ID
+     * @return true if the scroll was open
+     */
+    public boolean closed(String scrollId) {
+        return scrollId != null && scrollIds.remove(scrollId);
+    }
+
+    /**
+     * Clear the scrolls of the query that are still open, without waiting for the response.
+     *
+     * @param client the client
+     * @param stats the statistics the scrolls were counted in as active
+     * @return the number of cleared scrolls
+     */
+    public int close(Client client, JenaStatsService stats) {
+        List<String> ids = new ArrayList<String>();
+        for (String id : scrollIds) {
+            // a scan may close its scroll concurrently
+            if (scrollIds.remove(id)) {
+                ids.add(id);
+                stats.scrollClosed();
+            }
+        }
+        if (!ids.isEmpty()) {
+            client.prepareClearScroll().setScrollIds(ids).execute();
+        }
+        return ids.size();
+    }
+}
@@ -0,0 +1,174 @@
+/**
+ *    Copyright 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.module.rdf.jena;
+
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the Elasticsearch requests a single SPARQL query issued, and where the time went.
+ *
+ * Requests are grouped by the generated filter. Only the first {@link #MAX_PATTERNS} distinct
+ * filters are listed, the rest is summed up under "other", because nested loop joins
+ * generate one filter per binding.
+ */
+public class QueryProfile implements ToXContent {
+
+    public final static int MAX_PATTERNS = 100;
+
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+
+    private final Entry other = new Entry("other", null);
+
+    private String plan;
+
+    private QueryCost estimate;
+
+    private long executionNanos;
+
+    private long serializationNanos;
+
+    private long searches;
+
+    private long scrollPages;
+
+    private long hits;
+
+    private long elasticsearchNanos;
+
+    public void setPlan(String plan) {
+        this.plan = plan;
+    }
+
+    public void setEstimate(QueryCost estimate) {
+        this.estimate = estimate;
+    }
+
+    public void setExecutionNanos(long executionNanos) {
+        this.executionNanos = executionNanos;
+    }
+
+    public void setSerializationNanos(long serializationNanos) {
+        this.serializationNanos = serializationNanos;
+    }
+
+    /**
+     * Return the entry for a generated filter.
+     *
+     * @param pattern the triple pattern
+     * @param filter the filter generated for the pattern
+     * @return the entry that collects the requests for this filter
+     */
+    public synchronized Entry entry(String pattern, String filter) {
+        Entry entry = entries.get(filter);
+        if (entry == null) {
+            if (entries.size() >= MAX_PATTERNS) {
+                return other;
+            }
+            entry = new Entry(pattern, filter);
+            entries.put(filter, entry);
+        }
+        return entry;
+    }
+
+    public synchronized void search(Entry entry, long hitCount, long nanos) {
+        searches++;
+        hits += hitCount;
+        elasticsearchNanos += nanos;
+        entry.searches++;
+        entry.hits += hitCount;
+        entry.nanos += nanos;
+    }
+
+    public synchronized void scrollPage(Entry entry, long hitCount, long nanos) {
+        scrollPages++;
+        hits += hitCount;
+        elasticsearchNanos += nanos;
+        entry.scrollPages++;
+        entry.hits += hitCount;
+        entry.nanos += nanos;
+    }
+
+    @Override
+    public synchronized XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject();
+        builder.field("plan", plan);
+        if (estimate != null) {
+            builder.field("estimate");
+            estimate.toXContent(builder, params);
+        }
+        builder.field("searches", searches);
+        builder.field("scroll_pages", scrollPages);
+        builder.field("hits", hits);
+        builder.field("elasticsearch_ms", millis(elasticsearchNanos));
+        builder.field("jena_ms", millis(Math.max(0L, executionNanos - elasticsearchNanos)));
+        builder.field("serialization_ms", millis(serializationNanos));
+        builder.startArray("patterns");
+        for (Entry entry : entries.values()) {
+            entry.toXContent(builder, params);
+        }
+        if (other.searches > 0) {
+            other.toXContent(builder, params);
+        }
+        builder.endArray();
+        builder.endObject();
+        return builder;
+    }
+
+    private static double millis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos) / 1000.0;
+    }
+
+    public static class Entry implements ToXContent {
+
+        private final String pattern;
+
+        private final String filter;
+
+        private long searches;
+
+        private long scrollPages;
+
+        private long hits;
+
+        private long nanos;
+
+        Entry(String pattern, String filter) {
+            this.pattern = pattern;
+            this.filter = filter;
+        }
+
+        @Override
+        public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+            builder.startObject();
+            builder.field("pattern", pattern);
+            if (filter != null) {
+                builder.field("filter", filter);
+            }
+            builder.field("searches", searches);
+            builder.field("scroll_pages", scrollPages);
+            builder.field("hits", hits);
+            builder.field("elasticsearch_ms", millis(nanos));
+            builder.endObject();
+            return builder;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/**
+ *    Copyright 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.module.rdf.jena;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.sparql.core.Quad;
+import org.apache.jena.riot.system.PrefixMap;
+import org.apache.jena.riot.system.PrefixMapFactory;
+import org.apache.jena.riot.tokens.Token;
+import org.apache.jena.riot.tokens.TokenType;
+import org.apache.jena.riot.tokens.Tokenizer;
+import org.apache.jena.riot.tokens.TokenizerFactory;
+import org.elasticsearch.ElasticsearchParseException;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A reader for RDF Patch.
+ *
+ * Each row is a code followed by terms and a dot: {@code A} adds and {@code D} deletes a triple
+ * or a quad, {@code TX}, {@code TC} and {@code TA} begin, commit and abort a transaction,
+ * {@code PA} and {@code PD} add and delete a prefix. Header rows {@code H} are skipped.
+ */
+public class RDFPatch {
+
+    public interface Handler {
+
+        void begin();
+
+        void commit();
+
+        void abort();
+
+        void add(Triple triple, Node context);
+
+        void delete(Triple triple, Node context);
+    }
+
+    /**
+     * A handler that passes the changes of a transaction on to another handler when the transaction
+     * is committed, and drops them when it is aborted. A later change of the same triple in a transaction
+     * replaces the earlier one. Changes outside of transactions are passed on immediately, and the rows
+     * of a transaction that is not terminated are dropped.
+     */
+    public static class Transactions implements Handler {
+
+        private final Handler handler;
+
+        /**
+         * The changes of the open transaction, true for an add and false for a delete.
+         */
+        private final Map<Quad, Boolean> changes = new LinkedHashMap<Quad, Boolean>();
+
+        private boolean open;
+
+        public Transactions(Handler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public void begin() {
+            open = true;
+            handler.begin();
+        }
+
+        @Override
+        public void commit() {
+            for (Map.Entry<Quad, Boolean> change : changes.entrySet()) {
+                Quad quad = change.getKey();
+                Node context = Quad.isDefaultGraph(quad.getGraph()) ? null : quad.getGraph();
+                if (change.getValue()) {
+                    handler.add(quad.asTriple(), context);
+                } else {
+                    handler.delete(quad.asTriple(), context);
+                }
+            }
+            changes.clear();
+            open = false;
+            handler.commit();
+        }
+
+        @Override
+        public void abort() {
+            changes.clear();
+            open = false;
+            handler.abort();
+        }
+
+        @Override
+        public void add(Triple triple, Node context) {
+            if (open) {
+                change(triple, context, true);
+            } else {
+                handler.add(triple, context);
+            }
+        }
+
+        @Override
+        public void delete(Triple triple, Node context) {
+            if (open) {
+                change(triple, context, false);
+            } else {
+                handler.delete(triple, context);
+            }
+        }
+
+        private void change(Triple triple, Node context, boolean add) {
+            Quad quad = new Quad(context != null ? context : Quad.defaultGraphNodeGenerated, triple);
+            // the replacing change is applied in the order of the later row
+            changes.remove(quad);
+            changes.put(quad, add);
+        }
+    }
+
+    private RDFPatch() {
+    }
+
+    public static void parse(InputStream in, Handler handler) {
+        Tokenizer tokenizer = TokenizerFactory.makeTokenizerUTF8(in);
+        PrefixMap prefixMap = PrefixMapFactory.createForInput();
+        List<Token> terms = new ArrayList<Token>(4);
+        while (tokenizer.hasNext()) {
+            Token code = tokenizer.next();
+            if (!code.isWord()) {
+                throw new ElasticsearchParseException("expected a patch code at line " + code.getLine()
+                        + ", found " + code);
+            }
+            terms.clear();
+            while (true) {
+                if (!tokenizer.hasNext()) {
+                    throw new ElasticsearchParseException("unterminated row at line " + code.getLine());
+                }
+                Token token = tokenizer.next();
+                if (token.getType() == TokenType.DOT) {
+                    break;
+                }
+                terms.add(token);
+            }
+            String image = code.getImage();
+            if ("A".equals(image) || "D".equals(image)) {
+                if (terms.size() != 3 && terms.size() != 4) {
+                    throw new ElasticsearchParseException("expected a triple or a quad at line " + code.getLine());
+                }
+                Triple triple = Triple.create(terms.get(0).asNode(prefixMap), terms.get(1).asNode(prefixMap),
+                        terms.get(2).asNode(prefixMap));
+                Node context = terms.size() == 4 ? terms.get(3).asNode(prefixMap) : null;
+                if (context != null && Quad.isDefaultGraph(context)) {
+                    context = null;
+                }
+                if ("A".equals(image)) {
+                    handler.add(triple, context);
+                } else {
+                    handler.delete(triple, context);
+                }
+            } else if ("TX".equals(image)) {
+                handler.begin();
+            } else if ("TC".equals(image)) {
+                handler.commit();
+            } else if ("TA".equals(image)) {
+                handler.abort();
+            } else if ("PA".equals(image) && terms.size() == 2) {
+                prefixMap.add(terms.get(0).getImage(), terms.get(1).getImage());
+            } else if ("PD".equals(image) && terms.size() == 1) {
+                prefixMap.delete(terms.get(0).getImage());
+            } else if (!"H".equals(image)) {
+                throw new ElasticsearchParseException("unknown patch row " + image + " at line " + code.getLine());
+            }
+        }
+    }
+}
@@ -0,0 +1,231 @@
+/**
+ *    Copyright 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.module.rdf.jena;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.vocabulary.RDF;
+import com.hp.hpl.jena.vocabulary.RDFS;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The closure of an RDFS schema, for materializing the entailments of triples at upload time.
+ *
+ * The schema is built from the {@code rdfs:subClassOf}, {@code rdfs:subPropertyOf}, {@code rdfs:domain}
+ * and {@code rdfs:range} triples, and the class and property hierarchies are closed once. Then each
+ * triple is expanded on its own by the rules rdfs2, rdfs3, rdfs5, rdfs7, rdfs9 and rdfs11. The axiomatic
+ * triples and the rules that only derive that something is a resource, a class or a property are left out.
+ * A schema is immutable and can be shared by the parser threads.
+ */
+public class RDFSchema {
+
+    public final static List<String> PREDICATES = Collections.unmodifiableList(Arrays.asList(
+            NTriples.asNt(RDFS.subClassOf.asNode()),
+            NTriples.asNt(RDFS.subPropertyOf.asNode()),
+            NTriples.asNt(RDFS.domain.asNode()),
+            NTriples.asNt(RDFS.range.asNode())));
+
+    private final static Node TYPE = RDF.type.asNode();
+
+    private final static Node SUB_CLASS_OF = RDFS.subClassOf.asNode();
+
+    private final static Node SUB_PROPERTY_OF = RDFS.subPropertyOf.asNode();
+
+    private final static Node DOMAIN = RDFS.domain.asNode();
+
+    private final static Node RANGE = RDFS.range.asNode();
+
+    private final Map<Node, Set<Node>> superClasses;
+
+    private final Map<Node, Set<Node>> superProperties;
+
+    private final Map<Node, Set<Node>> domains;
+
+    private final Map<Node, Set<Node>> ranges;
+
+    private RDFSchema(Map<Node, Set<Node>> superClasses, Map<Node, Set<Node>> superProperties,
+                      Map<Node, Set<Node>> domains, Map<Node, Set<Node>> ranges) {
+        this.superClasses = superClasses;
+        this.superProperties = superProperties;
+        this.domains = domains;
+        this.ranges = ranges;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public boolean isEmpty() {
+        return superClasses.isEmpty() && superProperties.isEmpty() && domains.isEmpty() && ranges.isEmpty();
+    }
+
+    /**
+     * Return the triples entailed by a triple under this schema, without the triple itself.
+     *
+     * @param triple the triple
+     * @return the entailed triples
+     */
+    public Collection<Triple> infer(Triple triple) {
+        Set<Triple> inferred = new LinkedHashSet<Triple>();
+        Node s = triple.getSubject();
+        Node p = triple.getPredicate();
+        Node o = triple.getObject();
+        List<Node> properties = new ArrayList<Node>();
+        properties.add(p);
+        for (Node q : get(superProperties, p)) {
+            // rdfs7
+            inferred.add(Triple.create(s, q, o));
+            properties.add(q);
+        }
+        for (Node property : properties) {
+            // rdfs2
+            for (Node c : get(domains, property)) {
+                types(s, c, inferred);
+            }
+            // rdfs3
+            if (!o.isLiteral()) {
+                for (Node c : get(ranges, property)) {
+                    types(o, c, inferred);
+                }
+            }
+        }
+        // a sub property of rdf:type, rdfs:subClassOf or rdfs:subPropertyOf entails their rules too
+        if (!o.isLiteral()) {
+            if (properties.contains(TYPE)) {
+                // rdfs9
+                for (Node c : get(superClasses, o)) {
+                    inferred.add(Triple.create(s, TYPE, c));
+                }
+            }
+            if (properties.contains(SUB_CLASS_OF)) {
+                // rdfs11
+                for (Node c : get(superClasses, o)) {
+                    inferred.add(Triple.create(s, SUB_CLASS_OF, c));
+                }
+            }
+            if (properties.contains(SUB_PROPERTY_OF)) {
+                // rdfs5
+                for (Node q : get(superProperties, o)) {
+                    inferred.add(Triple.create(s, SUB_PROPERTY_OF, q));
+                }
+            }
+        }
+        inferred.remove(triple);
+        return inferred;
+    }
+
+    private void types(Node node, Node c, Set<Triple> inferred) {
+        inferred.add(Triple.create(node, TYPE, c));
+        for (Node d : get(superClasses, c)) {
+            inferred.add(Triple.create(node, TYPE, d));
+        }
+    }
+
+    private static Set<Node> get(Map<Node, Set<Node>> map, Node node) {
+        Set<Node> nodes = map.get(node);
+        return nodes != null ? nodes : Collections.<Node>emptySet();
+    }
+
+    /**
+     * Collects schema triples, other triples are ignored.
+     */
+    public static class Builder {
+
+        private final Map<Node, Set<Node>> subClassOf = new HashMap<Node, Set<Node>>();
+
+        private final Map<Node, Set<Node>> subPropertyOf = new HashMap<Node, Set<Node>>();
+
+        private final Map<Node, Set<Node>> domain = new HashMap<Node, Set<Node>>();
+
+        private final Map<Node, Set<Node>> range = new HashMap<Node, Set<Node>>();
+
+        /**
+         * Add a triple to the schema if it is a schema triple.
+         *
+         * @param triple the triple
+         * @return true if the triple is a schema triple
+         */
+        public synchronized boolean add(Triple triple) {
+            Node p = triple.getPredicate();
+            Node o = triple.getObject();
+            if (o.isLiteral()) {
+                return false;
+            }
+            if (SUB_CLASS_OF.equals(p)) {
+                put(subClassOf, triple.getSubject(), o);
+            } else if (SUB_PROPERTY_OF.equals(p)) {
+                put(subPropertyOf, triple.getSubject(), o);
+            } else if (DOMAIN.equals(p)) {
+                put(domain, triple.getSubject(), o);
+            } else if (RANGE.equals(p)) {
+                put(range, triple.getSubject(), o);
+            } else {
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * Close the class and property hierarchies. Domains and ranges of super properties
+         * are resolved when triples are expanded.
+         *
+         * @return the schema
+         */
+        public synchronized RDFSchema build() {
+            return new RDFSchema(closure(subClassOf), closure(subPropertyOf),
+                    new HashMap<Node, Set<Node>>(domain), new HashMap<Node, Set<Node>>(range));
+        }
+
+        private static void put(Map<Node, Set<Node>> map, Node key, Node value) {
+            Set<Node> values = map.get(key);
+            if (values == null) {
+                values = new LinkedHashSet<Node>();
+                map.put(key, values);
+            }
+            values.add(value);
+        }
+
+        private static Map<Node, Set<Node>> closure(Map<Node, Set<Node>> edges) {
+            Map<Node, Set<Node>> closure = new HashMap<Node, Set<Node>>();
+            for (Node start : edges.keySet()) {
+                Set<Node> reached = new LinkedHashSet<Node>();
+                List<Node> frontier = new ArrayList<Node>(edges.get(start));
+                while (!frontier.isEmpty()) {
+                    List<Node> next = new ArrayList<Node>();
+                    for (Node node : frontier) {
+                        if (reached.add(node) && edges.containsKey(node)) {
+                            next.addAll(edges.get(node));
+                        }
+                    }
+                    frontier = next;
+                }
+                // a class is not its own super class, even on a cycle
+                reached.remove(start);
+                closure.put(start, reached);
+            }
+            return closure;
+        }
+    }
+}
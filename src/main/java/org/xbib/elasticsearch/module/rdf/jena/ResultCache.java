@@ -0,0 +1,204 @@
+/**
+ *    Copyright 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.module.rdf.jena;
+
+import com.hp.hpl.jena.graph.Node;
+import org.elasticsearch.cluster.ClusterChangedEvent;
+import org.elasticsearch.cluster.ClusterStateListener;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.common.cache.Weigher;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.jsr166e.LongAdder;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Optional node level cache of serialized query results, bounded by the size of the results
+ * with least recently used eviction.
+ *
+ * Every write through the plugin on this node invalidates the whole cache, because an index name
+ * may be an alias for other indices. While an upload is running, the cache is bypassed. A result is
+ * only stored if no write started or ended while its query was executed, which is checked
+ * by a generation counter. Changes of the cluster metadata, such as alias swaps, created and deleted
+ * indices, also invalidate the cache on every node. The generation is maintained even if the cache
+ * is disabled, because the {@link PathCache} is invalidated by it. Writes through the plugin on other nodes and
+ * writes that bypass the plugin are only seen after the results expire.
+ */
+public class ResultCache implements ClusterStateListener {
+
+    private final Cache<String, Result> cache;
+
+    private final boolean enabled;
+
+    private final AtomicLong generation = new AtomicLong();
+
+    private final AtomicInteger writes = new AtomicInteger();
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder invalidations = new LongAdder();
+
+    @Inject
+    public ResultCache(Settings settings) {
+        this(settings.getAsBytesSize("jena.result_cache.size", new ByteSizeValue(0)),
+                settings.getAsTime("jena.result_cache.expire", TimeValue.timeValueMinutes(10)));
+    }
+
+    public ResultCache(ByteSizeValue size, TimeValue expire) {
+        this.enabled = size.bytes() > 0;
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(Math.max(1L, size.bytes()))
+                .weigher(new Weigher<String, Result>() {
+                    @Override
+                    public int weigh(String key, Result result) {
+                        return 2 * key.length() + result.getContent().length();
+                    }
+                })
+                .expireAfterWrite(expire.millis(), TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Return the generation that must be passed to {@link #put} for a query that starts now.
+     *
+     * @return the current generation
+     */
+    public long generation() {
+        return generation.get();
+    }
+
+    /**
+     * Return true while a write through the plugin is running.
+     *
+     * @return true if cached data must not be used
+     */
+    public boolean isWriting() {
+        return writes.get() > 0;
+    }
+
+    public Result get(String key) {
+        if (!enabled || writes.get() > 0) {
+            return null;
+        }
+        Result result = cache.getIfPresent(key);
+        if (result == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return result;
+    }
+
+    public void put(String key, long generation, Result result) {
+        if (enabled && writes.get() == 0 && this.generation.get() == generation) {
+            cache.put(key, result);
+        }
+    }
+
+    public void beginWrite() {
+        writes.incrementAndGet();
+        invalidate();
+    }
+
+    public void endWrite() {
+        invalidate();
+        writes.decrementAndGet();
+    }
+
+    public void invalidate() {
+        generation.incrementAndGet();
+        if (enabled) {
+            invalidations.increment();
+            cache.invalidateAll();
+        }
+    }
+
+    /**
+     * Registered with the cluster service by {@link JenaIngestService} when it starts, injecting
+     * the cluster service would create a circular dependency.
+     */
+    @Override
+    public void clusterChanged(ClusterChangedEvent event) {
+        // the generation moves even if this cache is disabled, the path cache depends on it
+        if (event.metaDataChanged()) {
+            invalidate();
+        }
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long invalidations() {
+        return invalidations.sum();
+    }
+
+    public static String key(String index, String type, String query, Map<String, Node> bindings, String accept) {
+        StringBuilder sb = new StringBuilder()
+                .append(index).append('\u0000')
+                .append(type).append('\u0000')
+                .append(QueryCache.normalize(query)).append('\u0000');
+        if (bindings != null) {
+            for (Map.Entry<String, Node> binding : new TreeMap<String, Node>(bindings).entrySet()) {
+                sb.append(binding.getKey()).append('=').append(NTriples.asNt(binding.getValue())).append('\u0000');
+            }
+        }
+        return sb.append(accept).toString();
+    }
+
+    public static class Result {
+
+        private final String contentType;
+
+        private final BytesReference content;
+
+        public Result(String contentType, BytesReference content) {
+            this.contentType = contentType;
+            this.content = content;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public BytesReference getContent() {
+            return content;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/**
+ *    Copyright 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.module.rdf.jena;
+
+import com.hp.hpl.jena.datatypes.xsd.XSDDatatype;
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.NodeFactory;
+import com.hp.hpl.jena.query.QueryBuildException;
+import com.hp.hpl.jena.query.QueryExecException;
+import com.hp.hpl.jena.sparql.core.Var;
+import com.hp.hpl.jena.sparql.engine.ExecutionContext;
+import com.hp.hpl.jena.sparql.engine.QueryIterator;
+import com.hp.hpl.jena.sparql.engine.binding.Binding;
+import com.hp.hpl.jena.sparql.engine.binding.BindingFactory;
+import com.hp.hpl.jena.sparql.engine.binding.BindingMap;
+import com.hp.hpl.jena.sparql.engine.iterator.QueryIterPlainWrapper;
+import com.hp.hpl.jena.sparql.pfunction.PropFuncArg;
+import com.hp.hpl.jena.sparql.pfunction.PropertyFunctionBase;
+import com.hp.hpl.jena.sparql.pfunction.PropertyFunctionRegistry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The property function text:query, which searches literals by full text on the analyzed object field.
+ *
+ * The subject is the subject of the matching triples, optionally followed by variables for
+ * the score and the matched literal. The object is the query, optionally preceded by the
+ * predicate of the matching triples and followed by the maximum number of hits.
+ *
+ * <pre>
+ * ?s text:query "wireless headphones"
+ * (?s ?score ?label) text:query (rdfs:label "wireless headphones" 100)
+ * </pre>
+ */
+public class TextQueryPF extends PropertyFunctionBase {
+
+    public final static String NS = "http://jena.apache.org/text#";
+
+    public final static String QUERY = NS + "query";
+
+    public final static int DEFAULT_LIMIT = 10000;
+
+    public static void register() {
+        PropertyFunctionRegistry.get().put(QUERY, TextQueryPF.class);
+    }
+
+    @Override
+    public void build(PropFuncArg argSubject, Node predicate, PropFuncArg argObject, ExecutionContext execCxt) {
+        super.build(argSubject, predicate, argObject, execCxt);
+        if (argSubject.isList() && (argSubject.getArgListSize() < 1 || argSubject.getArgListSize() > 3)) {
+            throw new QueryBuildException("text:query subject must be ?s or (?s ?score ?literal)");
+        }
+        if (argObject.isList() && (argObject.getArgListSize() < 1 || argObject.getArgListSize() > 3)) {
+            throw new QueryBuildException("text:query object must be \"query\" or (predicate \"query\" limit)");
+        }
+    }
+
+    @Override
+    public QueryIterator exec(Binding binding, PropFuncArg argSubject, Node predicate, PropFuncArg argObject,
+                              ExecutionContext execCxt) {
+        Graph graph = execCxt.getActiveGraph();
+        if (!(graph instanceof ElasticsearchRDFGraph)) {
+            throw new QueryExecException("text:query is only supported on Elasticsearch graphs");
+        }
+        List<Node> subjects = argSubject.isList() ? argSubject.getArgList() :
+                Collections.singletonList(argSubject.getArg());
+        List<Node> objects = argObject.isList() ? argObject.getArgList() :
+                Collections.singletonList(argObject.getArg());
+        Node textPredicate = null;
+        int pos = 0;
+        Node first = resolve(objects.get(pos), binding);
+        if (first.isURI()) {
+            textPredicate = first;
+            pos++;
+        }
+        if (pos >= objects.size()) {
+            throw new QueryExecException("text:query has no query string");
+        }
+        Node text = resolve(objects.get(pos++), binding);
+        if (!text.isLiteral()) {
+            throw new QueryExecException("text:query query must be a literal: " + text);
+        }
+        int limit = DEFAULT_LIMIT;
+        if (pos < objects.size()) {
+            Node n = resolve(objects.get(pos), binding);
+            if (!n.isLiteral() || !(n.getLiteralValue() instanceof Number)) {
+                throw new QueryExecException("text:query limit must be a number: " + n);
+            }
+            limit = ((Number) n.getLiteralValue()).intValue();
+        }
+        Node subject = resolve(subjects.get(0), binding);
+        List<ElasticsearchRDFGraph.TextHit> hits = ((ElasticsearchRDFGraph) graph)
+                .textQuery(subject.isConcrete() ? subject : null, textPredicate, text.getLiteralLexicalForm(), limit);
+        List<Binding> bindings = new ArrayList<Binding>(hits.size());
+        for (ElasticsearchRDFGraph.TextHit hit : hits) {
+            BindingMap b = BindingFactory.create(binding);
+            if (bind(b, subject, hit.getTriple().getSubject())
+                    && (subjects.size() < 2 || bind(b, resolve(subjects.get(1), binding),
+                            NodeFactory.createLiteral(Float.toString(hit.getScore()), XSDDatatype.XSDfloat)))
+                    && (subjects.size() < 3 || bind(b, resolve(subjects.get(2), binding),
+                            hit.getTriple().getObject()))) {
+                bindings.add(b);
+            }
+        }
+        return new QueryIterPlainWrapper(bindings.iterator(), execCxt);
+    }
+
+    private static Node resolve(Node node, Binding binding) {
+        if (Var.isVar(node)) {
+            Node value = binding.get(Var.alloc(node));
+            return value != null ? value : node;
+        }
+        return node;
+    }
+
+    private static boolean bind(BindingMap binding, Node node, Node value) {
+        if (Var.isVar(node)) {
+            Var var = Var.alloc(node);
+            Node current = binding.get(var);
+            if (current == null) {
+                binding.add(var, value);
+                return true;
+            }
+            return current.equals(value);
+        }
+        return node.equals(value);
+    }
+}
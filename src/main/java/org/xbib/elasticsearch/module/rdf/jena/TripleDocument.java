@@ -0,0 +1,135 @@
+/**
+ *    Copyright 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.module.rdf.jena;
+
+import com.hp.hpl.jena.datatypes.xsd.XSDDateTime;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+
+import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
+import static org.xbib.elasticsearch.module.rdf.jena.NTriples.asNt;
+import static org.xbib.elasticsearch.module.rdf.jena.NTriples.asNtURI;
+
+/**
+ * The Elasticsearch document of a triple, with its deterministic ID and the routing value of its subject.
+ */
+public class TripleDocument implements Datatypes {
+
+    private final String id;
+
+    private final String routing;
+
+    private final XContentBuilder source;
+
+    private TripleDocument(String id, String routing, XContentBuilder source) {
+        this.id = id;
+        this.routing = routing;
+        this.source = source;
+    }
+
+    public String id() {
+        return id;
+    }
+
+    public String routing() {
+        return routing;
+    }
+
+    /**
+     * Return the source of the document.
+     *
+     * @return the source, or null for a document that only identifies a triple to delete
+     */
+    public XContentBuilder source() {
+        return source;
+    }
+
+    /**
+     * Identify the document of a triple to delete, without building its source.
+     *
+     * @param triple the triple
+     * @param context the graph of the triple, or null for the default graph
+     * @return the document without source
+     */
+    public static TripleDocument deletion(Triple triple, Node context) {
+        return new TripleDocument(TripleId.of(triple, context), asNt(triple.getSubject()), null);
+    }
+
+    public static TripleDocument of(Triple triple, Node context) throws IOException {
+        return of(triple, context, false);
+    }
+
+    /**
+     * Create the document of a triple.
+     *
+     * @param triple the triple
+     * @param context the graph of the triple, or null for the default graph
+     * @param inferred true if the triple is entailed, not asserted
+     * @return the document
+     * @throws IOException if the document can not be built
+     */
+    public static TripleDocument of(Triple triple, Node context, boolean inferred) throws IOException {
+        String s = asNt(triple.getSubject());
+        String p = asNtURI(triple.getPredicate());
+        String o = asNt(triple.getObject());
+        String c = context != null ? asNtURI(context) : null;
+        XContentBuilder builder = jsonBuilder();
+        builder.startObject()
+                .field(Field.S, s)
+                .field(Field.P, p)
+                .field(Field.O, o);
+        if (c != null) {
+            builder.field(Field.C, c);
+        }
+        Node object = triple.getObject();
+        if (object.isLiteral()) {
+            String lang = object.getLiteralLanguage();
+            if (lang != null && !lang.isEmpty()) {
+                builder.field(Field.LANG, lang);
+            }
+            String dataType = object.getLiteralDatatype() != null ?
+                    object.getLiteralDatatype().getURI() : null;
+            Object value = object.getLiteralValue();
+            if (XSD_BOOLEAN.equals(dataType)) {
+                builder.field(Field.BOOLEAN_OBJECT, value);
+            } else if (XSD_DECIMAL.equals(dataType)
+                    || XSD_DOUBLE.equals(dataType)
+                    ) {
+                builder.field(Field.DOUBLE_OBJECT, value);
+            } else if (XSD_INT.equals(dataType)
+                    || XSD_INTEGER.equals(dataType)
+                    || XSD_LONG.equals(dataType)
+                    ) {
+                builder.field(Field.LONG_OBJECT, value);
+            } else if (XSD_DATE.equals(dataType)
+                    || XSD_DATETIME.equals(dataType)) {
+                builder.field(Field.DATE_OBJECT, ((XSDDateTime) value).asCalendar().getTime());
+            } else {
+                builder.field(Field.STRING_OBJECT, value);
+            }
+        } else {
+            builder.field(Field.STRING_OBJECT, o);
+        }
+        if (inferred) {
+            builder.field(Field.INFERRED, true);
+        }
+        builder.endObject();
+        return new TripleDocument(TripleId.of(s, p, o, c), s, builder);
+    }
+}
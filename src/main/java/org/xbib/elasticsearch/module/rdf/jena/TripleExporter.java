@@ -0,0 +1,197 @@
+/**
+ *    Copyright 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.module.rdf.jena;
+
+import org.elasticsearch.ElasticsearchIllegalArgumentException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchType;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.base.Charsets;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.bytes.ChannelBufferBytesReference;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.netty.buffer.ChannelBuffer;
+import org.elasticsearch.common.netty.buffer.ChannelBuffers;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.threadpool.ThreadPool;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Exports the triples of an index as N-Triples or N-Quads.
+ *
+ * Each shard is scanned by its own task on the generic thread pool. The lines are written straight
+ * from the N-Triples forms in the s, p, o and c fields, without parsing them into Jena nodes.
+ * With compression, each shard is written as a gzip member of its own, the concatenated members
+ * form a valid gzip stream.
+ *
+ * Only asserted triples are exported by default, like by a migration. N-Triples can not mark a triple
+ * as inferred, so exported entailments would become asserted triples when the export is uploaded again,
+ * and could no longer be retracted by a new inference run.
+ *
+ * The export is held in memory until it is complete, so its size is limited. An export that grows
+ * beyond the limit fails, and the scans of the other shards stop at their next page.
+ */
+public class TripleExporter {
+
+    private final static TimeValue KEEP_ALIVE = TimeValue.timeValueMinutes(1);
+
+    private final Client client;
+
+    private final ThreadPool threadPool;
+
+    private final JenaStatsService stats;
+
+    private final ByteSizeValue maxBytes;
+
+    /**
+     * @param client the client
+     * @param threadPool the thread pool
+     * @param stats the statistics
+     * @param maxBytes the maximum size of an export, as written, or -1 for no limit
+     */
+    public TripleExporter(Client client, ThreadPool threadPool, JenaStatsService stats, ByteSizeValue maxBytes) {
+        this.client = client;
+        this.threadPool = threadPool;
+        this.stats = stats;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Export the triples of an index.
+     *
+     * @param index the index or alias
+     * @param type the type
+     * @param mapping the mapping variant of the index, or null if not known
+     * @param shards the number of shards of the index
+     * @param quads whether to write N-Quads instead of N-Triples
+     * @param inferred whether to export the inferred triples too
+     * @param gzip whether to compress the export
+     * @param listener the listener, notified with the export
+     */
+    public void export(final String index, final String type, final TripleMapping mapping, int shards,
+                       final boolean quads, final boolean inferred, final boolean gzip,
+                       final ActionListener<BytesReference> listener) {
+        final BytesReference[] parts = new BytesReference[shards];
+        final AtomicInteger pending = new AtomicInteger(shards);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final AtomicLong size = new AtomicLong();
+        for (int i = 0; i < shards; i++) {
+            final int shard = i;
+            threadPool.generic().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        parts[shard] = exportShard(index, type, mapping, shard, quads, inferred, gzip, size,
+                                failure);
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                    if (pending.decrementAndGet() == 0) {
+                        if (failure.get() != null) {
+                            listener.onFailure(failure.get());
+                            return;
+                        }
+                        ChannelBuffer[] buffers = new ChannelBuffer[parts.length];
+                        for (int j = 0; j < parts.length; j++) {
+                            buffers[j] = parts[j].toChannelBuffer();
+                        }
+                        listener.onResponse(new ChannelBufferBytesReference(ChannelBuffers.wrappedBuffer(buffers)));
+                    }
+                }
+            });
+        }
+    }
+
+    private BytesReference exportShard(String index, String type, TripleMapping mapping, int shard,
+                                       boolean quads, boolean inferred, boolean gzip, AtomicLong size,
+                                       AtomicReference<Throwable> failure) throws IOException {
+        BytesStreamOutput bytes = new BytesStreamOutput();
+        OutputStream out = gzip ? new GZIPOutputStream(bytes, 65536) : bytes;
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, Charsets.UTF_8), 65536);
+        SearchRequestBuilder searchRequestBuilder = client.prepareSearch(index)
+                .setSearchType(SearchType.SCAN)
+                .setScroll(KEEP_ALIVE)
+                .setSize(1000)
+                .setPreference("_shards:" + shard)
+                .setQuery(inferred ? QueryBuilders.matchAllQuery() : JenaIngestService.asserted());
+        if (type != null) {
+            searchRequestBuilder.setTypes(type);
+        }
+        if (quads) {
+            TripleMapping.addFields(mapping, searchRequestBuilder, Field.S, Field.P, Field.O, Field.C);
+        } else {
+            TripleMapping.addFields(mapping, searchRequestBuilder, Field.S, Field.P, Field.O);
+        }
+        SearchResponse searchResponse = searchRequestBuilder.execute().actionGet();
+        stats.search(0L);
+        stats.scrollOpened();
+        long written = 0L;
+        try {
+            while (failure.get() == null) {
+                long delta = bytes.size() - written;
+                written += delta;
+                if (size.addAndGet(delta) > maxBytes.bytes() && maxBytes.bytes() >= 0L) {
+                    throw new ElasticsearchIllegalArgumentException("export of " + index + " is larger than "
+                            + maxBytes + ", see jena.export.max_bytes");
+                }
+                searchResponse = client.prepareSearchScroll(searchResponse.getScrollId())
+                        .setScroll(KEEP_ALIVE)
+                        .execute().actionGet();
+                int length = searchResponse.getHits().getHits().length;
+                stats.scrollPage(length);
+                if (length == 0) {
+                    break;
+                }
+                for (SearchHit hit : searchResponse.getHits()) {
+                    writer.write(TripleMapping.value(hit, Field.S));
+                    writer.write(' ');
+                    writer.write(TripleMapping.value(hit, Field.P));
+                    writer.write(' ');
+                    writer.write(NTriples.asNTriplesSyntax(TripleMapping.value(hit, Field.O)));
+                    if (quads) {
+                        String c = TripleMapping.value(hit, Field.C);
+                        if (c != null) {
+                            writer.write(' ');
+                            writer.write(c);
+                        }
+                    }
+                    writer.write(" .\n");
+                }
+            }
+        } finally {
+            stats.scrollClosed();
+            if (searchResponse.getScrollId() != null) {
+                client.prepareClearScroll().addScrollId(searchResponse.getScrollId()).execute().actionGet();
+            }
+        }
+        writer.close();
+        return bytes.bytes();
+    }
+}
@@ -0,0 +1,73 @@
+/**
+ *    Copyright 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.module.rdf.jena;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import org.elasticsearch.common.Base64;
+import org.elasticsearch.common.hash.MurmurHash3;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import static org.xbib.elasticsearch.module.rdf.jena.NTriples.asNt;
+import static org.xbib.elasticsearch.module.rdf.jena.NTriples.asNtURI;
+
+/**
+ * Deterministic document IDs for triples.
+ *
+ * The ID is a 128 bit Murmur3 hash over the N-Triples forms of subject, predicate,
+ * object and context, so indexing the same triple twice overwrites the existing document.
+ * Blank node labels of uploads are derived from the content, see {@link JenaIngestService#parse}.
+ */
+public class TripleId {
+
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+
+    private final static char SEPARATOR = '\u0000';
+
+    public static String of(Triple triple, Node context) {
+        return of(asNt(triple.getSubject()), asNtURI(triple.getPredicate()), asNt(triple.getObject()),
+                context != null ? asNtURI(context) : null);
+    }
+
+    public static String of(String s, String p, String o, String c) {
+        StringBuilder sb = new StringBuilder(s.length() + p.length() + o.length() + 3
+                + (c != null ? c.length() : 0));
+        sb.append(s).append(SEPARATOR).append(p).append(SEPARATOR).append(o).append(SEPARATOR);
+        if (c != null) {
+            sb.append(c);
+        }
+        byte[] bytes = sb.toString().getBytes(UTF8);
+        MurmurHash3.Hash128 hash = MurmurHash3.hash128(bytes, 0, bytes.length, 0L, new MurmurHash3.Hash128());
+        byte[] b = new byte[16];
+        putLong(b, 0, hash.h1);
+        putLong(b, 8, hash.h2);
+        try {
+            // 16 bytes encode to 22 chars plus two padding chars
+            return Base64.encodeBytes(b, 0, b.length, Base64.URL_SAFE).substring(0, 22);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void putLong(byte[] b, int offset, long l) {
+        for (int i = 7; i >= 0; i--) {
+            b[offset + i] = (byte) l;
+            l >>>= 8;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/**
+ *    Copyright 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.module.rdf.jena;
+
+import org.elasticsearch.ElasticsearchIllegalArgumentException;
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.action.support.IndicesOptions;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.cluster.metadata.MappingMetaData;
+import org.elasticsearch.cluster.metadata.MetaData;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHitField;
+
+/**
+ * The mapping variants of a triple index.
+ *
+ * {@link #STORED} keeps s, p, o and c as stored fields, which are read from the stored fields file of
+ * each hit. {@link #DOC_VALUES} maps them as not analyzed strings with doc values and without norms,
+ * so terms are read from the column stride doc values on disk and sorting or aggregating on them
+ * does not load field data into the heap. Nothing is stored in the doc values variant.
+ *
+ * The variant is recorded in the index setting {@code index.jena.mapping} when the index is created.
+ * Both variants route triples by the subject field, so the triples of a subject share a shard.
+ */
+public enum TripleMapping {
+
+    STORED("stored", "mapping.json"),
+
+    DOC_VALUES("doc_values", "mapping-doc-values.json");
+
+    public final static String SETTING = "index.jena.mapping";
+
+    private final String name;
+
+    private final String resource;
+
+    TripleMapping(String name, String resource) {
+        this.name = name;
+        this.resource = resource;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Return the name of the mapping resource, relative to this class.
+     *
+     * @return the resource name
+     */
+    public String getResource() {
+        return resource;
+    }
+
+    public static TripleMapping fromString(String name) {
+        for (TripleMapping mapping : values()) {
+            if (mapping.name.equals(name)) {
+                return mapping;
+            }
+        }
+        throw new ElasticsearchIllegalArgumentException("unknown mapping " + name
+                + ", must be one of stored or doc_values");
+    }
+
+    /**
+     * Return the mapping variant of the indices an index name or alias resolves to.
+     * Indices created before the variant was recorded are {@link #STORED}.
+     *
+     * @param metaData the cluster meta data
+     * @param index the index name or alias, null for all indices
+     * @return the variant, or null if the indices use different variants
+     */
+    public static TripleMapping of(MetaData metaData, String index) {
+        TripleMapping result = null;
+        String[] concreteIndices = metaData.concreteIndices(IndicesOptions.lenientExpandOpen(),
+                index != null ? new String[]{index} : new String[0]);
+        for (String concreteIndex : concreteIndices) {
+            IndexMetaData indexMetaData = metaData.index(concreteIndex);
+            TripleMapping mapping = fromString(indexMetaData.settings().get(SETTING, STORED.name));
+            if (result == null) {
+                result = mapping;
+            } else if (result != mapping) {
+                return null;
+            }
+        }
+        return result != null ? result : STORED;
+    }
+
+    /**
+     * Check if the triples of the indices an index name or alias resolves to are routed by their subject,
+     * so that all triples of a subject are on the same shard. Indices created before the routing
+     * was added to the mappings are routed by the triple ID.
+     *
+     * @param metaData the cluster meta data
+     * @param index the index name or alias
+     * @param type the type
+     * @return true if the type of all indices is routed by subject
+     */
+    public static boolean isRoutedBySubject(MetaData metaData, String index, String type) {
+        if (index == null || type == null) {
+            return false;
+        }
+        String[] concreteIndices = metaData.concreteIndices(IndicesOptions.lenientExpandOpen(), new String[]{index});
+        for (String concreteIndex : concreteIndices) {
+            MappingMetaData mappingMetaData = metaData.index(concreteIndex).mapping(type);
+            if (mappingMetaData == null || !Field.S.equals(mappingMetaData.routing().path())) {
+                return false;
+            }
+        }
+        return concreteIndices.length > 0;
+    }
+
+    /**
+     * Request the s, p and o values of the hits the way the mapping variant holds them.
+     * If the variant is not known, because an alias spans indices of both variants, both are requested.
+     *
+     * @param mapping the mapping variant, or null
+     * @param searchRequestBuilder the search request builder
+     * @param fields the fields
+     */
+    public static void addFields(TripleMapping mapping, SearchRequestBuilder searchRequestBuilder, String... fields) {
+        if (mapping != DOC_VALUES) {
+            searchRequestBuilder.addFields(fields);
+        }
+        if (mapping != STORED) {
+            for (String field : fields) {
+                searchRequestBuilder.addFieldDataField(field);
+            }
+        }
+    }
+
+    /**
+     * Return the value of a field of a hit, from stored fields or doc values.
+     *
+     * @param hit the hit
+     * @param field the field name
+     * @return the value, or null if the hit has no value for the field
+     */
+    public static String value(SearchHit hit, String field) {
+        SearchHitField hitField = hit.field(field);
+        return hitField != null ? (String) hitField.getValue() : null;
+    }
+}
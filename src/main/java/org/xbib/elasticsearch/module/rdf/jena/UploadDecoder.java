@@ -0,0 +1,184 @@
+/**
+ *    Copyright 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.module.rdf.jena;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFLanguages;
+import org.apache.jena.riot.tokens.Token;
+import org.apache.jena.riot.tokens.TokenType;
+import org.apache.jena.riot.tokens.Tokenizer;
+import org.apache.jena.riot.tokens.TokenizerFactory;
+import org.elasticsearch.ElasticsearchIllegalArgumentException;
+import org.elasticsearch.common.base.Charsets;
+import org.elasticsearch.common.bytes.BytesReference;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Decodes an RDF upload.
+ *
+ * Compressed content is decompressed while it is parsed, so the uncompressed content is never
+ * held in memory. The compression is given explicitly, or recognized by the magic bytes of gzip
+ * and bzip2. The RDF language is taken from the Content-Type header,
+ * or detected from the first bytes of the uncompressed content if the header is missing, generic,
+ * or unknown.
+ */
+public class UploadDecoder {
+
+    private final static int SNIFF_LENGTH = 4096;
+
+    private UploadDecoder() {
+    }
+
+    /**
+     * Open the uncompressed content.
+     *
+     * @param content the content
+     * @param contentEncoding the compression, or null to recognize it
+     * @return the uncompressed content
+     * @throws IOException if the content can not be decompressed
+     */
+    public static InputStream decode(BytesReference content, String contentEncoding) throws IOException {
+        InputStream in = content.streamInput();
+        String encoding = contentEncoding != null ? contentEncoding.trim().toLowerCase() : sniffEncoding(content);
+        if (encoding.isEmpty() || "identity".equals(encoding)) {
+            return in;
+        } else if ("gzip".equals(encoding) || "x-gzip".equals(encoding)) {
+            return new GZIPInputStream(in, 65536);
+        } else if ("deflate".equals(encoding)) {
+            return new InflaterInputStream(in);
+        } else if ("bzip2".equals(encoding) || "x-bzip2".equals(encoding)) {
+            return new BufferedInputStream(new BZip2CompressorInputStream(in), 65536);
+        }
+        throw new ElasticsearchIllegalArgumentException("unsupported content encoding " + contentEncoding);
+    }
+
+    /**
+     * Return the RDF language of the content.
+     *
+     * @param contentType the Content-Type header, or null
+     * @param content the content
+     * @param contentEncoding the compression, or null to recognize it
+     * @return the RDF language
+     * @throws IOException if the content can not be decompressed
+     */
+    public static Lang lang(String contentType, BytesReference content, String contentEncoding) throws IOException {
+        // parameters like the charset are not part of the media type
+        String mediaType = contentType != null ?
+                contentType.split(";", 2)[0].trim().toLowerCase() : null;
+        if (mediaType != null && !mediaType.equals("text/plain")
+                && !mediaType.equals("application/octet-stream")) {
+            Lang lang = RDFLanguages.contentTypeToLang(mediaType);
+            if (lang != null) {
+                return lang;
+            }
+        }
+        byte[] b = new byte[SNIFF_LENGTH];
+        int len = 0;
+        InputStream in = decode(content, contentEncoding);
+        try {
+            int n;
+            while (len < b.length && (n = in.read(b, len, b.length - len)) > 0) {
+                len += n;
+            }
+        } finally {
+            in.close();
+        }
+        return sniffLang(new String(b, 0, len, Charsets.UTF_8));
+    }
+
+    private static String sniffEncoding(BytesReference content) {
+        if (content.length() >= 2 && content.get(0) == (byte) 0x1f && content.get(1) == (byte) 0x8b) {
+            return "gzip";
+        }
+        if (content.length() >= 3 && content.get(0) == 'B' && content.get(1) == 'Z' && content.get(2) == 'h') {
+            return "bzip2";
+        }
+        return "";
+    }
+
+    /**
+     * Guess the RDF language from the beginning of a document. N-Triples and N-Quads are told apart
+     * by the number of terms in the first statement, everything else that is not JSON or XML is Turtle.
+     */
+    static Lang sniffLang(String s) {
+        String head = s.startsWith("\uFEFF") ? s.substring(1) : s;
+        int i = 0;
+        while (i < head.length()) {
+            // skip white space and comment lines
+            char c = head.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '#') {
+                int eol = head.indexOf('\n', i);
+                i = eol < 0 ? head.length() : eol + 1;
+            } else {
+                break;
+            }
+        }
+        head = head.substring(i);
+        if (head.startsWith("{") || isJSONArray(head)) {
+            return Lang.JSONLD;
+        }
+        if (head.startsWith("<?xml") || head.startsWith("<!--") || head.startsWith("<!DOCTYPE")
+                || head.startsWith("<rdf:RDF")) {
+            return Lang.RDFXML;
+        }
+        int eol = head.indexOf('\n');
+        String line = eol < 0 ? head : head.substring(0, eol);
+        int terms = 0;
+        try {
+            Tokenizer tokenizer = TokenizerFactory.makeTokenizerString(line);
+            while (tokenizer.hasNext()) {
+                Token token = tokenizer.next();
+                if (token.getType() == TokenType.DOT) {
+                    if (terms == 3) {
+                        return Lang.NTRIPLES;
+                    } else if (terms == 4) {
+                        return Lang.NQUADS;
+                    }
+                    break;
+                }
+                TokenType type = token.getType();
+                if (type != TokenType.IRI && type != TokenType.BNODE && type != TokenType.STRING2
+                        && type != TokenType.LITERAL_LANG && type != TokenType.LITERAL_DT) {
+                    break;
+                }
+                terms++;
+            }
+        } catch (Exception e) {
+            // not N-Triples or N-Quads
+        }
+        return Lang.TURTLE;
+    }
+
+    /**
+     * Tell a JSON array of objects from a Turtle document that begins with a blank node, like
+     * {@code [ ex:p ex:o ] .} or {@code [] ex:p ex:o .}
+     */
+    private static boolean isJSONArray(String head) {
+        if (!head.startsWith("[")) {
+            return false;
+        }
+        String rest = head.substring(1).trim();
+        return rest.startsWith("{") || (rest.startsWith("]") && rest.substring(1).trim().isEmpty());
+    }
+}
@@ -15,15 +15,36 @@
  */
 package org.xbib.elasticsearch.plugin.rdf.jena;
 
+import org.elasticsearch.action.ActionModule;
+import org.elasticsearch.common.collect.Lists;
+import org.elasticsearch.common.component.LifecycleComponent;
+import org.elasticsearch.common.inject.Module;
 import org.elasticsearch.plugins.AbstractPlugin;
 import org.elasticsearch.rest.RestModule;
+import org.xbib.elasticsearch.action.rdf.jena.StarJoinAction;
+import org.xbib.elasticsearch.action.rdf.jena.TransportStarJoinAction;
+import org.xbib.elasticsearch.module.rdf.jena.JenaIngestService;
+import org.xbib.elasticsearch.module.rdf.jena.JenaModule;
+import org.xbib.elasticsearch.module.rdf.jena.JenaStatsService;
+import org.xbib.elasticsearch.module.rdf.jena.QueryAdmission;
+import org.xbib.elasticsearch.module.rdf.jena.TextQueryPF;
 import org.xbib.elasticsearch.rest.rdf.jena.RestJenaAction;
+import org.xbib.elasticsearch.rest.rdf.jena.RestJenaExportAction;
+import org.xbib.elasticsearch.rest.rdf.jena.RestJenaInferAction;
+import org.xbib.elasticsearch.rest.rdf.jena.RestJenaMigrateAction;
+import org.xbib.elasticsearch.rest.rdf.jena.RestJenaPatchAction;
+import org.xbib.elasticsearch.rest.rdf.jena.RestJenaStatsAction;
 
+import java.util.Collection;
 
 public class JenaPlugin extends AbstractPlugin {
 
     public final static String NAME = "rdf-jena";
 
+    public JenaPlugin() {
+        TextQueryPF.register();
+    }
+
     @Override
     public String name() {
         return NAME;
@@ -34,8 +55,33 @@ public class JenaPlugin extends AbstractPlugin {
         return "RDF Jena plugin";
     }
 
+    @Override
+    public Collection<Class<? extends Module>> modules() {
+        Collection<Class<? extends Module>> modules = Lists.newArrayList();
+        modules.add(JenaModule.class);
+        return modules;
+    }
+
+    @Override
+    public Collection<Class<? extends LifecycleComponent>> services() {
+        Collection<Class<? extends LifecycleComponent>> services = Lists.newArrayList();
+        services.add(JenaStatsService.class);
+        services.add(JenaIngestService.class);
+        services.add(QueryAdmission.class);
+        return services;
+    }
+
+    public void onModule(ActionModule module) {
+        module.registerAction(StarJoinAction.INSTANCE, TransportStarJoinAction.class);
+    }
+
     public void onModule(RestModule module) {
         module.addRestAction(RestJenaAction.class);
+        module.addRestAction(RestJenaStatsAction.class);
+        module.addRestAction(RestJenaMigrateAction.class);
+        module.addRestAction(RestJenaExportAction.class);
+        module.addRestAction(RestJenaPatchAction.class);
+        module.addRestAction(RestJenaInferAction.class);
     }
 
 }
@@ -15,31 +15,37 @@
  */
 package org.xbib.elasticsearch.rest.rdf.jena;
 
-import com.hp.hpl.jena.datatypes.xsd.XSDDateTime;
 import com.hp.hpl.jena.graph.Node;
 import com.hp.hpl.jena.graph.Triple;
 import com.hp.hpl.jena.query.DatasetFactory;
 import com.hp.hpl.jena.query.Query;
+import com.hp.hpl.jena.query.QueryCancelledException;
 import com.hp.hpl.jena.query.QueryExecution;
-import com.hp.hpl.jena.query.QueryExecutionFactory;
-import com.hp.hpl.jena.query.QueryFactory;
 import com.hp.hpl.jena.query.ResultSet;
+import com.hp.hpl.jena.query.ResultSetFactory;
 import com.hp.hpl.jena.query.ResultSetFormatter;
-import com.hp.hpl.jena.query.SortCondition;
 import com.hp.hpl.jena.rdf.model.Model;
-import com.hp.hpl.jena.sparql.expr.Expr;
+import com.hp.hpl.jena.shared.PrefixMapping;
+import com.hp.hpl.jena.sparql.util.NodeFactoryExtra;
 import org.apache.jena.riot.Lang;
 import org.apache.jena.riot.RDFDataMgr;
 import org.apache.jena.riot.RDFLanguages;
-import org.apache.jena.riot.lang.PipedRDFIterator;
-import org.apache.jena.riot.lang.PipedRDFStream;
-import org.apache.jena.riot.lang.PipedTriplesStream;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFWriter;
 import org.elasticsearch.ElasticsearchIllegalArgumentException;
-import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.ElasticsearchTimeoutException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.support.IndicesOptions;
 import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.cluster.metadata.MetaData;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.io.stream.BytesStreamOutput;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.ToXContent;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.rest.BaseRestHandler;
 import org.elasticsearch.rest.BytesRestResponse;
@@ -48,151 +54,413 @@ import org.elasticsearch.rest.RestController;
 import org.elasticsearch.rest.RestRequest;
 import org.elasticsearch.rest.RestResponse;
 import org.elasticsearch.rest.RestStatus;
-import org.elasticsearch.search.sort.SortBuilder;
-import org.elasticsearch.search.sort.SortBuilders;
-import org.elasticsearch.search.sort.SortOrder;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.xbib.elasticsearch.module.rdf.jena.BulkLoad;
+import org.xbib.elasticsearch.module.rdf.jena.BulkTracker;
 import org.xbib.elasticsearch.module.rdf.jena.Datatypes;
-import org.xbib.elasticsearch.module.rdf.jena.ElasticsearchBulkClient;
+import org.xbib.elasticsearch.module.rdf.jena.DistinctPattern;
 import org.xbib.elasticsearch.module.rdf.jena.ElasticsearchRDFDatasetGraph;
-import org.xbib.elasticsearch.module.rdf.jena.Field;
+import org.xbib.elasticsearch.module.rdf.jena.ElasticsearchRDFGraph;
+import org.xbib.elasticsearch.module.rdf.jena.JenaIngestService;
+import org.xbib.elasticsearch.module.rdf.jena.JenaStatsService;
+import org.xbib.elasticsearch.module.rdf.jena.NodeCache;
+import org.xbib.elasticsearch.module.rdf.jena.PathCache;
+import org.xbib.elasticsearch.module.rdf.jena.PreparedQuery;
+import org.xbib.elasticsearch.module.rdf.jena.QueryAdmission;
+import org.xbib.elasticsearch.module.rdf.jena.QueryCache;
+import org.xbib.elasticsearch.module.rdf.jena.QueryContext;
+import org.xbib.elasticsearch.module.rdf.jena.QueryCost;
 import org.xbib.elasticsearch.module.rdf.jena.QueryDecoder;
+import org.xbib.elasticsearch.module.rdf.jena.QueryGuard;
+import org.xbib.elasticsearch.module.rdf.jena.QueryProfile;
+import org.xbib.elasticsearch.module.rdf.jena.ResultCache;
+import org.xbib.elasticsearch.module.rdf.jena.TripleMapping;
+import org.xbib.elasticsearch.module.rdf.jena.UploadDecoder;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Map;
 
 import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
-import static org.xbib.elasticsearch.module.rdf.jena.NTriples.asNt;
-import static org.xbib.elasticsearch.module.rdf.jena.NTriples.asNtURI;
 
 public class RestJenaAction extends BaseRestHandler implements Datatypes {
 
+    private final JenaIngestService ingestService;
+
+    private final JenaStatsService stats;
+
+    private final NodeCache nodeCache;
+
+    private final QueryCache queryCache;
+
+    private final ResultCache resultCache;
+
+    private final PathCache pathCache;
+
+    private final QueryAdmission admission;
+
+    private final ClusterService clusterService;
+
+    private final int distinctMaxTerms;
+
+    private final TimeValue timeout;
+
+    private final long maxScanned;
+
+    private final long maxBindings;
+
+    private final boolean starJoin;
+
+    private final ThreadPool threadPool;
+
+    private final int concurrency;
+
     @Inject
-    public RestJenaAction(Settings settings, Client client, RestController controller) {
+    public RestJenaAction(Settings settings, Client client, RestController controller,
+                          ClusterService clusterService, JenaIngestService ingestService, JenaStatsService stats,
+                          NodeCache nodeCache, QueryCache queryCache, ResultCache resultCache,
+                          PathCache pathCache, QueryAdmission admission, ThreadPool threadPool) {
         super(settings, controller, client);
+        this.clusterService = clusterService;
+        this.distinctMaxTerms = settings.getAsInt("jena.distinct.max_terms", 10000);
+        this.timeout = settings.getAsTime("jena.query.timeout", TimeValue.timeValueMinutes(1));
+        this.maxScanned = settings.getAsLong("jena.query.max_scanned", 10000000L);
+        this.maxBindings = settings.getAsLong("jena.query.max_bindings", 10000000L);
+        this.starJoin = settings.getAsBoolean("jena.query.star_join", true);
+        this.concurrency = settings.getAsInt("jena.query.concurrency", 4);
+        this.threadPool = threadPool;
+        this.ingestService = ingestService;
+        this.stats = stats;
+        this.nodeCache = nodeCache;
+        this.queryCache = queryCache;
+        this.resultCache = resultCache;
+        this.pathCache = pathCache;
+        this.admission = admission;
         controller.registerHandler(RestRequest.Method.GET, "/_jena/{index}/{type}", this);
         controller.registerHandler(RestRequest.Method.POST, "_jena/{index}/{type}", this);
         controller.registerHandler(RestRequest.Method.PUT, "/_jena/{index}/{type}", this);
     }
 
     @Override
-    protected void handleRequest(final RestRequest request, RestChannel channel, Client client) throws Exception {
+    protected void handleRequest(final RestRequest request, final RestChannel channel, Client client) throws Exception {
         try {
             final String accept = request.header("Accept") != null ?
                     request.header("Accept") : "text/plain";
-            final String contentType = request.header("Content-Type") != null ?
-                    request.header("Content-Type") : "text/plain";
+            final String contentType = request.header("Content-Type");
+            // the HTTP layer rejects a Content-Encoding header unless http.compression is enabled
+            final String contentEncoding = request.param("content_encoding", request.header("Content-Encoding"));
+            // only form bodies carry query parameters, uploads are never decoded to a string
             QueryDecoder decoder = new QueryDecoder(request.uri(),
-                    request.content() != null ? request.content().toUtf8() : null);
+                    isForm(contentType, request) ? request.content().toUtf8() : null);
             if (decoder.parameters().get("query", null) != null ||
                     decoder.parameters().get("q") != null) {
                 String query = decoder.parameters().get("query", decoder.parameters().get("q", null));
                 if (query == null) {
                     throw new ElasticsearchIllegalArgumentException("no query parameter");
                 } else {
-                    Query sparql = QueryFactory.create(query);
-                    int from = (int)(sparql.getOffset() > 0 ? sparql.getOffset() : 0);
-                    int size = (int)(sparql.getLimit() > 0 ? sparql.getLimit() : 10);
-                    SearchRequestBuilder searchRequestBuilder = new SearchRequestBuilder(client)
-                            .setFrom(from)
-                            .setSize(size);
-                    List<SortBuilder> sortBuilders = buildSort(sparql.getOrderBy());
-                    if (sortBuilders != null) {
-                        for (SortBuilder sortBuilder : sortBuilders) {
-                            searchRequestBuilder.addSort(sortBuilder);
+                    long t0 = System.nanoTime();
+                    PreparedQuery preparedQuery;
+                    Map<String, Node> bindings;
+                    try {
+                        preparedQuery = queryCache.prepare(query);
+                        bindings = bindings(decoder.parameters().asFlatMap());
+                    } catch (Exception e) {
+                        stats.queryFailed();
+                        throw e;
+                    }
+                    Query sparql = preparedQuery.getQuery();
+                    QueryProfile profile = request.paramAsBoolean("profile", false) ? new QueryProfile() : null;
+                    String cacheKey = null;
+                    long generation = 0L;
+                    if (profile == null && resultCache.isEnabled()) {
+                        cacheKey = ResultCache.key(request.param("index"), request.param("type"), query, bindings, accept);
+                        generation = resultCache.generation();
+                        ResultCache.Result result = resultCache.get(cacheKey);
+                        if (result != null) {
+                            stats.query(sparql.getQueryType(), System.nanoTime() - t0);
+                            channel.sendResponse(new BytesRestResponse(RestStatus.OK, result.getContentType(),
+                                    result.getContent(), true));
+                            return;
                         }
                     }
-                    QueryExecution execution = QueryExecutionFactory.create(sparql,
-                            DatasetFactory.create(new ElasticsearchRDFDatasetGraph(client,
-                                    request.param("index"), request.param("type"), searchRequestBuilder)));
-                    RestResponse response = null;
-                    switch (sparql.getQueryType()) {
-                        case Query.QueryTypeAsk:
-                            response = output(execution.execAsk(), accept);
-                            break;
-                        case Query.QueryTypeSelect:
-                            response = output(execution.execSelect(), accept);
-                            break;
-                        case Query.QueryTypeDescribe:
-                            response = output(execution.execDescribe(), accept);
-                            break;
-                        case Query.QueryTypeConstruct:
-                            response = output(execution.execConstruct(), accept);
-                            break;
+                    MetaData metaData = clusterService.state().metaData();
+                    boolean routedBySubject = TripleMapping.isRoutedBySubject(metaData,
+                            request.param("index"), request.param("type"));
+                    // ORDER BY, LIMIT and OFFSET apply to the solutions, not to the triples of a pattern,
+                    // so they are evaluated by Jena
+                    QueryContext context = new QueryContext(client, request.param("index"), request.param("type"),
+                            stats, nodeCache)
+                            .setMapping(TripleMapping.of(metaData, request.param("index")))
+                            .setRoutedBySubject(routedBySubject)
+                            // the triples of a subject are on one shard of one index only
+                            .setStarJoin(starJoin && routedBySubject && metaData.concreteIndices(
+                                    IndicesOptions.lenientExpandOpen(), request.param("index")).length == 1)
+                            .setPathCache(pathCache)
+                            .setExecutor(concurrency > 1 ? threadPool.executor(ThreadPool.Names.GENERIC) : null,
+                                    concurrency)
+                            .setProfile(profile);
+                    if (profile != null) {
+                        profile.setPlan(preparedQuery.getOp().toString());
+                    }
+                    QueryTask task = new QueryTask(channel, client, preparedQuery, bindings, context, profile,
+                            request.paramAsTime("timeout", timeout), accept, cacheKey, generation, t0);
+                    if (admission.isEnabled()) {
+                        try {
+                            // only the estimate is limited here, the query is timed from its admission on
+                            context.setGuard(new QueryGuard(request.paramAsTime("timeout", timeout), -1L, -1L));
+                            QueryCost cost = QueryCost.estimate(context, preparedQuery.getOp(bindings));
+                            if (profile != null) {
+                                profile.setEstimate(cost);
+                            }
+                            admission.execute(request.param("index"), cost, task);
+                        } catch (Exception e) {
+                            stats.queryFailed();
+                            throw e;
+                        }
+                    } else {
+                        task.run();
                     }
-                    channel.sendResponse(response);
                 }
             } else {
                 if (request.content() == null) {
                     throw new ElasticsearchIllegalArgumentException("no content for upload");
                 }
-                final PipedRDFIterator<Triple> iterator = new PipedRDFIterator<Triple>();
-                final PipedRDFStream<Triple> inputStream = new PipedTriplesStream(iterator);
-                Runnable parser = new Runnable() {
-                    @Override
-                    public void run() {
-                        logger.debug("parser starts, {} {}", contentType, request.content().length());
-                        RDFDataMgr.parse(inputStream,
-                                request.content().streamInput(),
-                                RDFLanguages.contentTypeToLang(contentType));
+                Lang lang = UploadDecoder.lang(contentType, request.content(), contentEncoding);
+                if (request.paramAsBoolean("bulkload", false)) {
+                    String alias = request.param("index");
+                    ingestService.bulkLoad(alias, request.param("type"), request.content(), contentEncoding, lang,
+                            request.paramAsBoolean("infer", ingestService.isInfer()),
+                            request.paramAsInt("replicas", ingestService.numberOfReplicas(alias)),
+                            request.paramAsBoolean("delete_previous", false),
+                            new ActionListener<BulkLoad>() {
+                                @Override
+                                public void onResponse(BulkLoad bulkLoad) {
+                                    try {
+                                        BulkTracker tracker = bulkLoad.getTracker();
+                                        XContentBuilder builder = jsonBuilder();
+                                        builder.startObject()
+                                                .field("count", tracker.getSubmitted())
+                                                .field("indexed", tracker.getSucceeded())
+                                                .field("failed", tracker.getFailed())
+                                                .field("retries", tracker.getRetries())
+                                                .field("inferred", tracker.getInferred())
+                                                .field("alias", bulkLoad.getAlias())
+                                                .field("index", bulkLoad.getIndex())
+                                                .field("swapped", bulkLoad.isSwapped())
+                                                .endObject();
+                                        channel.sendResponse(new BytesRestResponse(RestStatus.OK, builder));
+                                    } catch (IOException e) {
+                                        onFailure(e);
+                                    }
+                                }
+
+                                @Override
+                                public void onFailure(Throwable e) {
+                                    logger.error(e.getMessage(), e);
+                                    try {
+                                        channel.sendResponse(new BytesRestResponse(channel, e));
+                                    } catch (IOException x) {
+                                        // ignore
+                                    }
+                                }
+                            });
+                    return;
+                }
+                ingestService.ingest(request.param("index"), request.param("type"), request.content(),
+                        contentEncoding, lang, request.paramAsBoolean("infer", ingestService.isInfer()),
+                        new ActionListener<BulkTracker>() {
+                            @Override
+                            public void onResponse(BulkTracker tracker) {
+                                try {
+                                    XContentBuilder builder = jsonBuilder();
+                                    builder.startObject()
+                                            .field("count", tracker.getSubmitted())
+                                            .field("indexed", tracker.getSucceeded())
+                                            .field("failed", tracker.getFailed())
+                                            .field("retries", tracker.getRetries())
+                                            .field("inferred", tracker.getInferred())
+                                            .endObject();
+                                    channel.sendResponse(new BytesRestResponse(RestStatus.OK, builder));
+                                } catch (IOException e) {
+                                    onFailure(e);
+                                }
+                            }
+
+                            @Override
+                            public void onFailure(Throwable e) {
+                                logger.error(e.getMessage(), e);
+                                try {
+                                    channel.sendResponse(new BytesRestResponse(channel, e));
+                                } catch (IOException x) {
+                                    // ignore
+                                }
+                            }
+                        });
+            }
+        } catch (Exception e) {
+            logger.error(e.getMessage(), e);
+            try {
+                channel.sendResponse(new BytesRestResponse(channel, e));
+            } catch (IOException x) {
+                // ignore
+            }
+        }
+    }
+
+    /**
+     * The execution of a prepared query, on the HTTP worker, or with admission control on a query thread
+     * of its cost class. The guard is created when the execution starts, so that the time spent waiting
+     * for admission does not count against the query timeout.
+     */
+    private class QueryTask implements QueryAdmission.Task {
+
+        private final RestChannel channel;
+
+        private final Client client;
+
+        private final PreparedQuery preparedQuery;
+
+        private final Map<String, Node> bindings;
+
+        private final QueryContext context;
+
+        private final QueryProfile profile;
+
+        private final TimeValue queryTimeout;
+
+        private final String accept;
+
+        private final String cacheKey;
+
+        private final long generation;
+
+        private final long t0;
+
+        QueryTask(RestChannel channel, Client client, PreparedQuery preparedQuery, Map<String, Node> bindings,
+                  QueryContext context, QueryProfile profile, TimeValue queryTimeout, String accept,
+                  String cacheKey, long generation, long t0) {
+            this.channel = channel;
+            this.client = client;
+            this.preparedQuery = preparedQuery;
+            this.bindings = bindings;
+            this.context = context;
+            this.profile = profile;
+            this.queryTimeout = queryTimeout;
+            this.accept = accept;
+            this.cacheKey = cacheKey;
+            this.generation = generation;
+            this.t0 = t0;
+        }
+
+        @Override
+        public void run() {
+            try {
+                RestResponse response = execute();
+                stats.query(preparedQuery.getQuery().getQueryType(), System.nanoTime() - t0);
+                channel.sendResponse(response);
+            } catch (Exception e) {
+                fail(e);
+            }
+        }
+
+        @Override
+        public void onRejection(Exception e) {
+            stats.queryFailed();
+            fail(e);
+        }
+
+        private RestResponse execute() throws Exception {
+            Query sparql = preparedQuery.getQuery();
+            QueryGuard guard = new QueryGuard(queryTimeout, maxScanned, maxBindings);
+            context.setGuard(guard);
+            QueryExecution execution = preparedQuery.execution(
+                    DatasetFactory.create(new ElasticsearchRDFDatasetGraph(context)), bindings);
+            // Jena cancels its own operators, the guard bounds the requests to Elasticsearch
+            execution.setTimeout(guard.getTimeout().millis());
+            RestResponse response = null;
+            try {
+                long t1 = System.nanoTime();
+                long t2 = t1;
+                switch (sparql.getQueryType()) {
+                    case Query.QueryTypeAsk: {
+                        Triple pattern = preparedQuery.askPattern(bindings);
+                        boolean b = pattern != null ?
+                                new ElasticsearchRDFGraph(null, context).contains(pattern) :
+                                execution.execAsk();
+                        t2 = System.nanoTime();
+                        response = output(b, accept);
+                        break;
                     }
-                };
-                ElasticsearchBulkClient bulkClient = new ElasticsearchBulkClient(client,
-                        request.param("index"), request.param("type"));
-                bulkClient.createIndex();
-                ExecutorService executor = Executors.newSingleThreadExecutor();
-                executor.submit(parser);
-                int count = 0;
-                while (iterator.hasNext()) {
-                    final Triple triple = iterator.next();
-                    XContentBuilder builder = jsonBuilder();
-                    builder.startObject()
-                            .field(Field.S, asNt(triple.getSubject()))
-                            .field(Field.P, asNtURI(triple.getPredicate()));
-                    String o = asNt(triple.getObject());
-                    builder.field(Field.O, o);
-                    Node object = triple.getObject();
-                    if (object.isLiteral()) {
-                        String lang = object.getLiteralLanguage();
-                        if (lang != null && !lang.isEmpty()) {
-                            builder.field(Field.LANG, lang);
+                    case Query.QueryTypeSelect: {
+                        DistinctPattern distinctPattern = preparedQuery.getDistinctPattern();
+                        ResultSet resultSet = distinctPattern != null ?
+                                distinctPattern.execute(context, bindings, distinctMaxTerms) : null;
+                        if (resultSet == null) {
+                            resultSet = execution.execSelect();
                         }
-                        String dataType = object.getLiteralDatatype() != null ?
-                                object.getLiteralDatatype().getURI() : null;
-                        Object value = object.getLiteralValue();
-                        if (XSD_BOOLEAN.equals(dataType)) {
-                            builder.field(Field.BOOLEAN_OBJECT, value);
-                        } else if (XSD_DECIMAL.equals(dataType)
-                                || XSD_DOUBLE.equals(dataType)
-                                ) {
-                            builder.field(Field.DOUBLE_OBJECT, value);
-                        } else if (XSD_INT.equals(dataType)
-                                || XSD_INTEGER.equals(dataType)
-                                || XSD_LONG.equals(dataType)
-                                ) {
-                            builder.field(Field.LONG_OBJECT, value);
-                        } else if (XSD_DATE.equals(dataType)
-                                || XSD_DATETIME.equals(dataType)) {
-                            builder.field(Field.DATE_OBJECT, ((XSDDateTime) value).asCalendar().getTime());
-                        } else {
-                            builder.field(Field.STRING_OBJECT, value);
+                        if (profile != null) {
+                            // materialize, so that execution is not measured as serialization
+                            resultSet = ResultSetFactory.copyResults(resultSet);
                         }
-                    } else {
-                        builder.field(Field.STRING_OBJECT, o);
+                        t2 = System.nanoTime();
+                        response = output(resultSet, accept);
+                        break;
                     }
-                    builder.endObject();
-                    bulkClient.index(builder);
-                    count++;
+                    case Query.QueryTypeDescribe:
+                    case Query.QueryTypeConstruct: {
+                        Lang lang = RDFLanguages.contentTypeToLang(accept);
+                        if (lang != null && !StreamRDFWriter.registered(lang)) {
+                            // explicitly requested format without a streaming writer
+                            Model model = sparql.isConstructType() ?
+                                    execution.execConstruct() : execution.execDescribe();
+                            t2 = System.nanoTime();
+                            response = output(model, lang, accept);
+                            break;
+                        }
+                        Iterator<Triple> triples = sparql.isConstructType() ?
+                                execution.execConstructTriples() : execution.execDescribeTriples();
+                        if (profile != null) {
+                            // materialize, so that execution is not measured as serialization
+                            List<Triple> list = new ArrayList<Triple>();
+                            while (triples.hasNext()) {
+                                list.add(triples.next());
+                            }
+                            triples = list.iterator();
+                        }
+                        t2 = System.nanoTime();
+                        response = lang != null ?
+                                output(triples, lang, accept, sparql.getPrefixMapping()) :
+                                output(triples, Lang.NTRIPLES, Lang.NTRIPLES.getContentType().getContentType(),
+                                        sparql.getPrefixMapping());
+                        break;
+                    }
+                }
+                if (profile != null && response != null) {
+                    profile.setExecutionNanos(t2 - t1);
+                    profile.setSerializationNanos(System.nanoTime() - t2);
+                    response = profiled(response, profile);
                 }
-                bulkClient.refreshIndex();
-                bulkClient.close();
-                XContentBuilder builder = jsonBuilder();
-                builder.startObject().field("count", count).endObject();
-                channel.sendResponse(new BytesRestResponse(RestStatus.OK, builder));
+            } catch (QueryCancelledException e) {
+                stats.queryFailed();
+                throw new ElasticsearchTimeoutException("query timed out after " + guard.getTimeout());
+            } catch (Exception e) {
+                stats.queryFailed();
+                throw e;
+            } finally {
+                execution.close();
+                guard.close(client, stats);
             }
-        } catch (Exception e) {
+            if (cacheKey != null && response != null && response.status() == RestStatus.OK) {
+                resultCache.put(cacheKey, generation, new ResultCache.Result(response.contentType(),
+                        new BytesArray(response.content().toBytes())));
+            }
+            return response;
+        }
+
+        private void fail(Exception e) {
             logger.error(e.getMessage(), e);
             try {
                 channel.sendResponse(new BytesRestResponse(channel, e));
@@ -202,19 +470,49 @@ public class RestJenaAction extends BaseRestHandler implements Datatypes {
         }
     }
 
-    private List<SortBuilder> buildSort(List<SortCondition> orderby) {
-        if (orderby == null || orderby.isEmpty()) {
-            return null;
+    private static boolean isForm(String contentType, RestRequest request) {
+        if (!request.hasContent()) {
+            return false;
+        }
+        if (contentType != null) {
+            return contentType.startsWith("application/x-www-form-urlencoded");
         }
-        List<SortBuilder> sortBuilders = new ArrayList<SortBuilder>();
-        for (SortCondition sortCondition : orderby) {
-            Expr expr = sortCondition.getExpression();
-            String varName = expr.getVarName();
-            SortOrder sortOrder = sortCondition.getDirection() == Query.ORDER_ASCENDING ?
-                    SortOrder.ASC : SortOrder.DESC;
-            sortBuilders.add(SortBuilders.fieldSort(varName).order(sortOrder));
+        BytesReference content = request.content();
+        String head = content.slice(0, Math.min(6, content.length())).toUtf8();
+        return head.startsWith("q=") || head.startsWith("query=");
+    }
+
+    /**
+     * Parse the request parameters starting with $ as initial bindings of query variables.
+     * The values are RDF terms in Turtle syntax, e.g. {@code $product=<http://example.org/p1>}
+     * or {@code $year=2008}.
+     */
+    private Map<String, Node> bindings(Map<String, String> params) {
+        Map<String, Node> bindings = new HashMap<String, Node>();
+        for (Map.Entry<String, String> param : params.entrySet()) {
+            if (param.getKey().startsWith("$") && param.getKey().length() > 1) {
+                try {
+                    bindings.put(param.getKey().substring(1), NodeFactoryExtra.parseNode(param.getValue()));
+                } catch (Exception e) {
+                    throw new ElasticsearchIllegalArgumentException("invalid value for parameter "
+                            + param.getKey() + ": " + param.getValue());
+                }
+            }
         }
-        return sortBuilders;
+        return bindings;
+    }
+
+    /**
+     * Wrap a query response into a JSON response with the query profile.
+     */
+    private RestResponse profiled(RestResponse response, QueryProfile profile) throws IOException {
+        XContentBuilder builder = jsonBuilder();
+        builder.startObject().field("profile");
+        profile.toXContent(builder, ToXContent.EMPTY_PARAMS);
+        builder.field("content_type", response.contentType())
+                .field("results", response.content().toUtf8())
+                .endObject();
+        return new BytesRestResponse(response.status(), builder);
     }
 
     private RestResponse output(boolean b, String contentType) throws IOException {
@@ -272,17 +570,31 @@ public class RestJenaAction extends BaseRestHandler implements Datatypes {
         return new BytesRestResponse(RestStatus.OK, contentType, out.bytes(), false);
     }
 
-    private RestResponse output(Model model, String contentType) {
+    private RestResponse output(Model model, Lang lang, String contentType) {
         if (model == null) {
             return new BytesRestResponse(RestStatus.NOT_FOUND);
         }
         BytesStreamOutput out = new BytesStreamOutput();
-        Lang lang = RDFLanguages.contentTypeToLang(contentType);
-        if (lang == null) {
-            lang = Lang.RDFJSON;
-        }
         RDFDataMgr.write(out, model, lang);
         return new BytesRestResponse(RestStatus.OK, contentType, out.bytes(), false);
     }
 
+    /**
+     * Write triples as they are produced by the query, without collecting them in a model.
+     * Triples are not deduplicated.
+     */
+    private RestResponse output(Iterator<Triple> triples, Lang lang, String contentType, PrefixMapping prefixMapping) {
+        BytesStreamOutput out = new BytesStreamOutput();
+        StreamRDF stream = StreamRDFWriter.getWriterStream(out, lang);
+        stream.start();
+        for (Map.Entry<String, String> prefix : prefixMapping.getNsPrefixMap().entrySet()) {
+            stream.prefix(prefix.getKey(), prefix.getValue());
+        }
+        while (triples.hasNext()) {
+            stream.triple(triples.next());
+        }
+        stream.finish();
+        return new BytesRestResponse(RestStatus.OK, contentType, out.bytes(), false);
+    }
+
 }
@@ -0,0 +1,119 @@
+/**
+ *    Copyright 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.rest.rdf.jena;
+
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFLanguages;
+import org.elasticsearch.ElasticsearchIllegalArgumentException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.support.IndicesOptions;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.cluster.metadata.MetaData;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.index.Index;
+import org.elasticsearch.indices.IndexMissingException;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.BytesRestResponse;
+import org.elasticsearch.rest.RestChannel;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.xbib.elasticsearch.module.rdf.jena.JenaStatsService;
+import org.xbib.elasticsearch.module.rdf.jena.TripleExporter;
+import org.xbib.elasticsearch.module.rdf.jena.TripleMapping;
+
+import java.io.IOException;
+
+import static org.elasticsearch.rest.RestRequest.Method.GET;
+
+/**
+ * Exports all triples of an index as N-Triples, or as N-Quads if requested by the Accept header.
+ * The export is compressed with gzip if the Accept-Encoding header allows it.
+ */
+public class RestJenaExportAction extends BaseRestHandler {
+
+    private final ClusterService clusterService;
+
+    private final ThreadPool threadPool;
+
+    private final JenaStatsService stats;
+
+    private final ByteSizeValue maxBytes;
+
+    @Inject
+    public RestJenaExportAction(Settings settings, Client client, RestController controller,
+                                ClusterService clusterService, ThreadPool threadPool, JenaStatsService stats) {
+        super(settings, controller, client);
+        this.clusterService = clusterService;
+        this.threadPool = threadPool;
+        this.stats = stats;
+        this.maxBytes = settings.getAsBytesSize("jena.export.max_bytes", new ByteSizeValue(256, ByteSizeUnit.MB));
+        controller.registerHandler(GET, "/_jena/{index}/{type}/_export", this);
+    }
+
+    @Override
+    protected void handleRequest(RestRequest request, final RestChannel channel, Client client) throws Exception {
+        String index = request.param("index");
+        String accept = request.header("Accept");
+        Lang lang = accept != null ? RDFLanguages.contentTypeToLang(accept) : null;
+        if (lang == null) {
+            lang = Lang.NTRIPLES;
+        } else if (!lang.equals(Lang.NTRIPLES) && !lang.equals(Lang.NQUADS)) {
+            throw new ElasticsearchIllegalArgumentException("export supports N-Triples and N-Quads only, not " + accept);
+        }
+        final String contentType = lang.getContentType().getContentType();
+        String acceptEncoding = request.header("Accept-Encoding");
+        final boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+        MetaData metaData = clusterService.state().metaData();
+        String[] concreteIndices = metaData.concreteIndices(IndicesOptions.lenientExpandOpen(), index);
+        if (concreteIndices.length == 0) {
+            throw new IndexMissingException(new Index(index));
+        }
+        int shards = 0;
+        for (String concreteIndex : concreteIndices) {
+            shards = Math.max(shards, metaData.index(concreteIndex).numberOfShards());
+        }
+        new TripleExporter(client, threadPool, stats, maxBytes).export(index, request.param("type"),
+                TripleMapping.of(metaData, index), shards, lang.equals(Lang.NQUADS),
+                request.paramAsBoolean("inferred", false), gzip,
+                new ActionListener<BytesReference>() {
+                    @Override
+                    public void onResponse(BytesReference content) {
+                        BytesRestResponse response = new BytesRestResponse(RestStatus.OK, contentType, content, true);
+                        if (gzip) {
+                            response.addHeader("Content-Encoding", "gzip");
+                        }
+                        channel.sendResponse(response);
+                    }
+
+                    @Override
+                    public void onFailure(Throwable e) {
+                        logger.error(e.getMessage(), e);
+                        try {
+                            channel.sendResponse(new BytesRestResponse(channel, e));
+                        } catch (IOException x) {
+                            // ignore
+                        }
+                    }
+                });
+    }
+}
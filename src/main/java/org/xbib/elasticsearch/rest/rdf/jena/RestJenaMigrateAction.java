@@ -0,0 +1,93 @@
+/**
+ *    Copyright 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.rest.rdf.jena;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.BytesRestResponse;
+import org.elasticsearch.rest.RestChannel;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestStatus;
+import org.xbib.elasticsearch.module.rdf.jena.BulkLoad;
+import org.xbib.elasticsearch.module.rdf.jena.BulkTracker;
+import org.xbib.elasticsearch.module.rdf.jena.JenaIngestService;
+import org.xbib.elasticsearch.module.rdf.jena.TripleMapping;
+
+import java.io.IOException;
+
+import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
+import static org.elasticsearch.rest.RestRequest.Method.POST;
+
+/**
+ * Copies the triples of an index or alias into a fresh index with another mapping variant.
+ */
+public class RestJenaMigrateAction extends BaseRestHandler {
+
+    private final JenaIngestService ingestService;
+
+    @Inject
+    public RestJenaMigrateAction(Settings settings, Client client, RestController controller,
+                                 JenaIngestService ingestService) {
+        super(settings, controller, client);
+        this.ingestService = ingestService;
+        controller.registerHandler(POST, "/_jena/{index}/{type}/_migrate", this);
+    }
+
+    @Override
+    protected void handleRequest(RestRequest request, final RestChannel channel, Client client) throws Exception {
+        String source = request.param("index");
+        ingestService.migrate(source, request.param("type"),
+                TripleMapping.fromString(request.param("mapping", TripleMapping.DOC_VALUES.getName())),
+                request.paramAsInt("replicas", ingestService.numberOfReplicas(source)),
+                request.paramAsBoolean("delete_previous", false),
+                new ActionListener<BulkLoad>() {
+                    @Override
+                    public void onResponse(BulkLoad bulkLoad) {
+                        try {
+                            BulkTracker tracker = bulkLoad.getTracker();
+                            XContentBuilder builder = jsonBuilder();
+                            builder.startObject()
+                                    .field("count", tracker.getSubmitted())
+                                    .field("indexed", tracker.getSucceeded())
+                                    .field("failed", tracker.getFailed())
+                                    .field("retries", tracker.getRetries())
+                                    .field("alias", bulkLoad.getAlias())
+                                    .field("index", bulkLoad.getIndex())
+                                    .field("swapped", bulkLoad.isSwapped())
+                                    .endObject();
+                            channel.sendResponse(new BytesRestResponse(RestStatus.OK, builder));
+                        } catch (IOException e) {
+                            onFailure(e);
+                        }
+                    }
+
+                    @Override
+                    public void onFailure(Throwable e) {
+                        logger.error(e.getMessage(), e);
+                        try {
+                            channel.sendResponse(new BytesRestResponse(channel, e));
+                        } catch (IOException x) {
+                            // ignore
+                        }
+                    }
+                });
+    }
+}
@@ -0,0 +1,54 @@
+/**
+ *    Copyright 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.rest.rdf.jena;
+
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.BytesRestResponse;
+import org.elasticsearch.rest.RestChannel;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestStatus;
+import org.xbib.elasticsearch.module.rdf.jena.JenaStatsService;
+
+import static org.elasticsearch.rest.RestRequest.Method.GET;
+
+/**
+ * Reports the plugin statistics of this node.
+ */
+public class RestJenaStatsAction extends BaseRestHandler {
+
+    private final JenaStatsService stats;
+
+    @Inject
+    public RestJenaStatsAction(Settings settings, Client client, RestController controller, JenaStatsService stats) {
+        super(settings, controller, client);
+        this.stats = stats;
+        controller.registerHandler(GET, "/_jena/_stats", this);
+    }
+
+    @Override
+    protected void handleRequest(RestRequest request, RestChannel channel, Client client) throws Exception {
+        XContentBuilder builder = channel.newBuilder();
+        builder.startObject();
+        stats.toXContent(builder, request);
+        builder.endObject();
+        channel.sendResponse(new BytesRestResponse(RestStatus.OK, builder));
+    }
+}
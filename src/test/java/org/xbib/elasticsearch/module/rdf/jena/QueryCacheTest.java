@@ -0,0 +1,88 @@
+/**
+ *    Copyright 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.module.rdf.jena;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class QueryCacheTest {
+
+    @Test
+    public void testWhiteSpace() {
+        assertEquals("SELECT * { ?s ?p ?o } LIMIT 1",
+                QueryCache.normalize("  SELECT *\n{\t?s  ?p ?o }\r\n  LIMIT 1 \n"));
+    }
+
+    @Test
+    public void testComments() {
+        assertEquals("SELECT * { ?s ?p ?o } LIMIT 1",
+                QueryCache.normalize("SELECT * { ?s ?p ?o } # note\nLIMIT 1"));
+        assertEquals("SELECT * { ?s ?p ?o }",
+                QueryCache.normalize("SELECT * { ?s ?p ?o } # note LIMIT 1"));
+        assertEquals("SELECT * { ?s ?p ?o}",
+                QueryCache.normalize("SELECT * {#comment\n?s ?p ?o}#"));
+        assertNotEquals(QueryCache.normalize("SELECT * { ?s ?p ?o } # note\nLIMIT 1"),
+                QueryCache.normalize("SELECT * { ?s ?p ?o } # note LIMIT 1"));
+    }
+
+    @Test
+    public void testShortLiterals() {
+        assertEquals("SELECT * { ?s ?p \"a  # b\" }",
+                QueryCache.normalize("SELECT * { ?s ?p \"a  # b\" }"));
+        assertEquals("SELECT * { ?s ?p 'a \\' #  b' }",
+                QueryCache.normalize("SELECT * { ?s ?p 'a \\' #  b' }"));
+        assertEquals("SELECT * { ?s ?p \"\" }",
+                QueryCache.normalize("SELECT * { ?s ?p \"\"   }"));
+    }
+
+    @Test
+    public void testLongLiterals() {
+        assertEquals("SELECT * { ?s ?p \"\"\"a \"b\"\n  # c\"\"\" }",
+                QueryCache.normalize("SELECT * { ?s ?p \"\"\"a \"b\"\n  # c\"\"\" }"));
+        assertEquals("SELECT * { ?s ?p '''a  ''b'' c''' }",
+                QueryCache.normalize("SELECT * { ?s ?p '''a  ''b'' c'''   }"));
+        assertNotEquals(QueryCache.normalize("SELECT * { ?s ?p \"\"\"a  b\"\"\" }"),
+                QueryCache.normalize("SELECT * { ?s ?p \"\"\"a b\"\"\" }"));
+    }
+
+    @Test
+    public void testIRIs() {
+        assertEquals("SELECT * { <http://example.org/a#b> ?p ?o }",
+                QueryCache.normalize("SELECT * {  <http://example.org/a#b> ?p ?o }"));
+        assertEquals("SELECT * { ?s ?p ?o FILTER (?o < 3) }",
+                QueryCache.normalize("SELECT * { ?s ?p ?o FILTER (?o < 3) # <x>\n}"));
+        assertEquals("SELECT * { ?s ?p ?o FILTER (?o <3) }",
+                QueryCache.normalize("SELECT * { ?s ?p ?o FILTER (?o <3) # x>\n}"));
+    }
+
+    @Test
+    public void testPrepare() {
+        QueryCache cache = new QueryCache(10);
+        PreparedQuery limited = cache.prepare("SELECT * { ?s ?p ?o } # note\nLIMIT 1");
+        PreparedQuery unlimited = cache.prepare("SELECT * { ?s ?p ?o } # note LIMIT 1");
+        assertNotSame(limited, unlimited);
+        assertEquals(1L, limited.getQuery().getLimit());
+        assertFalse(unlimited.getQuery().hasLimit());
+        assertSame(limited, cache.prepare("SELECT *\n{ ?s ?p ?o }\nLIMIT 1"));
+        assertEquals(1L, cache.hits());
+        assertEquals(2L, cache.misses());
+    }
+}
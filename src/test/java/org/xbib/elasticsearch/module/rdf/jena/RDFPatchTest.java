@@ -0,0 +1,182 @@
+/**
+ *    Copyright 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.module.rdf.jena;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import org.elasticsearch.ElasticsearchParseException;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class RDFPatchTest {
+
+    @Test
+    public void testRows() throws Exception {
+        // the rows are recorded with the indexed forms of the terms, datatypes have no angle brackets
+        assertEquals(Arrays.asList(
+                        "A <http://example.org/s> <http://example.org/p> \"o\"",
+                        "D <http://example.org/s> <http://example.org/p> _:b <http://example.org/g>",
+                        "A <http://example.org/s> <http://example.org/p> \"1\"^^http://www.w3.org/2001/XMLSchema#integer"),
+                parse("H id <urn:uuid:1> .\n"
+                        + "A <http://example.org/s> <http://example.org/p> \"o\" .\n"
+                        + "D <http://example.org/s> <http://example.org/p> _:b <http://example.org/g> .\n"
+                        + "A <http://example.org/s> <http://example.org/p> 1 <urn:x-arq:DefaultGraph> .\n",
+                        false));
+    }
+
+    @Test
+    public void testPrefixes() throws Exception {
+        assertEquals(Arrays.asList("A <http://example.org/s> <http://example.org/p> <http://example.org/o>"),
+                parse("PA \"ex\" <http://example.org/> .\n"
+                        + "A ex:s ex:p ex:o .\n"
+                        + "PD \"ex\" .\n", false));
+        try {
+            parse("PA \"ex\" <http://example.org/> .\n"
+                    + "PD \"ex\" .\n"
+                    + "A ex:s ex:p ex:o .\n", false);
+            fail();
+        } catch (Exception e) {
+            // the prefix is deleted
+        }
+    }
+
+    @Test
+    public void testErrors() throws Exception {
+        assertParseException("A <http://example.org/s> <http://example.org/p> .\n");
+        assertParseException("A <http://example.org/s> <http://example.org/p> \"o\"\n");
+        assertParseException("X <http://example.org/s> <http://example.org/p> \"o\" .\n");
+        assertParseException("<http://example.org/s> <http://example.org/p> \"o\" .\n");
+    }
+
+    @Test
+    public void testCommit() throws Exception {
+        assertEquals(Arrays.asList(
+                        "TX",
+                        "A <http://example.org/s> <http://example.org/p> \"2\"",
+                        "D <http://example.org/s> <http://example.org/p> \"1\"",
+                        "TC"),
+                parse("TX .\n"
+                        + "A <http://example.org/s> <http://example.org/p> \"1\" .\n"
+                        + "A <http://example.org/s> <http://example.org/p> \"2\" .\n"
+                        + "D <http://example.org/s> <http://example.org/p> \"1\" .\n"
+                        + "TC .\n", true));
+    }
+
+    @Test
+    public void testContexts() throws Exception {
+        // the same triple in different graphs is changed independently
+        assertEquals(Arrays.asList(
+                        "TX",
+                        "A <http://example.org/s> <http://example.org/p> \"o\"",
+                        "D <http://example.org/s> <http://example.org/p> \"o\" <http://example.org/g>",
+                        "TC"),
+                parse("TX .\n"
+                        + "A <http://example.org/s> <http://example.org/p> \"o\" .\n"
+                        + "D <http://example.org/s> <http://example.org/p> \"o\" <http://example.org/g> .\n"
+                        + "TC .\n", true));
+    }
+
+    @Test
+    public void testAbort() throws Exception {
+        assertEquals(Arrays.asList(
+                        "TX",
+                        "TA",
+                        "A <http://example.org/s> <http://example.org/p> \"2\"",
+                        "TX"),
+                parse("TX .\n"
+                        + "A <http://example.org/s> <http://example.org/p> \"1\" .\n"
+                        + "TA .\n"
+                        + "A <http://example.org/s> <http://example.org/p> \"2\" .\n"
+                        + "TX .\n"
+                        + "A <http://example.org/s> <http://example.org/p> \"3\" .\n", true));
+    }
+
+    @Test
+    public void testWithoutTransactions() throws Exception {
+        assertEquals(Arrays.asList(
+                        "TX",
+                        "A <http://example.org/s> <http://example.org/p> \"1\"",
+                        "TC"),
+                parse("TX .\n"
+                        + "A <http://example.org/s> <http://example.org/p> \"1\" .\n"
+                        + "TC .\n", false));
+    }
+
+    private static void assertParseException(String patch) throws Exception {
+        try {
+            parse(patch, false);
+            fail();
+        } catch (ElasticsearchParseException e) {
+            // expected
+        }
+    }
+
+    private static List<String> parse(String patch, boolean transactions) throws UnsupportedEncodingException {
+        Recorder recorder = new Recorder();
+        RDFPatch.parse(new ByteArrayInputStream(patch.getBytes("UTF-8")),
+                transactions ? new RDFPatch.Transactions(recorder) : recorder);
+        return recorder.rows;
+    }
+
+    private static class Recorder implements RDFPatch.Handler {
+
+        private final List<String> rows = new ArrayList<String>();
+
+        @Override
+        public void begin() {
+            rows.add("TX");
+        }
+
+        @Override
+        public void commit() {
+            rows.add("TC");
+        }
+
+        @Override
+        public void abort() {
+            rows.add("TA");
+        }
+
+        @Override
+        public void add(Triple triple, Node context) {
+            rows.add(row("A", triple, context));
+        }
+
+        @Override
+        public void delete(Triple triple, Node context) {
+            rows.add(row("D", triple, context));
+        }
+
+        private static String row(String code, Triple triple, Node context) {
+            StringBuilder sb = new StringBuilder(code)
+                    .append(' ').append(NTriples.asNt(triple.getSubject()))
+                    .append(' ').append(NTriples.asNt(triple.getPredicate()))
+                    .append(' ').append(triple.getObject().isBlank() ? "_:b" : NTriples.asNt(triple.getObject()));
+            if (context != null) {
+                sb.append(' ').append(NTriples.asNt(context));
+            }
+            return sb.toString();
+        }
+    }
+}
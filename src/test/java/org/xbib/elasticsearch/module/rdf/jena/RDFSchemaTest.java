@@ -0,0 +1,176 @@
+/**
+ *    Copyright 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.module.rdf.jena;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.NodeFactory;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.vocabulary.RDF;
+import com.hp.hpl.jena.vocabulary.RDFS;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RDFSchemaTest {
+
+    private final static Node TYPE = RDF.type.asNode();
+
+    private final static Node SUB_CLASS_OF = RDFS.subClassOf.asNode();
+
+    private final static Node SUB_PROPERTY_OF = RDFS.subPropertyOf.asNode();
+
+    private final static Node DOMAIN = RDFS.domain.asNode();
+
+    private final static Node RANGE = RDFS.range.asNode();
+
+    @Test
+    public void testBuilder() {
+        RDFSchema.Builder builder = RDFSchema.builder();
+        assertTrue(builder.build().isEmpty());
+        assertFalse(builder.add(triple(uri("x"), TYPE, uri("A"))));
+        assertFalse(builder.add(triple(uri("A"), SUB_CLASS_OF, NodeFactory.createLiteral("B"))));
+        assertTrue(builder.build().isEmpty());
+        assertTrue(builder.add(triple(uri("A"), SUB_CLASS_OF, uri("B"))));
+        assertFalse(builder.build().isEmpty());
+    }
+
+    @Test
+    public void testClassClosure() {
+        RDFSchema schema = schema(
+                triple(uri("A"), SUB_CLASS_OF, uri("B")),
+                triple(uri("B"), SUB_CLASS_OF, uri("C")),
+                triple(uri("C"), SUB_CLASS_OF, uri("D")));
+        // rdfs9
+        assertEquals(set(
+                        triple(uri("x"), TYPE, uri("B")),
+                        triple(uri("x"), TYPE, uri("C")),
+                        triple(uri("x"), TYPE, uri("D"))),
+                infer(schema, triple(uri("x"), TYPE, uri("A"))));
+        assertEquals(set(triple(uri("x"), TYPE, uri("D"))),
+                infer(schema, triple(uri("x"), TYPE, uri("C"))));
+        assertEquals(set(), infer(schema, triple(uri("x"), TYPE, uri("D"))));
+        // rdfs11
+        assertEquals(set(
+                        triple(uri("Z"), SUB_CLASS_OF, uri("B")),
+                        triple(uri("Z"), SUB_CLASS_OF, uri("C")),
+                        triple(uri("Z"), SUB_CLASS_OF, uri("D"))),
+                infer(schema, triple(uri("Z"), SUB_CLASS_OF, uri("A"))));
+    }
+
+    @Test
+    public void testClassCycle() {
+        RDFSchema schema = schema(
+                triple(uri("A"), SUB_CLASS_OF, uri("B")),
+                triple(uri("B"), SUB_CLASS_OF, uri("C")),
+                triple(uri("C"), SUB_CLASS_OF, uri("A")));
+        assertEquals(set(
+                        triple(uri("x"), TYPE, uri("B")),
+                        triple(uri("x"), TYPE, uri("C"))),
+                infer(schema, triple(uri("x"), TYPE, uri("A"))));
+    }
+
+    @Test
+    public void testPropertyClosure() {
+        RDFSchema schema = schema(
+                triple(uri("p"), SUB_PROPERTY_OF, uri("q")),
+                triple(uri("q"), SUB_PROPERTY_OF, uri("r")));
+        // rdfs7
+        assertEquals(set(
+                        triple(uri("s"), uri("q"), uri("o")),
+                        triple(uri("s"), uri("r"), uri("o"))),
+                infer(schema, triple(uri("s"), uri("p"), uri("o"))));
+        assertEquals(set(triple(uri("s"), uri("r"), NodeFactory.createLiteral("o"))),
+                infer(schema, triple(uri("s"), uri("q"), NodeFactory.createLiteral("o"))));
+        // rdfs5
+        assertEquals(set(
+                        triple(uri("n"), SUB_PROPERTY_OF, uri("q")),
+                        triple(uri("n"), SUB_PROPERTY_OF, uri("r"))),
+                infer(schema, triple(uri("n"), SUB_PROPERTY_OF, uri("p"))));
+    }
+
+    @Test
+    public void testDomainAndRange() {
+        RDFSchema schema = schema(
+                triple(uri("p"), SUB_PROPERTY_OF, uri("q")),
+                triple(uri("q"), DOMAIN, uri("A")),
+                triple(uri("q"), RANGE, uri("B")),
+                triple(uri("A"), SUB_CLASS_OF, uri("C")));
+        // rdfs2 and rdfs3 for the domain and range of a super property, closed by rdfs9
+        assertEquals(set(
+                        triple(uri("s"), uri("q"), uri("o")),
+                        triple(uri("s"), TYPE, uri("A")),
+                        triple(uri("s"), TYPE, uri("C")),
+                        triple(uri("o"), TYPE, uri("B"))),
+                infer(schema, triple(uri("s"), uri("p"), uri("o"))));
+        // a literal has no type
+        assertEquals(set(
+                        triple(uri("s"), TYPE, uri("A")),
+                        triple(uri("s"), TYPE, uri("C"))),
+                infer(schema, triple(uri("s"), uri("q"), NodeFactory.createLiteral("o"))));
+    }
+
+    @Test
+    public void testSubPropertyOfType() {
+        RDFSchema schema = schema(
+                triple(uri("kind"), SUB_PROPERTY_OF, TYPE),
+                triple(uri("A"), SUB_CLASS_OF, uri("B")));
+        assertEquals(set(
+                        triple(uri("x"), TYPE, uri("A")),
+                        triple(uri("x"), TYPE, uri("B"))),
+                infer(schema, triple(uri("x"), uri("kind"), uri("A"))));
+    }
+
+    @Test
+    public void testWithoutSelf() {
+        RDFSchema schema = schema(
+                triple(uri("p"), DOMAIN, uri("A")));
+        // the triple itself is not entailed
+        assertEquals(set(), infer(schema, triple(uri("x"), TYPE, uri("A"))));
+        assertEquals(set(triple(uri("x"), TYPE, uri("A"))),
+                infer(schema, triple(uri("x"), uri("p"), uri("o"))));
+    }
+
+    private static RDFSchema schema(Triple... triples) {
+        RDFSchema.Builder builder = RDFSchema.builder();
+        for (Triple triple : triples) {
+            assertTrue(builder.add(triple));
+        }
+        return builder.build();
+    }
+
+    private static Set<Triple> infer(RDFSchema schema, Triple triple) {
+        return new HashSet<Triple>(schema.infer(triple));
+    }
+
+    private static Set<Triple> set(Triple... triples) {
+        return triples.length > 0 ? new HashSet<Triple>(Arrays.asList(triples)) : Collections.<Triple>emptySet();
+    }
+
+    private static Triple triple(Node s, Node p, Node o) {
+        return Triple.create(s, p, o);
+    }
+
+    private static Node uri(String name) {
+        return NodeFactory.createURI("http://example.org/" + name);
+    }
+}
@@ -0,0 +1,128 @@
+/**
+ *    Copyright 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.module.rdf.jena;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.apache.jena.riot.Lang;
+import org.elasticsearch.ElasticsearchIllegalArgumentException;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.io.Streams;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class UploadDecoderTest {
+
+    private final static String NTRIPLES =
+            "<http://example.org/s> <http://example.org/p> \"o\"@en .\n";
+
+    private final static String NQUADS =
+            "<http://example.org/s> <http://example.org/p> _:b <http://example.org/g> .\n";
+
+    private final static String TURTLE =
+            "@prefix ex: <http://example.org/> .\nex:s ex:p ex:o .\n";
+
+    @Test
+    public void testNTriplesAndNQuads() {
+        assertEquals(Lang.NTRIPLES, UploadDecoder.sniffLang(NTRIPLES));
+        assertEquals(Lang.NTRIPLES, UploadDecoder.sniffLang(
+                "<http://example.org/s> <http://example.org/p> \"1\"^^<http://www.w3.org/2001/XMLSchema#integer> ."));
+        assertEquals(Lang.NTRIPLES, UploadDecoder.sniffLang("\uFEFF# comment\n\n  " + NTRIPLES));
+        assertEquals(Lang.NQUADS, UploadDecoder.sniffLang(NQUADS));
+    }
+
+    @Test
+    public void testTurtle() {
+        assertEquals(Lang.TURTLE, UploadDecoder.sniffLang(TURTLE));
+        assertEquals(Lang.TURTLE, UploadDecoder.sniffLang(
+                "<http://example.org/s> <http://example.org/p> <http://example.org/o> ;\n"
+                        + "  <http://example.org/q> 1 .\n"));
+        assertEquals(Lang.TURTLE, UploadDecoder.sniffLang(
+                "<http://example.org/s> <http://example.org/p> \"a\", \"b\" .\n"));
+        assertEquals(Lang.TURTLE, UploadDecoder.sniffLang(
+                "[ <http://example.org/p> <http://example.org/o> ] .\n"));
+        assertEquals(Lang.TURTLE, UploadDecoder.sniffLang(
+                "[] <http://example.org/p> <http://example.org/o> .\n"));
+        assertEquals(Lang.TURTLE, UploadDecoder.sniffLang(""));
+    }
+
+    @Test
+    public void testJSONLDAndRDFXML() {
+        assertEquals(Lang.JSONLD, UploadDecoder.sniffLang("{ \"@id\": \"http://example.org/s\" }"));
+        assertEquals(Lang.JSONLD, UploadDecoder.sniffLang("[\n  { \"@id\": \"http://example.org/s\" } ]"));
+        assertEquals(Lang.JSONLD, UploadDecoder.sniffLang("[ ]"));
+        assertEquals(Lang.RDFXML, UploadDecoder.sniffLang("<?xml version=\"1.0\"?>\n<rdf:RDF/>"));
+        assertEquals(Lang.RDFXML, UploadDecoder.sniffLang("<rdf:RDF xmlns:rdf=\"x\"/>"));
+        assertEquals(Lang.RDFXML, UploadDecoder.sniffLang("<!-- comment -->\n<rdf:RDF xmlns:rdf=\"x\"/>"));
+    }
+
+    @Test
+    public void testContentType() throws IOException {
+        BytesReference content = new BytesArray(NTRIPLES);
+        assertEquals(Lang.TURTLE, UploadDecoder.lang("text/turtle", content, null));
+        assertEquals(Lang.TURTLE, UploadDecoder.lang("text/turtle; charset=utf-8", content, null));
+        assertEquals(Lang.NQUADS, UploadDecoder.lang("application/n-quads", content, null));
+        // generic or unknown types are sniffed
+        assertEquals(Lang.NTRIPLES, UploadDecoder.lang(null, content, null));
+        assertEquals(Lang.NTRIPLES, UploadDecoder.lang("text/plain", content, null));
+        assertEquals(Lang.NTRIPLES, UploadDecoder.lang("application/octet-stream", content, null));
+        assertEquals(Lang.NTRIPLES, UploadDecoder.lang("application/x-unknown", content, null));
+    }
+
+    @Test
+    public void testCompression() throws IOException {
+        for (String encoding : new String[]{"gzip", "deflate", "bzip2"}) {
+            BytesReference content = compress(NQUADS, encoding);
+            assertEquals(NQUADS, decode(content, encoding));
+            assertEquals(Lang.NQUADS, UploadDecoder.lang(null, content, encoding));
+            if (!"deflate".equals(encoding)) {
+                // recognized by the magic bytes
+                assertEquals(NQUADS, decode(content, null));
+                assertEquals(Lang.NQUADS, UploadDecoder.lang(null, content, null));
+            }
+        }
+        assertEquals(NQUADS, decode(new BytesArray(NQUADS), "identity"));
+        try {
+            UploadDecoder.decode(new BytesArray(NQUADS), "compress");
+            fail();
+        } catch (ElasticsearchIllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static String decode(BytesReference content, String contentEncoding) throws IOException {
+        return Streams.copyToString(new InputStreamReader(UploadDecoder.decode(content, contentEncoding), "UTF-8"));
+    }
+
+    private static BytesReference compress(String s, String encoding) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        OutputStream out = "gzip".equals(encoding) ? new GZIPOutputStream(bytes) :
+                "deflate".equals(encoding) ? new DeflaterOutputStream(bytes) :
+                        new BZip2CompressorOutputStream(bytes);
+        out.write(s.getBytes("UTF-8"));
+        out.close();
+        return new BytesArray(bytes.toByteArray());
+    }
+}